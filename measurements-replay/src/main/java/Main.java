@@ -1,288 +1,278 @@
-import model.Beacon;
-import model.Coordinates;
 import model.Parameters;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import positioning.*;
+import positioning.RadioMap;
+import positioning.Site;
+import replay.AsyncResultSink;
+import replay.BinaryResultSink;
+import replay.ErrorAccumulator;
+import replay.EvaluationResult;
+import replay.GroundTruth;
+import replay.JsonResultSink;
+import replay.ParameterSearch;
+import replay.ParameterSpace;
+import replay.ParameterSweep;
+import replay.RadioMaps;
+import replay.ReplaySession;
+import replay.ResultSink;
+import replay.TraceCache;
 
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
 
 public class Main {
 
     private static final String BASE_PATH = "src/main/resources/traces/";
-
-    private static DistanceProvider distanceProvider = DistanceProvider.getInstance();
-    private static PositionProvider positionProvider = PositionProvider.getInstance();
-
-    private static List<Beacon> measurementsBuffer = new ArrayList<>();
-    private static List<List<Beacon>> allMeasurements = new ArrayList<>();
-
-    private static Map<Parameters, List<Coordinates>> traces = new HashMap<>();
-
+    private static final String CACHE_PATH = "target/trace-cache/";
+    private static final String OUTPUT_PATH = "replayed-traces/";
+    private static final String RESULTS_PATH = "results/";
+
+    private static final String SWEEP_ARGUMENT = "--sweep=";
+    private static final String SITE_ARGUMENT = "--site=";
+    private static final String SEARCH_ARGUMENT = "--search";
+
+    // Successive halving keeps the best third of the candidates, and triples the traces per rung
+    private static final int SEARCH_REDUCTION_FACTOR = 3;
+    private static final long SEARCH_SEED = 42;
+    private static final int SEARCH_REPORTED_RESULTS = 10;
+
+    // Number of replayed traces that may be waiting to be written
+    private static final int SINK_CAPACITY = 1024;
+
+    private static TraceCache traceCache = new TraceCache(Paths.get(CACHE_PATH));
+    private static ParameterSweep parameterSweep;
+
+    /**
+     * @param args Optionally "--site=name" or "--site=name:floor" to position on a floor of a site
+     *             bundled with the application instead of the default site (see {@link Site}).
+     *             Optionally "--sweep=path" to sweep the parameter combinations of the given sweep
+     *             configuration instead of the bundled one (see {@link ParameterSpace#load(Path)}).
+     *             Optionally "--search" to search the best parameter combinations by successive
+     *             halving (results/search.json), "--search=random:n" or
+     *             "--search=latin_hypercube:n" to only search a sample of n combinations.
+     *             Optionally "--evaluate" to only write the positioning errors of every parameter
+     *             combination (results/traceN.json), without keeping the replayed traces. Otherwise
+     *             all replayed traces of a trace are written to a single binary file
+     *             (replayed-traces/traceN.bin, read by read_replayed_traces in plotting/trace.py),
+     *             "--sink=json" writes every replayed trace to a separate JSON file instead
+     *             (replayed-traces/traceN/, the directory layout also read by the plotting scripts)
+     */
     public static void main(String[] args) {
-        for (int i = 1; i <= 10; i++) {
-            String traceName = "trace" + i;
-            System.out.println(traceName);
-
-            JSONArray measurements = readJson(BASE_PATH + traceName + "/measurements.json");
-            measurements.forEach(measurement -> readMeasurement((JSONObject) measurement));
-            // Add final measurements buffer
-            allMeasurements.add(new ArrayList<>(measurementsBuffer));
-
-            tryAllParameters(traceName);
-
-            // Clear measurements window and buffers
-            distanceProvider.clearMeasurements();
-            measurementsBuffer.clear();
-            allMeasurements.clear();
-            traces.clear();
+        try {
+            parameterSweep = new ParameterSweep(loadParameterSpace(args), loadSite(args),
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
         }
-    }
-
-    private static JSONArray readJson(String path) {
-        JSONParser jsonParser = new JSONParser();
-
-        try (Reader reader = new FileReader(path)) {
-            JSONArray jsonArray = (JSONArray) jsonParser.parse(reader);
 
-            // Sort json array by time (ascending)
-            jsonArray.sort((Comparator<JSONObject>) (a, b) -> {
-                String firstDateString = (String) a.get("system.totimestamp(timeuuid)");
-                String secondDateString = (String) b.get("system.totimestamp(timeuuid)");
-
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                try {
-                    Date firstDate = sdf.parse(firstDateString);
-                    Date secondDate = sdf.parse(secondDateString);
+        for (String arg : args) {
+            if (arg.equals(SEARCH_ARGUMENT) || arg.startsWith(SEARCH_ARGUMENT + "=")) {
+                searchParameters(arg);
+                return;
+            }
+        }
 
-                    return firstDate.compareTo(secondDate);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+        if (Arrays.asList(args).contains("--evaluate")) {
+            evaluateAllParameters();
+            return;
+        }
 
-                return 0;
-            });
+        try (ResultSink sink = new AsyncResultSink(createSink(args), SINK_CAPACITY)) {
+            List<ReplaySession> sessions = loadSessions();
+            for (ReplaySession session : sessions) {
+                System.out.println(session.getTraceName());
 
-            return jsonArray;
-        } catch (Exception e) {
+                tryAllParameters(session, createRadioMap(sessions, session), sink);
+            }
+        } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            parameterSweep.shutdown();
         }
-
-        return null;
     }
 
-    private static void readMeasurement(JSONObject measurement) {
-        final long scanPeriodThreshold = 400;
+    private static ParameterSpace loadParameterSpace(String[] args) throws IOException {
+        for (String arg : args) {
+            if (arg.startsWith(SWEEP_ARGUMENT)) {
+                return ParameterSpace.load(Paths.get(arg.substring(SWEEP_ARGUMENT.length())));
+            }
+        }
 
-        String beaconAddress = (String) measurement.get("beacon_address");
-        int rssi = ((Long) measurement.get("rssi")).intValue();
-        String lastMeasurementString = (String) measurement.get("system.totimestamp(timeuuid)");
+        return ParameterSpace.createDefault();
+    }
 
-        Date lastMeasurement = null;
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        try {
-            lastMeasurement = sdf.parse(lastMeasurementString);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static Site loadSite(String[] args) throws IOException {
+        for (String arg : args) {
+            if (arg.startsWith(SITE_ARGUMENT)) {
+                String[] site = arg.substring(SITE_ARGUMENT.length()).split(":");
+                return Site.load(site[0], site.length > 1 ? Integer.parseInt(site[1]) : Site.DEFAULT_FLOOR);
+            }
         }
 
-        Beacon beacon = new Beacon(beaconAddress, rssi, lastMeasurement);
+        return Site.getDefault();
+    }
 
-        // Recover beacons detected in each scan interval (500 ms)
-        if (!measurementsBuffer.isEmpty()) {
-            Date previousDate = measurementsBuffer.get(measurementsBuffer.size() - 1).getLastMeasurement();
-            if (previousDate != null && lastMeasurement != null) {
-                long difference = lastMeasurement.getTime() - previousDate.getTime();
+    private static ResultSink createSink(String[] args) {
+        Path outputDirectory = Paths.get(OUTPUT_PATH);
+        for (String arg : args) {
+            if (arg.startsWith(SWEEP_ARGUMENT) || arg.startsWith(SITE_ARGUMENT)) {
+                continue;
+            }
 
-                if (difference > scanPeriodThreshold) {
-                    allMeasurements.add(new ArrayList<>(measurementsBuffer));
-                    measurementsBuffer.clear();
-                }
+            if (arg.equals("--sink=json")) {
+                return new JsonResultSink(outputDirectory);
+            }
+
+            if (!arg.equals("--sink=binary")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
             }
         }
 
-        measurementsBuffer.add(beacon);
+        return new BinaryResultSink(outputDirectory);
     }
 
-    private static void addToTrace(Parameters parameters, Coordinates coordinates) {
-        List<Coordinates> trace = traces.get(parameters);
-        if (trace == null) {
-            trace = new ArrayList<>();
+    /**
+     * @return Returns the sessions of all traces that could be loaded
+     */
+    private static List<ReplaySession> loadSessions() {
+        // All traces are loaded up front, as the radio map of every trace is built from the others
+        List<ReplaySession> sessions = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            try {
+                sessions.add(ReplaySession.load(traceCache, Paths.get(BASE_PATH), "trace" + i));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
-        trace.add(coordinates);
-        traces.put(new Parameters(parameters), trace);
+        return sessions;
     }
 
-    private static void getAllPositions(List<Beacon> beaconList) {
-        final int[] windowSizes = {1, 5, 10, 15, 20};
-        final List<DistanceMethod> distanceMethods = new ArrayList<>(
-                Arrays.asList(DistanceMethod.MEAN, DistanceMethod.MEDIAN, DistanceMethod.MODE)
-        );
-        final List<DistanceModel> distanceModels = new ArrayList<>(
-                Arrays.asList(DistanceModel.PATH_LOSS,
-                        DistanceModel.FITTED_AVERAGE,
-                        DistanceModel.FITTED_LOS,
-                        DistanceModel.FITTED_NLOS)
-        );
-
-        final List<PositioningMethod> positioningMethods = new ArrayList<>(
-                Arrays.asList(PositioningMethod.TRILATERATION,
-                        PositioningMethod.WEIGHTED_CENTROID,
-                        PositioningMethod.PROBABILITY)
-        );
-
-        Parameters params = new Parameters();
-        for (int windowSize : windowSizes) {
-            params.setWindowSize(windowSize);
-
-            if (windowSize == 1) {
-                params.setDistanceMethod(null);
-
-                for (DistanceModel distanceModel : distanceModels) {
-                    params.setDistanceModel(distanceModel);
-
-                    if (distanceModel == DistanceModel.PATH_LOSS) {
-                        for (double exponent = 1.5; exponent < 3.6; exponent += 0.1) {
-                            params.setPathLossExponent(exponent);
-
-                            distanceProvider.updateParameters(distanceModel, DistanceMethod.MEAN, windowSize, exponent);
-
-                            getPositions(beaconList, positioningMethods, params);
-                        }
-                    } else {
-                        params.setPathLossExponent(-1);
-
-                        distanceProvider.updateParameters(distanceModel, DistanceMethod.MEAN, windowSize);
-
-                        getPositions(beaconList, positioningMethods, params);
-                    }
-                }
-            } else {
-                for (DistanceMethod distanceMethod : distanceMethods) {
-                    params.setDistanceMethod(distanceMethod);
-
-                    for (DistanceModel distanceModel : distanceModels) {
-                        params.setDistanceModel(distanceModel);
-
-                        if (distanceModel == DistanceModel.PATH_LOSS) {
-                            for (double exponent = 1.5; exponent < 3.6; exponent += 0.1) {
-                                params.setPathLossExponent(exponent);
-
-                                distanceProvider.updateParameters(distanceModel, distanceMethod, windowSize, exponent);
-
-                                getPositions(beaconList, positioningMethods, params);
-                            }
-                        } else {
-                            params.setPathLossExponent(-1);
-
-                            distanceProvider.updateParameters(distanceModel, distanceMethod, windowSize);
+    /**
+     * @return Returns the radio map of the fingerprinting method for the given session, built from
+     * all other traces so no trace is located with its own measurements
+     */
+    private static RadioMap createRadioMap(List<ReplaySession> sessions, ReplaySession session) {
+        return RadioMaps.createLeaveOneOut(sessions, session, GroundTruth.LIVING_ROOM_CHECKPOINTS);
+    }
 
-                            getPositions(beaconList, positioningMethods, params);
-                        }
-                    }
-                }
-            }
-        }
+    private static void tryAllParameters(ReplaySession session, RadioMap radioMap, ResultSink sink) throws IOException {
+        // Replayed traces are written while the sweep is still running
+        parameterSweep.run(session, radioMap, sink);
+        sink.endSession(session);
     }
 
-    private static void getPositions(List<Beacon> beaconList, List<PositioningMethod> positioningMethods, Parameters params) {
-        for (PositioningMethod positioningMethod : positioningMethods) {
-            params.setPositioningMethod(positioningMethod);
+    private static void evaluateAllParameters() {
+        try {
+            List<ReplaySession> sessions = loadSessions();
+            for (ReplaySession session : sessions) {
+                System.out.println(session.getTraceName());
 
-            // Reset weight exponent and pdf sharpness
-            params.setWeightExponent(-1);
-            params.setPdfSharpness(-1);
+                try {
+                    GroundTruth groundTruth = GroundTruth.atScans(GroundTruth.LIVING_ROOM_CHECKPOINTS, session);
 
-            try {
-                switch (positioningMethod) {
-                    case WEIGHTED_CENTROID:
-                        for (double weightExponent = 0.5; weightExponent < 3.6; weightExponent += 0.5) {
-                            params.setWeightExponent(weightExponent);
-                            positionProvider.updateWeightExponent(weightExponent);
-
-                            Coordinates position = positionProvider.getPosition(beaconList, positioningMethod);
-                            addToTrace(params, position);
-                        }
-                        break;
-                    case PROBABILITY:
-                        for (double pdfSharpness = 0.5; pdfSharpness < 3.6; pdfSharpness += 0.5) {
-                            params.setPdfSharpness(pdfSharpness);
-                            positionProvider.updatePdfSharpness(pdfSharpness);
-
-                            Coordinates position = positionProvider.getPosition(beaconList, positioningMethod);
-                            addToTrace(params, position);
-                        }
-                        break;
-                    default:
-                        Coordinates position = positionProvider.getPosition(beaconList, positioningMethod);
-                        addToTrace(params, position);
+                    saveResults(session.getTraceName(), parameterSweep.evaluate(session, groundTruth,
+                            createRadioMap(sessions, session)));
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-            } catch (PositioningException e) {
-                // Ignore positioning errors generated while replaying
             }
+        } finally {
+            parameterSweep.shutdown();
         }
     }
 
-    private static void tryAllParameters(String traceName) {
-        for (List<Beacon> measurements : allMeasurements) {
-            distanceProvider.addMeasurements(measurements);
-
-            getAllPositions(measurements);
-        }
+    /**
+     * @param searchArgument "--search" to search all combinations, otherwise "--search=random:n" or
+     *                       "--search=latin_hypercube:n"
+     */
+    private static void searchParameters(String searchArgument) {
+        try {
+            List<ReplaySession> sessions = loadSessions();
+            List<ParameterSearch.Trace> traces = new ArrayList<>();
+            for (ReplaySession session : sessions) {
+                GroundTruth groundTruth = GroundTruth.atScans(GroundTruth.LIVING_ROOM_CHECKPOINTS, session);
+                traces.add(new ParameterSearch.Trace(session, groundTruth, createRadioMap(sessions, session)));
+            }
 
-        for (Map.Entry<Parameters, List<Coordinates>> entry : traces.entrySet()) {
-            Parameters params = entry.getKey();
-            List<Coordinates> trace = entry.getValue();
+            ParameterSearch parameterSearch = new ParameterSearch(parameterSweep, SEARCH_REDUCTION_FACTOR, SEARCH_SEED);
+            BitSet candidates = getSearchCandidates(parameterSearch, searchArgument);
+            List<EvaluationResult> results = parameterSearch.search(traces, candidates);
+
+            long exhaustiveReplayCount = (long) parameterSweep.getCombinationCount() * traces.size();
+            System.out.println("Searched " + candidates.cardinality() + " of " + parameterSweep.getCombinationCount()
+                    + " combinations with " + parameterSearch.getReplayCount() + " of " + exhaustiveReplayCount
+                    + " replays");
+            for (int i = 0; i < Math.min(SEARCH_REPORTED_RESULTS, results.size()); i++) {
+                EvaluationResult result = results.get(i);
+                System.out.println(result.getErrors().getMeanError() + " " + result.getParameters());
+            }
 
-            saveTrace(params, trace, traceName);
+            saveResults("search", results);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            parameterSweep.shutdown();
         }
     }
 
-    private static void saveTrace(Parameters parameters, List<Coordinates> trace, String traceName) {
-        try {
-            Files.createDirectories(Paths.get("replayed-traces/" + traceName));
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static BitSet getSearchCandidates(ParameterSearch parameterSearch, String searchArgument) {
+        if (searchArgument.equals(SEARCH_ARGUMENT)) {
+            return parameterSearch.getAllCombinations();
         }
 
-        try (FileWriter file = new FileWriter("replayed-traces/" + traceName + "/" + parameters.toFileName() + ".json")) {
-            JSONArray traceJson = new JSONArray();
-            JSONArray traceTimestamps = readJson(BASE_PATH + traceName + "/trace.json");
-
-            for (int i = 0; i < trace.size(); i++) {
-                Coordinates coordinates = trace.get(i);
-                JSONObject coordinatesJson = coordinatesToJson(coordinates);
-
-                // Add positioning timestamps (used for ground truth interpolation)
-                String timestamp = (String) ((JSONObject) traceTimestamps.get(i)).get("system.totimestamp(timeuuid)");
-                coordinatesJson.put("time", timestamp);
-
-                traceJson.add(coordinatesJson);
+        String[] sampler = searchArgument.substring(SEARCH_ARGUMENT.length() + 1).split(":");
+        if (sampler.length == 2) {
+            int sampleSize = Integer.parseInt(sampler[1]);
+            if (sampler[0].equals("random")) {
+                return parameterSearch.sampleRandom(sampleSize);
             }
 
-            file.write(traceJson.toJSONString());
-            file.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (sampler[0].equals("latin_hypercube")) {
+                return parameterSearch.sampleLatinHypercube(sampleSize);
+            }
         }
-    }
 
-    private static JSONObject coordinatesToJson(Coordinates coordinates) {
-        JSONObject jsonObject = new JSONObject();
+        throw new IllegalArgumentException("Unknown argument: " + searchArgument);
+    }
 
-        jsonObject.put("x", coordinates.getX());
-        jsonObject.put("y", coordinates.getY());
-        jsonObject.put("confidence", coordinates.getConfidence());
+    /**
+     * @param name Name of the results file, usually the name of the trace
+     */
+    private static void saveResults(String name, List<EvaluationResult> results) throws IOException {
+        results.sort(Comparator.comparingDouble(result -> result.getErrors().getMeanError()));
+
+        JSONArray resultsJson = new JSONArray();
+        for (EvaluationResult result : results) {
+            Parameters parameters = result.getParameters();
+            ErrorAccumulator errors = result.getErrors();
+
+            // Same format as the results of plotting/trace.py
+            JSONObject resultJson = new JSONObject();
+            resultJson.put("filename", parameters.toFileName() + ".json");
+            resultJson.put("mean_error", errors.getMeanError());
+            resultJson.put("rms_error", errors.getRmsError());
+            resultJson.put("median_error", errors.getMedianError());
+            resultJson.put("percentile_75th_error", errors.getPercentileError(75));
+            resultJson.put("percentile_90th_error", errors.getPercentileError(90));
+
+            resultsJson.add(resultJson);
+        }
 
-        return jsonObject;
+        Files.createDirectories(Paths.get(RESULTS_PATH));
+        Path file = Paths.get(RESULTS_PATH, name + ".json");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(resultsJson.toJSONString());
+        }
     }
 }
@@ -16,6 +16,7 @@ public class Parameters {
     private PositioningMethod positioningMethod;
     private double weightExponent;
     private double pdfSharpness;
+    private boolean smoothing;
 
     public Parameters() {
 
@@ -30,6 +31,7 @@ public class Parameters {
         this.positioningMethod = parameters.positioningMethod;
         this.weightExponent = parameters.weightExponent;
         this.pdfSharpness = parameters.pdfSharpness;
+        this.smoothing = parameters.smoothing;
     }
 
     public int getWindowSize() {
@@ -88,6 +90,14 @@ public class Parameters {
         this.pdfSharpness = pdfSharpness;
     }
 
+    public boolean isSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(boolean smoothing) {
+        this.smoothing = smoothing;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -97,6 +107,7 @@ public class Parameters {
                 Double.compare(that.pathLossExponent, pathLossExponent) == 0 &&
                 Double.compare(that.weightExponent, weightExponent) == 0 &&
                 Double.compare(that.pdfSharpness, pdfSharpness) == 0 &&
+                smoothing == that.smoothing &&
                 distanceMethod == that.distanceMethod &&
                 distanceModel == that.distanceModel &&
                 positioningMethod == that.positioningMethod;
@@ -104,7 +115,7 @@ public class Parameters {
 
     @Override
     public int hashCode() {
-        return Objects.hash(windowSize, distanceMethod, distanceModel, pathLossExponent, positioningMethod, weightExponent, pdfSharpness);
+        return Objects.hash(windowSize, distanceMethod, distanceModel, pathLossExponent, positioningMethod, weightExponent, pdfSharpness, smoothing);
     }
 
     @Override
@@ -113,20 +124,23 @@ public class Parameters {
                 "windowSize=" + windowSize +
                 ", distanceMethod=" + distanceMethod +
                 ", distanceModel=" + distanceModel +
-                ", pathLossExponent=" + String.format("%.1f", pathLossExponent) +
+                ", pathLossExponent=" + pathLossExponent +
                 ", positioningMethod=" + positioningMethod +
                 ", weightExponent=" + weightExponent +
                 ", pdfSharpness=" + pdfSharpness +
+                ", smoothing=" + smoothing +
                 '}';
     }
 
     public String toFileName() {
+        // Smoothing is only mentioned when enabled, so unsmoothed results keep their original names
         return "windowSize=" + windowSize +
                 "_distanceMethod=" + (distanceMethod == null || windowSize == 1 ? -1 : distanceMethod) +
                 "_distanceModel=" + (distanceModel == null ? -1 : distanceModel) +
-                "_pathLossExponent=" + String.format("%.1f", pathLossExponent) +
+                "_pathLossExponent=" + pathLossExponent +
                 "_positioningMethod=" + (positioningMethod == null ? -1 : positioningMethod) +
                 "_weightExponent=" + weightExponent +
-                "_pdfSharpness=" + pdfSharpness;
+                "_pdfSharpness=" + pdfSharpness +
+                (smoothing ? "_smoothing=true" : "");
     }
 }
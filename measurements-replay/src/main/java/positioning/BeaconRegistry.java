@@ -0,0 +1,314 @@
+package positioning;
+
+import model.Beacon;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Beacons installed at a site, with their coordinates and calibration. Every beacon gets a dense
+ * id (its index in the configuration), and all properties are stored in arrays indexed by that
+ * id. Bluetooth addresses are stored as 48-bit numbers, and looked up with a binary search. Beacons
+ * of a scan are resolved by their address string, whose hash code the string caches, so addresses
+ * are only parsed for beacons whose address is not in the canonical uppercase format.
+ *
+ * Registries are JSON files (sites/&lt;site&gt;/beacons.json) with a list of "beacons", each with its
+ * "address", its coordinates in centimeters ("x" and "y") and optionally its calibrated
+ * "tx_power" (RSSI at one meter, in dBm). The optional "distance_models" object holds the
+ * calibration of the fitted distance models by model name: the "rssi_at_one_meter" and the
+ * "slope" of the RSSI per unit of the natural logarithm of the distance in meters.
+ *
+ * A registry is immutable, and can be shared freely between threads and sessions.
+ */
+public final class BeaconRegistry {
+
+    // Tx power of beacons without a calibrated value, their advertised tx power is used instead
+    public static final int NO_TX_POWER = Integer.MIN_VALUE;
+
+    private static final String SITES_RESOURCE_PATH = "/sites/";
+
+    private final long[] mAddresses;
+    private final double[] mX, mY;
+    private final int[] mTxPowers;
+
+    // Addresses in ascending order, and the id of every address
+    private final long[] mSortedAddresses;
+    private final int[] mSortedIds;
+
+    // Id of every address in the format of formatAddress
+    private final Map<String, Integer> mIdsByAddress;
+
+    // Calibration of every distance model by ordinal, NaN if the model is not calibrated
+    private final double[] mModelRssiAtOneMeter;
+    private final double[] mModelSlopes;
+
+    /**
+     * @param addresses Bluetooth address of every beacon (see {@link #parseAddress(String)})
+     * @param x X coordinate of every beacon in centimeters
+     * @param y Y coordinate of every beacon in centimeters
+     * @param txPowers Calibrated tx power of every beacon in dBm, or {@link #NO_TX_POWER}
+     * @param modelRssiAtOneMeter RSSI at one meter of every distance model (by ordinal), or NaN if
+     *                            the model is not calibrated
+     * @param modelSlopes Slope of every distance model (by ordinal), or NaN if the model is not
+     *                    calibrated
+     */
+    public BeaconRegistry(long[] addresses, double[] x, double[] y, int[] txPowers, double[] modelRssiAtOneMeter,
+                          double[] modelSlopes) {
+        int beaconCount = addresses.length;
+        if (x.length != beaconCount || y.length != beaconCount || txPowers.length != beaconCount) {
+            throw new IllegalArgumentException("Every beacon needs coordinates and a tx power");
+        }
+
+        int modelCount = DistanceModel.values().length;
+        if (modelRssiAtOneMeter.length != modelCount || modelSlopes.length != modelCount) {
+            throw new IllegalArgumentException("Every distance model needs a calibration");
+        }
+
+        mAddresses = addresses.clone();
+        mX = x.clone();
+        mY = y.clone();
+        mTxPowers = txPowers.clone();
+        mModelRssiAtOneMeter = modelRssiAtOneMeter.clone();
+        mModelSlopes = modelSlopes.clone();
+
+        mSortedAddresses = addresses.clone();
+        Arrays.sort(mSortedAddresses);
+        mSortedIds = new int[beaconCount];
+        for (int i = 0; i < beaconCount; i++) {
+            if (addresses[i] < 0) {
+                throw new IllegalArgumentException("Invalid address of beacon " + i);
+            }
+
+            if (i > 0 && mSortedAddresses[i] == mSortedAddresses[i - 1]) {
+                throw new IllegalArgumentException("Duplicate beacon " + formatAddress(mSortedAddresses[i]));
+            }
+        }
+
+        mIdsByAddress = new HashMap<>();
+        for (int id = 0; id < beaconCount; id++) {
+            mSortedIds[Arrays.binarySearch(mSortedAddresses, addresses[id])] = id;
+            mIdsByAddress.put(formatAddress(addresses[id]), id);
+        }
+    }
+
+    /**
+     * @param site Name of the site
+     * @return Returns the beacons of the site bundled with the application
+     */
+    public static BeaconRegistry loadSite(String site) throws IOException {
+        String name = SITES_RESOURCE_PATH + site + "/beacons.json";
+        try (InputStream inputStream = BeaconRegistry.class.getResourceAsStream(name)) {
+            if (inputStream == null) {
+                throw new IOException("No beacons for site " + site);
+            }
+
+            return parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8), name);
+        }
+    }
+
+    /**
+     * @param path Path of the beacon configuration file
+     */
+    public static BeaconRegistry load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader, path.toString());
+        }
+    }
+
+    private static BeaconRegistry parse(Reader reader, String name) throws IOException {
+        try {
+            JSONObject registryJson = (JSONObject) new JSONParser().parse(reader);
+
+            JSONArray beaconsJson = (JSONArray) registryJson.get("beacons");
+            int beaconCount = beaconsJson.size();
+            long[] addresses = new long[beaconCount];
+            double[] x = new double[beaconCount];
+            double[] y = new double[beaconCount];
+            int[] txPowers = new int[beaconCount];
+            for (int i = 0; i < beaconCount; i++) {
+                JSONObject beaconJson = (JSONObject) beaconsJson.get(i);
+
+                String address = (String) beaconJson.get("address");
+                addresses[i] = parseAddress(address);
+                if (addresses[i] < 0) {
+                    throw new IOException("Invalid beacon address " + address + " in " + name);
+                }
+
+                x[i] = getNumber(beaconJson, "x");
+                y[i] = getNumber(beaconJson, "y");
+
+                Number txPower = (Number) beaconJson.get("tx_power");
+                txPowers[i] = txPower == null ? NO_TX_POWER : txPower.intValue();
+            }
+
+            double[] modelRssiAtOneMeter = new double[DistanceModel.values().length];
+            double[] modelSlopes = new double[DistanceModel.values().length];
+            Arrays.fill(modelRssiAtOneMeter, Double.NaN);
+            Arrays.fill(modelSlopes, Double.NaN);
+
+            JSONObject modelsJson = (JSONObject) registryJson.get("distance_models");
+            if (modelsJson != null) {
+                for (Object modelName : modelsJson.keySet()) {
+                    DistanceModel distanceModel = DistanceModel.getDistanceModel((String) modelName);
+                    if (distanceModel == null) {
+                        throw new IOException("Unknown distance model " + modelName + " in " + name);
+                    }
+
+                    JSONObject modelJson = (JSONObject) modelsJson.get(modelName);
+                    modelRssiAtOneMeter[distanceModel.ordinal()] = getNumber(modelJson, "rssi_at_one_meter");
+                    modelSlopes[distanceModel.ordinal()] = getNumber(modelJson, "slope");
+                }
+            }
+
+            return new BeaconRegistry(addresses, x, y, txPowers, modelRssiAtOneMeter, modelSlopes);
+        } catch (ParseException | ClassCastException | NullPointerException | IllegalArgumentException e) {
+            throw new IOException("Invalid beacon configuration " + name + ": " + e, e);
+        }
+    }
+
+    private static double getNumber(JSONObject json, String key) {
+        return ((Number) json.get(key)).doubleValue();
+    }
+
+    /**
+     * @param address Bluetooth address in the format XX:XX:XX:XX:XX:XX (hexadecimal, in either case)
+     * @return Returns the address as a 48-bit number, or -1 if it is not a valid address
+     */
+    public static long parseAddress(String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return -1;
+                }
+
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+
+            value = (value << 4) | digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return Returns the address in the format XX:XX:XX:XX:XX:XX (uppercase)
+     */
+    public static String formatAddress(long address) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (address >>> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(octet >>> 4, 16)))
+                    .append(Character.toUpperCase(Character.forDigit(octet & 0xF, 16)));
+            if (shift > 0) {
+                builder.append(':');
+            }
+        }
+
+        return builder.toString();
+    }
+
+    public int size() {
+        return mAddresses.length;
+    }
+
+    /**
+     * @param address Bluetooth address as a 48-bit number (see {@link #parseAddress(String)})
+     * @return Returns the id of the beacon, or -1 if it is not part of the registry
+     */
+    public int getId(long address) {
+        if (address < 0) {
+            return -1;
+        }
+
+        int index = Arrays.binarySearch(mSortedAddresses, address);
+        return index < 0 ? -1 : mSortedIds[index];
+    }
+
+    /**
+     * @return Returns the id of the beacon, or -1 if it is not part of the registry
+     */
+    public int getId(Beacon beacon) {
+        return getId(beacon.getBluetoothAddress());
+    }
+
+    /**
+     * @param address Bluetooth address in the format XX:XX:XX:XX:XX:XX
+     * @return Returns the id of the beacon, or -1 if it is not part of the registry
+     */
+    public int getId(String address) {
+        Integer id = mIdsByAddress.get(address);
+        if (id != null) {
+            return id;
+        }
+
+        // Lowercase addresses (and invalid ones) do not match the canonical format
+        return getId(parseAddress(address));
+    }
+
+    public long getAddress(int id) {
+        return mAddresses[id];
+    }
+
+    public double getX(int id) {
+        return mX[id];
+    }
+
+    public double getY(int id) {
+        return mY[id];
+    }
+
+    /**
+     * @return Returns the calibrated tx power of the beacon in dBm, or {@link #NO_TX_POWER} if it has
+     * not been calibrated
+     */
+    public int getTxPower(int id) {
+        return mTxPowers[id];
+    }
+
+    /**
+     * @return Returns whether the fitted distance model is calibrated for this site
+     */
+    public boolean isCalibrated(DistanceModel distanceModel) {
+        return !Double.isNaN(mModelSlopes[distanceModel.ordinal()]);
+    }
+
+    /**
+     * @return Returns the fitted RSSI at one meter of the distance model in dBm, or NaN if the
+     * model is not calibrated
+     */
+    public double getRssiAtOneMeter(DistanceModel distanceModel) {
+        return mModelRssiAtOneMeter[distanceModel.ordinal()];
+    }
+
+    /**
+     * @return Returns the fitted slope of the RSSI per unit of the natural logarithm of the distance
+     * in meters, or NaN if the model is not calibrated
+     */
+    public double getSlope(DistanceModel distanceModel) {
+        return mModelSlopes[distanceModel.ordinal()];
+    }
+}
@@ -0,0 +1,50 @@
+package positioning;
+
+/**
+ * Immutable set of parameters used to estimate the distance to a beacon from its RSSI window.
+ * A configuration can be shared freely between threads and sessions.
+ */
+public final class DistanceConfiguration {
+
+    public static final DistanceConfiguration DEFAULT =
+            new DistanceConfiguration(DistanceModel.PATH_LOSS, DistanceMethod.MEDIAN, 5, 2);
+
+    private final DistanceModel distanceModel;
+    private final DistanceMethod distanceMethod;
+    private final int windowSize;
+    private final double pathLossExponent;
+
+    public DistanceConfiguration(DistanceModel distanceModel, DistanceMethod distanceMethod,
+                                 int windowSize, double pathLossExponent) {
+        this.distanceModel = distanceModel;
+        this.distanceMethod = distanceMethod;
+        this.windowSize = windowSize;
+        this.pathLossExponent = pathLossExponent;
+    }
+
+    public DistanceModel getDistanceModel() {
+        return distanceModel;
+    }
+
+    public DistanceMethod getDistanceMethod() {
+        return distanceMethod;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public double getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    @Override
+    public String toString() {
+        return "DistanceConfiguration{" +
+                "distanceModel=" + distanceModel +
+                ", distanceMethod=" + distanceMethod +
+                ", windowSize=" + windowSize +
+                ", pathLossExponent=" + pathLossExponent +
+                '}';
+    }
+}
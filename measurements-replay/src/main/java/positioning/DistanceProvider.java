@@ -3,37 +3,71 @@ package positioning;
 import model.Beacon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 public class DistanceProvider {
 
-    private static final int MAX_WINDOW_SIZE = 10;
+    private volatile DistanceConfiguration mConfiguration;
+    private final MeasurementStore mMeasurementStore;
 
-    private DistanceModel mDistanceModel = DistanceModel.PATH_LOSS;
-    private DistanceMethod mDistanceMethod = DistanceMethod.MEDIAN;
-    private int mWindowSize = 5;
-    private double mPathLossExponent = 2;
+    // Distances calculated in the current cache generation, indexed by beacon id. A generation
+    // lasts as long as neither the measurements nor the configuration change
+    private double[] mCachedDistances = new double[16];
+    private int[] mCachedGenerations = new int[16];
+    private int mCacheGeneration = 1;
+    private int mCacheEpoch;
+    private DistanceConfiguration mCacheConfiguration;
 
-    private final Map<String, LinkedList<Integer>> mBeaconMeasurementsMap = new HashMap<>();
-    private final Map<String, Integer> txPowerMap = new HashMap<>();
+    // Filtered RSSI, possibly shared with providers that use the same window size and distance method
+    private final FilteredRssiCache mFilteredRssiCache;
+
+    // Beacons of the last scan sorted by distance, shared by all positioning methods of the scan
+    private final List<Beacon> mUnsortedBeacons = new ArrayList<>();
+    private List<Beacon> mSortedBeacons;
+    private int mSortedEpoch;
+    private DistanceConfiguration mSortedConfiguration;
 
     private static DistanceProvider instance;
 
     private DistanceProvider() {
-        txPowerMap.put("00:CD:FF:0E:5E:B9", -68);
-        txPowerMap.put("20:18:FF:00:3F:E4", -66);
-        txPowerMap.put("20:18:FF:00:3F:E7", -66);
-        txPowerMap.put("20:18:FF:00:40:02", -66);
-        txPowerMap.put("20:18:FF:00:40:07", -66);
-        txPowerMap.put("20:18:FF:00:40:08", -66);
-        txPowerMap.put("20:18:FF:00:40:20", -64);
-        txPowerMap.put("20:18:FF:00:40:2C", -67);
-        txPowerMap.put("20:18:FF:00:40:2D", -68);
-        txPowerMap.put("20:18:FF:00:40:2E", -66);
+        this(DistanceConfiguration.DEFAULT, new MeasurementStore());
+    }
+
+    /**
+     * Creates a distance provider bound to a session. Providers that share a measurement store can
+     * be used concurrently (e.g. to evaluate several configurations), as long as no measurements are
+     * added to the store at the same time. A single provider caches distances, and should only be
+     * used by one thread at a time.
+     *
+     * @param configuration Configuration used when no configuration is passed explicitly
+     * @param measurementStore RSSI windows of the session
+     */
+    public DistanceProvider(DistanceConfiguration configuration, MeasurementStore measurementStore) {
+        this(configuration, measurementStore, null);
+    }
+
+    /**
+     * Creates a distance provider bound to a session, that shares filtered RSSI values with other
+     * providers of the session.
+     *
+     * @param configuration Configuration used when no configuration is passed explicitly
+     * @param measurementStore RSSI windows of the session
+     * @param filteredRssiCache Filtered RSSI shared with other providers, used for configurations
+     *                          with its window size and distance method, or null to not share
+     */
+    public DistanceProvider(DistanceConfiguration configuration, MeasurementStore measurementStore,
+                            FilteredRssiCache filteredRssiCache) {
+        if (filteredRssiCache != null && filteredRssiCache.getMeasurementStore() != measurementStore) {
+            throw new IllegalArgumentException("The filtered RSSI cache belongs to a different measurement store");
+        }
+
+        mConfiguration = configuration;
+        mMeasurementStore = measurementStore;
+        mFilteredRssiCache = filteredRssiCache;
+
+        mMeasurementStore.trackWindowSize(configuration.getWindowSize());
     }
 
     public static DistanceProvider getInstance() {
@@ -46,69 +80,84 @@ public class DistanceProvider {
 
     public void updateParameters(DistanceModel distanceModel, DistanceMethod distanceMethod,
                                  int windowSize, double pathLossExponent) {
-        mDistanceModel = distanceModel;
-        mDistanceMethod = distanceMethod;
-        mWindowSize = windowSize;
-        mPathLossExponent = pathLossExponent;
+        mConfiguration = new DistanceConfiguration(distanceModel, distanceMethod, windowSize, pathLossExponent);
+        mMeasurementStore.trackWindowSize(windowSize);
     }
 
     public void updateParameters(DistanceModel distanceModel, DistanceMethod distanceMethod,
                                  int windowSize) {
-        mDistanceModel = distanceModel;
-        mDistanceMethod = distanceMethod;
-        mWindowSize = windowSize;
+        updateParameters(distanceModel, distanceMethod, windowSize, mConfiguration.getPathLossExponent());
     }
 
-    private void addMeasurement(String beaconAddress, int rssi) {
-        LinkedList<Integer> rssiQueue = mBeaconMeasurementsMap.get(beaconAddress);
-
-        if (rssiQueue == null) {
-            rssiQueue = new LinkedList<>();
-        }
-
-        // Remove last value if the limit is reached
-        if (rssiQueue.size() >= MAX_WINDOW_SIZE) {
-            rssiQueue.remove();
-        }
+    public DistanceConfiguration getConfiguration() {
+        return mConfiguration;
+    }
 
-        rssiQueue.add(rssi);
-        mBeaconMeasurementsMap.put(beaconAddress, rssiQueue);
+    public MeasurementStore getMeasurementStore() {
+        return mMeasurementStore;
     }
 
     public void addMeasurements(List<Beacon> beaconList) {
-        for (Beacon beacon : beaconList) {
-            addMeasurement(beacon.getBluetoothAddress(), beacon.getRssi());
-        }
+        mMeasurementStore.addMeasurements(beaconList);
     }
 
     public void clearMeasurements() {
-        mBeaconMeasurementsMap.clear();
+        mMeasurementStore.clear();
+    }
+
+    /**
+     * @return Returns the RSSI of the beacon (in dBm) filtered over the window of the configuration,
+     * as used to estimate the distance
+     */
+    public double getFilteredRssi(Beacon beacon) {
+        return getFilteredRssi(beacon, mConfiguration);
     }
 
-    private double getFilteredRssi(Beacon beacon) {
-        return getFilteredRssi(beacon, mDistanceMethod, mWindowSize);
+    private double getFilteredRssi(Beacon beacon, DistanceConfiguration configuration) {
+        return getFilteredRssi(beacon, mMeasurementStore.getBeaconId(beacon), configuration);
     }
 
-    private double getFilteredRssi(Beacon beacon, DistanceMethod distanceMethod, int windowSize) {
+    /**
+     * @param beaconId Id of the beacon in the measurement store, or -1 if it has not been measured
+     */
+    private double getFilteredRssi(Beacon beacon, int beaconId, DistanceConfiguration configuration) {
+        FilteredRssiCache cache = mFilteredRssiCache;
+        if (cache == null || !cache.isApplicable(configuration) || beaconId < 0) {
+            return filterRssi(beacon, beaconId, configuration);
+        }
+
+        int epoch = mMeasurementStore.getEpoch();
+        if (cache.contains(beaconId, epoch)) {
+            return cache.get(beaconId);
+        }
+
+        double rssi = filterRssi(beacon, beaconId, configuration);
+        cache.put(beaconId, epoch, rssi);
+        return rssi;
+    }
+
+    private double filterRssi(Beacon beacon, int beaconId, DistanceConfiguration configuration) {
+        RssiWindow rssiList = beaconId < 0 ? null : mMeasurementStore.getMeasurements(beaconId);
+        int windowSize = configuration.getWindowSize();
         double rssi;
 
-        switch (distanceMethod) {
+        switch (configuration.getDistanceMethod()) {
             case MEAN:
             case AVERAGE:
                 // Calculate average value of the last {WINDOW_SIZE} RSSI measurements to decrease variance
-                rssi = calculateAverage(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()), windowSize);
+                rssi = calculateAverage(rssiList, windowSize);
                 break;
             case MEDIAN:
                 // Calculate median of the last {WINDOW_SIZE} RSSI measurements to account for outliers
-                rssi = calculateMedian(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()), windowSize);
+                rssi = calculateMedian(rssiList, windowSize);
                 break;
             case MODE:
                 // Calculate mode of the last {WINDOW_SIZE} RSSI measurements to account for outliers
-                rssi = calculateMode(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()), windowSize);
+                rssi = calculateMode(rssiList, windowSize);
 
                 // Use median of no mode exists (all values occur only once)
                 if (rssi == 1) {
-                    return calculateMedian(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()), windowSize);
+                    return calculateMedian(rssiList, windowSize);
                 }
                 break;
             default:
@@ -120,44 +169,137 @@ public class DistanceProvider {
     }
 
     public double getDistance(Beacon beacon) {
-        return getDistance(beacon, mDistanceModel, mDistanceMethod, mWindowSize, mPathLossExponent);
+        return getDistance(beacon, mConfiguration);
+    }
+
+    /**
+     * Distances are cached until measurements are added, or a different configuration is used, so
+     * repeated lookups for the same scan do not filter the window again.
+     */
+    public double getDistance(Beacon beacon, DistanceConfiguration configuration) {
+        int beaconId = mMeasurementStore.getBeaconId(beacon);
+        if (beaconId < 0) {
+            return calculateDistance(beacon, beaconId, configuration);
+        }
+
+        int epoch = mMeasurementStore.getEpoch();
+        if (epoch != mCacheEpoch || configuration != mCacheConfiguration) {
+            // Start a new generation, invalidating all cached distances
+            mCacheEpoch = epoch;
+            mCacheConfiguration = configuration;
+            mCacheGeneration++;
+        }
+
+        if (beaconId >= mCachedDistances.length) {
+            int length = Math.max(2 * mCachedDistances.length, beaconId + 1);
+            mCachedDistances = Arrays.copyOf(mCachedDistances, length);
+            mCachedGenerations = Arrays.copyOf(mCachedGenerations, length);
+        }
+
+        if (mCachedGenerations[beaconId] == mCacheGeneration) {
+            return mCachedDistances[beaconId];
+        }
+
+        double distance = calculateDistance(beacon, beaconId, configuration);
+        mCachedDistances[beaconId] = distance;
+        mCachedGenerations[beaconId] = mCacheGeneration;
+
+        return distance;
+    }
+
+    /**
+     * Sorts the beacons of a scan by ascending distance, keeping the order of the list for equal
+     * distances. The result is kept until measurements are added or the configuration changes, so
+     * all positioning methods evaluated for a scan share a single sort.
+     *
+     * @return Returns an unmodifiable list of the beacons sorted by distance
+     */
+    public List<Beacon> sortByDistance(List<Beacon> beaconList) {
+        DistanceConfiguration configuration = mConfiguration;
+        int epoch = mMeasurementStore.getEpoch();
+        if (mSortedBeacons != null && epoch == mSortedEpoch && configuration == mSortedConfiguration
+                && containsSameBeacons(beaconList)) {
+            return mSortedBeacons;
+        }
+
+        // Look up every distance once instead of once per comparison, and insertion sort (stable)
+        // the few beacons of a scan
+        int size = beaconList.size();
+        Beacon[] beacons = new Beacon[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            Beacon beacon = beaconList.get(i);
+            double distance = getDistance(beacon, configuration);
+
+            int j = i;
+            while (j > 0 && Double.compare(distances[j - 1], distance) > 0) {
+                beacons[j] = beacons[j - 1];
+                distances[j] = distances[j - 1];
+                j--;
+            }
+
+            beacons[j] = beacon;
+            distances[j] = distance;
+        }
+
+        mUnsortedBeacons.clear();
+        mUnsortedBeacons.addAll(beaconList);
+        mSortedBeacons = Collections.unmodifiableList(Arrays.asList(beacons));
+        mSortedEpoch = epoch;
+        mSortedConfiguration = configuration;
+
+        return mSortedBeacons;
     }
 
-    public double getDistance(Beacon beacon, DistanceModel distanceModel,
-                              DistanceMethod distanceMethod, int windowSize,
-                              double pathLossExponent) {
+    private boolean containsSameBeacons(List<Beacon> beaconList) {
+        if (beaconList.size() != mUnsortedBeacons.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < beaconList.size(); i++) {
+            if (beaconList.get(i) != mUnsortedBeacons.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private double calculateDistance(Beacon beacon, int beaconId, DistanceConfiguration configuration) {
+        // Ids of the measurement store are those of the registry, for beacons of the registry
+        BeaconRegistry beaconRegistry = mMeasurementStore.getBeaconRegistry();
+        boolean registered = beaconId >= 0 && beaconId < beaconRegistry.size();
+
         // Use calibrated tx power if available, else fallback to received tx power value
-        Integer txPower = txPowerMap.get(beacon.getBluetoothAddress());
-        if (txPower == null) {
+        int txPower = registered ? beaconRegistry.getTxPower(beaconId) : BeaconRegistry.NO_TX_POWER;
+        if (txPower == BeaconRegistry.NO_TX_POWER) {
             txPower = beacon.getTxPower();
         }
 
-        double rssi = getFilteredRssi(beacon, distanceMethod, windowSize);
-        switch (distanceModel) {
-            case PATH_LOSS:
-                return Math.pow(10, (txPower - rssi) / (10 * pathLossExponent));
-            case FITTED_AVERAGE:
-                return Math.exp((rssi + 71.317) / -5.094);
-            case FITTED_LOS:
-                return Math.exp((rssi + 66.765) / -6.338);
-            case FITTED_NLOS:
-                return Math.exp((rssi + 75.869) / -3.851);
+        double pathLossExponent = configuration.getPathLossExponent();
+        double rssi = getFilteredRssi(beacon, beaconId, configuration);
+        DistanceModel distanceModel = configuration.getDistanceModel();
+        if (distanceModel != DistanceModel.PATH_LOSS && beaconRegistry.isCalibrated(distanceModel)) {
+            // Fitted log distance model of the site
+            return Math.exp((rssi - beaconRegistry.getRssiAtOneMeter(distanceModel))
+                    / beaconRegistry.getSlope(distanceModel));
         }
 
         // Default to log distance path loss model
         return Math.pow(10, (txPower - rssi) / (10 * pathLossExponent));
     }
 
-    private double calculateAverage(LinkedList<Integer> rssiList) {
-        return calculateAverage(rssiList, mWindowSize);
-    }
-
-    private double calculateAverage(LinkedList<Integer> rssiList, int windowSize) {
+    private double calculateAverage(RssiWindow rssiList, int windowSize) {
         double average = 0.0;
         if (rssiList == null || rssiList.isEmpty()) {
             return average;
         }
 
+        WindowStatistics statistics = rssiList.getStatistics(windowSize);
+        if (statistics != null) {
+            return statistics.getSum() / (double) windowSize;
+        }
+
         for (int i = 0; i < windowSize && i < rssiList.size(); i++) {
             int rssiValue = rssiList.get(i);
             average += rssiValue;
@@ -168,48 +310,58 @@ public class DistanceProvider {
         return average;
     }
 
-    private double calculateMedian(LinkedList<Integer> rssiList) {
-        return calculateMedian(rssiList, mWindowSize);
-    }
-
-    private double calculateMedian(LinkedList<Integer> rssiList, int windowSize) {
+    private double calculateMedian(RssiWindow rssiList, int windowSize) {
         if (rssiList == null || rssiList.isEmpty()) {
             return 0.0;
         }
 
-        if (windowSize > MAX_WINDOW_SIZE) {
-            windowSize = MAX_WINDOW_SIZE;
+        if (windowSize > MeasurementStore.MAX_WINDOW_SIZE) {
+            windowSize = MeasurementStore.MAX_WINDOW_SIZE;
         }
 
-        List<Integer> sortedList = new ArrayList<>(rssiList);
-        sortedList = sortedList.subList(0, Math.min(windowSize, sortedList.size()));
-        Collections.sort(sortedList);
+        WindowStatistics statistics = rssiList.getStatistics(windowSize);
+        if (statistics != null) {
+            return statistics.getMedian();
+        }
 
-        int middle = sortedList.size() / 2;
-        if (sortedList.size() > 0 && sortedList.size() % 2 == 0) {
-            return (sortedList.get(middle - 1) + sortedList.get(middle)) / 2.0;
+        int size = Math.min(windowSize, rssiList.size());
+        int[] sortedValues = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = rssiList.get(i);
         }
+        Arrays.sort(sortedValues);
 
-        return sortedList.get(middle);
-    }
+        int middle = size / 2;
+        if (size % 2 == 0) {
+            return (sortedValues[middle - 1] + sortedValues[middle]) / 2.0;
+        }
 
-    private int calculateMode(LinkedList<Integer> rssiList) {
-        return calculateMode(rssiList, mWindowSize);
+        return sortedValues[middle];
     }
 
-    private int calculateMode(LinkedList<Integer> rssiList, int windowSize) {
+    private int calculateMode(RssiWindow rssiList, int windowSize) {
         if (rssiList == null || rssiList.isEmpty()) {
             return 0;
         }
 
-        Map<Integer, Integer> frequencies = new HashMap<>();
+        WindowStatistics statistics = rssiList.getStatistics(windowSize);
+        if (statistics != null) {
+            return statistics.getMaxCount() == 1 ? 1 : statistics.getMode();
+        }
+
+        int size = Math.min(windowSize, rssiList.size());
 
         int mode = rssiList.get(0), maxCount = 0;
-        for (int i = 0; i < windowSize && i < rssiList.size(); i++) {
+        for (int i = 0; i < size; i++) {
             int rssiValue = rssiList.get(i);
 
-            int count = frequencies.get(rssiValue) == null ? 1 : frequencies.get(rssiValue) + 1;
-            frequencies.put(rssiValue, count);
+            // Number of occurrences of the value so far (the window holds at most a few values)
+            int count = 0;
+            for (int j = 0; j <= i; j++) {
+                if (rssiList.get(j) == rssiValue) {
+                    count++;
+                }
+            }
 
             if (count > maxCount) {
                 maxCount = count;
@@ -229,22 +381,30 @@ public class DistanceProvider {
      * @return Returns the confidence score based on the average standard deviation within the
      * sliding window
      */
-    private double getDeviationConfidence(List<Beacon> beaconList) {
+    private double getDeviationConfidence(List<Beacon> beaconList, DistanceConfiguration configuration) {
+        int windowSize = configuration.getWindowSize();
+
         double confidence = 0;
         for (Beacon beacon : beaconList) {
-            LinkedList<Integer> rssiList = mBeaconMeasurementsMap.get(beacon.getBluetoothAddress());
+            RssiWindow rssiList = mMeasurementStore.getMeasurements(beacon);
             if (rssiList == null) {
                 continue;
             }
 
-            double mean = calculateAverage(rssiList);
+            WindowStatistics statistics = rssiList.getStatistics(windowSize);
+            if (statistics != null) {
+                confidence += getStandardDeviation(statistics, windowSize);
+                continue;
+            }
+
+            double mean = calculateAverage(rssiList, windowSize);
             double standardDeviation = 0;
-            for (int i = 0; i < mWindowSize && i < rssiList.size(); i++) {
+            for (int i = 0; i < windowSize && i < rssiList.size(); i++) {
                 int rssi = rssiList.get(i);
                 standardDeviation += Math.pow(rssi - mean, 2);
             }
 
-            standardDeviation = Math.sqrt(standardDeviation / (Math.min(mWindowSize, rssiList.size())));
+            standardDeviation = Math.sqrt(standardDeviation / (Math.min(windowSize, rssiList.size())));
             
             confidence += standardDeviation;
         }
@@ -254,11 +414,25 @@ public class DistanceProvider {
         return Math.exp(-confidence);
     }
 
+    /**
+     * @return Returns the standard deviation of the window around the average (which is divided by
+     * the window size, also if the window is not yet filled)
+     */
+    private static double getStandardDeviation(WindowStatistics statistics, int windowSize) {
+        // Sum of (rssi - sum / windowSize)^2, with the numerator calculated exactly
+        long count = statistics.getCount();
+        long sum = statistics.getSum();
+        long squaredWindowSize = (long) windowSize * windowSize;
+        long numerator = squaredWindowSize * statistics.getSumOfSquares() - (2L * windowSize - count) * sum * sum;
+
+        return Math.sqrt((double) numerator / squaredWindowSize / count);
+    }
+
     /**
      * @param beaconList List of beacons involved in the calculation
      * @return Returns the confidence score based on the filtered distance to the beacons
      */
-    private double getDistanceConfidence(List<Beacon> beaconList) {
+    private double getDistanceConfidence(List<Beacon> beaconList, DistanceConfiguration configuration) {
         // TODO: make range configurable, if other beacon models are going to be introduced
         int minimumRSSI = -100, maximumRSSI = -40;
         double slope = 1.0 / (maximumRSSI - minimumRSSI);
@@ -266,7 +440,7 @@ public class DistanceProvider {
 
         double averageRSSI = 0;
         for (Beacon beacon : beaconList) {
-            double rssi = getFilteredRssi(beacon);
+            double rssi = getFilteredRssi(beacon, configuration);
             averageRSSI += rssi;
         }
 
@@ -277,12 +451,16 @@ public class DistanceProvider {
     }
 
     public double getConfidence(List<Beacon> beaconList) {
+        return getConfidence(beaconList, mConfiguration);
+    }
+
+    public double getConfidence(List<Beacon> beaconList, DistanceConfiguration configuration) {
         if (beaconList.size() < 3) {
             return 0;
         }
 
-        double deviationConfidence = getDeviationConfidence(beaconList);
-        double distanceConfidence = getDistanceConfidence(beaconList);
+        double deviationConfidence = getDeviationConfidence(beaconList, configuration);
+        double distanceConfidence = getDistanceConfidence(beaconList, configuration);
 
         return (deviationConfidence + distanceConfidence) / 2;
     }
@@ -0,0 +1,73 @@
+package positioning;
+
+import java.util.Arrays;
+
+/**
+ * Filtered RSSI of the beacons of a measurement store, for a single window size and distance
+ * method. Filtering a window only depends on these two parameters, so distance providers that only
+ * differ in their distance model (or path loss exponent) can share a cache, and every window is
+ * then filtered once per scan instead of once per provider. Values are valid until measurements are
+ * added to the store.
+ *
+ * A cache is not synchronized, providers that share it should be used by one thread at a time.
+ */
+public final class FilteredRssiCache {
+
+    private final MeasurementStore mMeasurementStore;
+    private final int mWindowSize;
+    private final DistanceMethod mDistanceMethod;
+
+    // Filtered RSSI by beacon id, valid if the epoch it was filtered in is the current epoch
+    private double[] mRssi = new double[16];
+    private int[] mEpochs = newEpochs(16);
+
+    /**
+     * @param measurementStore Measurement store of the providers that share the cache
+     * @param windowSize Window size of the providers that share the cache
+     * @param distanceMethod Distance method of the providers that share the cache
+     */
+    public FilteredRssiCache(MeasurementStore measurementStore, int windowSize, DistanceMethod distanceMethod) {
+        mMeasurementStore = measurementStore;
+        mWindowSize = windowSize;
+        mDistanceMethod = distanceMethod;
+    }
+
+    private static int[] newEpochs(int length) {
+        int[] epochs = new int[length];
+        Arrays.fill(epochs, -1);
+        return epochs;
+    }
+
+    MeasurementStore getMeasurementStore() {
+        return mMeasurementStore;
+    }
+
+    /**
+     * @return Returns whether the cached values were filtered as the given configuration filters
+     */
+    boolean isApplicable(DistanceConfiguration configuration) {
+        return configuration.getWindowSize() == mWindowSize && configuration.getDistanceMethod() == mDistanceMethod;
+    }
+
+    boolean contains(int beaconId, int epoch) {
+        return beaconId < mEpochs.length && mEpochs[beaconId] == epoch;
+    }
+
+    double get(int beaconId) {
+        return mRssi[beaconId];
+    }
+
+    void put(int beaconId, int epoch, double rssi) {
+        if (beaconId >= mRssi.length) {
+            int length = Math.max(2 * mRssi.length, beaconId + 1);
+            mRssi = Arrays.copyOf(mRssi, length);
+
+            int[] epochs = newEpochs(length);
+            System.arraycopy(mEpochs, 0, epochs, 0, mEpochs.length);
+            mEpochs = epochs;
+        }
+
+        mRssi[beaconId] = rssi;
+        mEpochs[beaconId] = epoch;
+    }
+}
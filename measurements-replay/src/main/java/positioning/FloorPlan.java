@@ -0,0 +1,207 @@
+package positioning;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Floor plan of a single floor of a site, rasterised into an occupancy mask: a cell is part of the
+ * building if its center lies within one of the rooms, and not within a wall or no-go area. Whether
+ * coordinates lie within the building is then a single lookup.
+ *
+ * Floor plans are JSON files (sites/&lt;site&gt;/floor-&lt;floor&gt;.json) with the extent of the floor
+ * in centimeters ("width" and "height", the origin is at the top left), the default "resolution"
+ * of the mask, and a list of "areas". Every area has a "type" ("room", "wall" or "no_go") and a
+ * "polygon" of [x, y] vertices.
+ */
+public final class FloorPlan {
+
+    private static final String SITES_RESOURCE_PATH = "/sites/";
+
+    private static final String ROOM = "room";
+    private static final String WALL = "wall";
+    private static final String NO_GO = "no_go";
+
+    private final double mWidth, mHeight;
+    private final double mResolution;
+    private final int mColumns, mRows;
+
+    // Occupancy of every cell, row by row
+    private final BitSet mMask;
+
+    /**
+     * @param width Width of the floor in centimeters
+     * @param height Height of the floor in centimeters
+     * @param resolution Cell size of the occupancy mask in centimeters
+     * @param rooms Polygons of the rooms, every polygon is an array of x coordinates followed by an
+     *              array of y coordinates
+     * @param obstacles Polygons of the walls and no-go areas, in the same format as the rooms
+     */
+    public FloorPlan(double width, double height, double resolution, List<double[][]> rooms,
+                     List<double[][]> obstacles) {
+        if (width <= 0 || height <= 0 || resolution <= 0) {
+            throw new IllegalArgumentException("Floor plan dimensions and resolution should be positive");
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mResolution = resolution;
+        mColumns = (int) Math.ceil(width / resolution);
+        mRows = (int) Math.ceil(height / resolution);
+        mMask = new BitSet(mColumns * mRows);
+
+        for (int row = 0; row < mRows; row++) {
+            double y = (row + 0.5) * resolution;
+            for (int column = 0; column < mColumns; column++) {
+                double x = (column + 0.5) * resolution;
+                if (containsAny(rooms, x, y) && !containsAny(obstacles, x, y)) {
+                    mMask.set(row * mColumns + column);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param site Name of the site
+     * @param floor Floor number
+     * @return Returns the floor plan bundled with the application, at its default resolution
+     */
+    public static FloorPlan loadSite(String site, int floor) throws IOException {
+        String name = SITES_RESOURCE_PATH + site + "/floor-" + floor + ".json";
+        try (InputStream inputStream = FloorPlan.class.getResourceAsStream(name)) {
+            if (inputStream == null) {
+                throw new IOException("No floor plan for floor " + floor + " of site " + site);
+            }
+
+            return parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8), name, -1);
+        }
+    }
+
+    public static FloorPlan load(Path path) throws IOException {
+        return load(path, -1);
+    }
+
+    /**
+     * @param path Path of the floor plan file
+     * @param resolution Cell size of the occupancy mask in centimeters, or -1 to use the resolution
+     *                   of the file
+     */
+    public static FloorPlan load(Path path, double resolution) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader, path.toString(), resolution);
+        }
+    }
+
+    private static FloorPlan parse(Reader reader, String name, double resolution) throws IOException {
+        try {
+            JSONObject floorPlanJson = (JSONObject) new JSONParser().parse(reader);
+            double width = getNumber(floorPlanJson, "width");
+            double height = getNumber(floorPlanJson, "height");
+            if (resolution < 0) {
+                resolution = getNumber(floorPlanJson, "resolution");
+            }
+
+            List<double[][]> rooms = new ArrayList<>();
+            List<double[][]> obstacles = new ArrayList<>();
+            for (Object areaObject : (JSONArray) floorPlanJson.get("areas")) {
+                JSONObject areaJson = (JSONObject) areaObject;
+                double[][] polygon = getPolygon((JSONArray) areaJson.get("polygon"));
+
+                String type = (String) areaJson.get("type");
+                if (ROOM.equals(type)) {
+                    rooms.add(polygon);
+                } else if (WALL.equals(type) || NO_GO.equals(type)) {
+                    obstacles.add(polygon);
+                } else {
+                    throw new IOException("Unknown area type " + type + " in floor plan " + name);
+                }
+            }
+
+            return new FloorPlan(width, height, resolution, rooms, obstacles);
+        } catch (ParseException | ClassCastException | NullPointerException | IllegalArgumentException e) {
+            throw new IOException("Invalid floor plan " + name + ": " + e, e);
+        }
+    }
+
+    private static double getNumber(JSONObject json, String key) {
+        return ((Number) json.get(key)).doubleValue();
+    }
+
+    private static double[][] getPolygon(JSONArray verticesJson) {
+        if (verticesJson.size() < 3) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+
+        double[][] polygon = new double[2][verticesJson.size()];
+        for (int i = 0; i < verticesJson.size(); i++) {
+            JSONArray vertexJson = (JSONArray) verticesJson.get(i);
+            polygon[0][i] = ((Number) vertexJson.get(0)).doubleValue();
+            polygon[1][i] = ((Number) vertexJson.get(1)).doubleValue();
+        }
+
+        return polygon;
+    }
+
+    private static boolean containsAny(List<double[][]> polygons, double x, double y) {
+        for (double[][] polygon : polygons) {
+            if (contains(polygon[0], polygon[1], x, y)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Even-odd rule: count the edges crossed by a ray from the point in the positive x direction
+    private static boolean contains(double[] xs, double[] ys, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y)
+                    && x < xs[j] + (y - ys[j]) * (xs[i] - xs[j]) / (ys[i] - ys[j])) {
+                inside = !inside;
+            }
+        }
+
+        return inside;
+    }
+
+    /**
+     * @param x X coordinate in centimeters
+     * @param y Y coordinate in centimeters
+     * @return Returns whether the coordinates lie within a cell of the building
+     */
+    public boolean isInside(double x, double y) {
+        if (!(x >= 0 && y >= 0 && x < mWidth && y < mHeight)) {
+            return false;
+        }
+
+        int column = Math.min((int) (x / mResolution), mColumns - 1);
+        int row = Math.min((int) (y / mResolution), mRows - 1);
+
+        return mMask.get(row * mColumns + column);
+    }
+
+    public double getWidth() {
+        return mWidth;
+    }
+
+    public double getHeight() {
+        return mHeight;
+    }
+
+    public double getResolution() {
+        return mResolution;
+    }
+}
@@ -0,0 +1,280 @@
+package positioning;
+
+/**
+ * Static k-d tree for k-nearest neighbour queries over points of a fixed dimension. The tree is
+ * implicit: the points are reordered so that the median of every range is the node that splits it,
+ * along the dimension in which the range has the largest spread. Ranges of at most a few points are
+ * scanned linearly.
+ *
+ * A tree is immutable once built, and can be queried by several threads at the same time, as the
+ * results are written to arrays of the caller.
+ */
+final class KdTree {
+
+    // Ranges of at most this many points are not split any further
+    private static final int LEAF_SIZE = 8;
+
+    private final int mDimension;
+    private final int mSize;
+
+    // Coordinates of the points in tree order, one row per point
+    private final double[] mPoints;
+    // Index of every point (in tree order) in the original order
+    private final int[] mIndices;
+    // Dimension along which the range of which the point is the median is split
+    private final byte[] mSplitDimensions;
+
+    /**
+     * @param points Coordinates of the points, one row of the given dimension per point
+     * @param dimension Dimension of the points, at most 127
+     */
+    KdTree(double[] points, int dimension) {
+        if (dimension < 1 || dimension > Byte.MAX_VALUE || points.length % dimension != 0) {
+            throw new IllegalArgumentException("Invalid dimension " + dimension + " for " + points.length + " coordinates");
+        }
+
+        mDimension = dimension;
+        mSize = points.length / dimension;
+        mPoints = points.clone();
+        mIndices = new int[mSize];
+        mSplitDimensions = new byte[mSize];
+
+        for (int i = 0; i < mSize; i++) {
+            mIndices[i] = i;
+        }
+
+        build(0, mSize);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getDimension() {
+        return mDimension;
+    }
+
+    private void build(int from, int to) {
+        while (to - from > LEAF_SIZE) {
+            int splitDimension = getWidestDimension(from, to);
+            int median = (from + to) >>> 1;
+            select(from, to, median, splitDimension);
+            mSplitDimensions[median] = (byte) splitDimension;
+
+            // Recurse into the smaller half, and loop on the larger one
+            build(from, median);
+            from = median + 1;
+        }
+    }
+
+    private int getWidestDimension(int from, int to) {
+        int widestDimension = 0;
+        double maxSpread = -1;
+        for (int d = 0; d < mDimension; d++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = mPoints[i * mDimension + d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            if (max - min > maxSpread) {
+                maxSpread = max - min;
+                widestDimension = d;
+            }
+        }
+
+        return widestDimension;
+    }
+
+    /**
+     * Quickselect: reorders the points in the range so that the point at index k is the one that
+     * would be there if the range was sorted along the given dimension, with no larger values before
+     * it and no smaller values after it.
+     */
+    private void select(int from, int to, int k, int dimension) {
+        int left = from, right = to - 1;
+        while (left < right) {
+            double pivot = mPoints[((left + right) >>> 1) * mDimension + dimension];
+            int i = left, j = right;
+            while (i <= j) {
+                while (mPoints[i * mDimension + dimension] < pivot) {
+                    i++;
+                }
+
+                while (mPoints[j * mDimension + dimension] > pivot) {
+                    j--;
+                }
+
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        for (int d = 0; d < mDimension; d++) {
+            double value = mPoints[i * mDimension + d];
+            mPoints[i * mDimension + d] = mPoints[j * mDimension + d];
+            mPoints[j * mDimension + d] = value;
+        }
+
+        int index = mIndices[i];
+        mIndices[i] = mIndices[j];
+        mIndices[j] = index;
+    }
+
+    /**
+     * @param query Coordinates of the query point
+     * @param k Number of neighbours to find
+     * @param neighbours Receives the (original) indices of the nearest points, nearest first, at
+     *                   least k elements long
+     * @param squaredDistances Receives the squared distances of the nearest points, at least k
+     *                         elements long
+     * @return Returns the number of neighbours found, k unless the tree has fewer points
+     */
+    int findNearest(double[] query, int k, int[] neighbours, double[] squaredDistances) {
+        if (query.length != mDimension) {
+            throw new IllegalArgumentException("Query dimension " + query.length + " does not match " + mDimension);
+        }
+
+        // The neighbours found so far are kept in a max-heap on the squared distance, with tree
+        // order positions instead of original indices
+        int count = search(0, mSize, query, new double[mDimension], 0, Math.min(k, mSize), neighbours,
+                squaredDistances, 0);
+
+        // Sort by ascending distance by repeatedly moving the farthest neighbour to the end
+        for (int last = count - 1; last > 0; last--) {
+            swap(neighbours, squaredDistances, 0, last);
+            siftDown(neighbours, squaredDistances, 0, last);
+        }
+
+        for (int i = 0; i < count; i++) {
+            neighbours[i] = mIndices[neighbours[i]];
+        }
+
+        return count;
+    }
+
+    /**
+     * Incremental distance search (Arya and Mount): the squared distance from the query to the
+     * region of a range is tracked through the offset of the query from the region along every
+     * dimension, so a range is skipped as soon as its region is farther away than the farthest
+     * neighbour so far, not only when a single splitting plane is.
+     *
+     * @param offsets Offset of the query from the region of the range along every dimension
+     * @param regionDistance Squared distance from the query to the region of the range
+     */
+    private int search(int from, int to, double[] query, double[] offsets, double regionDistance, int k,
+                       int[] heap, double[] heapDistances, int count) {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                count = offer(i, query, k, heap, heapDistances, count);
+            }
+
+            return count;
+        }
+
+        int median = (from + to) >>> 1;
+        int splitDimension = mSplitDimensions[median];
+        double difference = query[splitDimension] - mPoints[median * mDimension + splitDimension];
+
+        count = offer(median, query, k, heap, heapDistances, count);
+
+        // Visit the half that contains the query first, the other half only if its region may
+        // contain a point nearer than the farthest neighbour so far
+        if (difference < 0) {
+            count = search(from, median, query, offsets, regionDistance, k, heap, heapDistances, count);
+        } else {
+            count = search(median + 1, to, query, offsets, regionDistance, k, heap, heapDistances, count);
+        }
+
+        double offset = offsets[splitDimension];
+        double farDistance = regionDistance - offset * offset + difference * difference;
+        if (count == k && farDistance >= heapDistances[0]) {
+            return count;
+        }
+
+        offsets[splitDimension] = difference;
+        if (difference < 0) {
+            count = search(median + 1, to, query, offsets, farDistance, k, heap, heapDistances, count);
+        } else {
+            count = search(from, median, query, offsets, farDistance, k, heap, heapDistances, count);
+        }
+        offsets[splitDimension] = offset;
+
+        return count;
+    }
+
+    private int offer(int point, double[] query, int k, int[] heap, double[] heapDistances, int count) {
+        double bound = count == k ? heapDistances[0] : Double.POSITIVE_INFINITY;
+
+        // Stop summing as soon as the point is known to be too far away
+        double squaredDistance = 0;
+        int offset = point * mDimension;
+        for (int d = 0; d < mDimension && squaredDistance < bound; d++) {
+            double difference = query[d] - mPoints[offset + d];
+            squaredDistance += difference * difference;
+        }
+
+        if (squaredDistance >= bound) {
+            return count;
+        }
+
+        if (count < k) {
+            // Append, and restore the heap property upwards
+            int i = count;
+            heap[i] = point;
+            heapDistances[i] = squaredDistance;
+            while (i > 0 && heapDistances[(i - 1) / 2] < heapDistances[i]) {
+                swap(heap, heapDistances, i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+
+            return count + 1;
+        }
+
+        // Replace the farthest neighbour
+        heap[0] = point;
+        heapDistances[0] = squaredDistance;
+        siftDown(heap, heapDistances, 0, count);
+        return count;
+    }
+
+    private static void siftDown(int[] heap, double[] heapDistances, int i, int count) {
+        while (2 * i + 1 < count) {
+            int child = 2 * i + 1;
+            if (child + 1 < count && heapDistances[child + 1] > heapDistances[child]) {
+                child++;
+            }
+
+            if (heapDistances[i] >= heapDistances[child]) {
+                return;
+            }
+
+            swap(heap, heapDistances, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(int[] heap, double[] heapDistances, int i, int j) {
+        int point = heap[i];
+        heap[i] = heap[j];
+        heap[j] = point;
+
+        double distance = heapDistances[i];
+        heapDistances[i] = heapDistances[j];
+        heapDistances[j] = distance;
+    }
+}
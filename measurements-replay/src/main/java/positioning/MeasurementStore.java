@@ -0,0 +1,167 @@
+package positioning;
+
+import model.Beacon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sliding windows of the most recent RSSI measurements per beacon, belonging to a single
+ * positioning session. Windows are stored in an array indexed by beacon id: beacons of the registry
+ * use their id in the registry, other beacons get the next free id when they are first measured. A
+ * store is not synchronized: it can be read concurrently by any number of providers, as long as
+ * measurements are not added (and window sizes are not tracked) at the same time.
+ */
+public class MeasurementStore {
+
+    public static final int MAX_WINDOW_SIZE = 10;
+
+    private final BeaconRegistry mBeaconRegistry;
+
+    // Windows by beacon id, null if the beacon has not been measured
+    private RssiWindow[] mWindows;
+    private int mBeaconCount;
+
+    // Ids of the beacons that are not part of the registry, following the ids of the registry
+    private final Map<String, Integer> mUnregisteredBeaconIds = new HashMap<>();
+
+    // Incremented whenever measurements are added or removed, used to invalidate cached distances
+    private int mEpoch;
+
+    // Window sizes of which the statistics are tracked for every beacon
+    private final boolean[] mTrackedWindowSizes = new boolean[MAX_WINDOW_SIZE + 1];
+
+    public MeasurementStore() {
+        this(Site.getDefault().getBeaconRegistry());
+    }
+
+    /**
+     * @param beaconRegistry Beacons of the site, of which the ids are used as the ids in this store
+     */
+    public MeasurementStore(BeaconRegistry beaconRegistry) {
+        mBeaconRegistry = beaconRegistry;
+        mWindows = new RssiWindow[Math.max(16, beaconRegistry.size())];
+    }
+
+    public BeaconRegistry getBeaconRegistry() {
+        return mBeaconRegistry;
+    }
+
+    public void addMeasurement(Beacon beacon) {
+        int beaconId = getOrCreateBeaconId(beacon);
+        mWindows[beaconId].add(beacon.getRssi());
+        mEpoch++;
+    }
+
+    public void addMeasurements(List<Beacon> beaconList) {
+        for (Beacon beacon : beaconList) {
+            addMeasurement(beacon);
+        }
+    }
+
+    /**
+     * @return Returns a number that changes whenever the measurements in this store change
+     */
+    public int getEpoch() {
+        return mEpoch;
+    }
+
+    private int getOrCreateBeaconId(Beacon beacon) {
+        int beaconId = mBeaconRegistry.getId(beacon);
+        if (beaconId < 0) {
+            Integer unregisteredId = mUnregisteredBeaconIds.get(beacon.getBluetoothAddress());
+            if (unregisteredId == null) {
+                unregisteredId = mBeaconRegistry.size() + mUnregisteredBeaconIds.size();
+                mUnregisteredBeaconIds.put(beacon.getBluetoothAddress(), unregisteredId);
+            }
+
+            beaconId = unregisteredId;
+        }
+
+        if (beaconId >= mWindows.length) {
+            mWindows = Arrays.copyOf(mWindows, Math.max(2 * mWindows.length, beaconId + 1));
+        }
+
+        if (mWindows[beaconId] == null) {
+            RssiWindow window = new RssiWindow(MAX_WINDOW_SIZE);
+            for (int windowSize = 1; windowSize <= MAX_WINDOW_SIZE; windowSize++) {
+                if (mTrackedWindowSizes[windowSize]) {
+                    window.track(windowSize);
+                }
+            }
+
+            mWindows[beaconId] = window;
+            mBeaconCount++;
+        }
+
+        return beaconId;
+    }
+
+    /**
+     * Keeps running statistics of the given window size for every beacon, so filtering does not
+     * have to iterate over the window.
+     *
+     * @param windowSize Window size used by a distance provider
+     */
+    public void trackWindowSize(int windowSize) {
+        int length = Math.min(windowSize, MAX_WINDOW_SIZE);
+        if (length < 1 || mTrackedWindowSizes[length]) {
+            return;
+        }
+
+        mTrackedWindowSizes[length] = true;
+        for (RssiWindow window : mWindows) {
+            if (window != null) {
+                window.track(length);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the id of the beacon in this store, or -1 if the beacon has not been measured
+     * in this session
+     */
+    public int getBeaconId(Beacon beacon) {
+        int beaconId = mBeaconRegistry.getId(beacon);
+        if (beaconId < 0) {
+            Integer unregisteredId = mUnregisteredBeaconIds.get(beacon.getBluetoothAddress());
+            if (unregisteredId == null) {
+                return -1;
+            }
+
+            beaconId = unregisteredId;
+        }
+
+        return beaconId < mWindows.length && mWindows[beaconId] != null ? beaconId : -1;
+    }
+
+    /**
+     * @param beaconId Id of the beacon in this store
+     * @return Returns the RSSI window of the beacon (oldest measurement first)
+     */
+    public RssiWindow getMeasurements(int beaconId) {
+        return mWindows[beaconId];
+    }
+
+    /**
+     * @return Returns the RSSI window of the beacon (oldest measurement first), or null if the
+     * beacon has not been measured in this session
+     */
+    public RssiWindow getMeasurements(Beacon beacon) {
+        int beaconId = getBeaconId(beacon);
+        return beaconId < 0 ? null : mWindows[beaconId];
+    }
+
+    public int getBeaconCount() {
+        return mBeaconCount;
+    }
+
+    public void clear() {
+        mUnregisteredBeaconIds.clear();
+        Arrays.fill(mWindows, null);
+        mBeaconCount = 0;
+        mEpoch++;
+    }
+}
@@ -0,0 +1,256 @@
+package positioning;
+
+import java.util.Random;
+
+/**
+ * Particle filter that tracks the position over consecutive scans. Particles follow a random walk
+ * whose spread grows with the time between scans (a scan that is not newer than the last one only
+ * gets the minimum spread, time never runs backwards), particles that leave the building are
+ * discarded, and the remaining particles are weighted with the measurement model of the
+ * probability based method: the product of 1 / ((distance - estimated distance)^2 + pdf sharpness)
+ * over the beacons. The particles are resampled (systematic resampling) when the effective sample
+ * size drops below half of the particle count.
+ *
+ * All particle arrays are allocated up front. A filter holds the state of a single session, and
+ * should only be used by one thread at a time. The random number generator is seeded, so replaying
+ * the same scans gives the same positions.
+ */
+public final class ParticleFilter {
+
+    public static final int DEFAULT_PARTICLE_COUNT = 200;
+    public static final long DEFAULT_SEED = 42;
+
+    // Standard deviation of the random walk, in centimeters per second. Well above walking speed, as
+    // the filter has to follow the estimated distances, which lag behind by the RSSI window
+    private static final double MOTION_NOISE = 500;
+    // Lower bound of the standard deviation of the random walk, in centimeters
+    private static final double MIN_MOTION_NOISE = 10;
+    // Time between scans (in milliseconds) assumed when the timestamps are unknown
+    private static final long DEFAULT_SCAN_INTERVAL = 1000;
+
+    // Number of samples drawn before giving up on placing a particle within the building
+    private static final int MAX_PLACEMENT_ATTEMPTS = 100;
+
+    private final FloorPlan mFloorPlan;
+    private final int mParticleCount;
+    private final Random mRandom;
+
+    private double[] mX, mY;
+    private double[] mResampledX, mResampledY;
+    private final double[] mWeights;
+
+    private boolean mInitialized;
+    private long mTimestamp;
+    private double mEstimatedX, mEstimatedY;
+
+    /**
+     * @param floorPlan Floor plan that constrains the particles
+     * @param particleCount Number of particles, more particles are more accurate but take more time
+     * @param seed Seed of the random number generator
+     */
+    public ParticleFilter(FloorPlan floorPlan, int particleCount, long seed) {
+        if (particleCount < 1) {
+            throw new IllegalArgumentException("A particle filter needs at least one particle");
+        }
+
+        mFloorPlan = floorPlan;
+        mParticleCount = particleCount;
+        mRandom = new Random(seed);
+
+        mX = new double[particleCount];
+        mY = new double[particleCount];
+        mResampledX = new double[particleCount];
+        mResampledY = new double[particleCount];
+        mWeights = new double[particleCount];
+    }
+
+    public int getParticleCount() {
+        return mParticleCount;
+    }
+
+    /**
+     * Forgets the tracked position, the next update spreads the particles over the building again.
+     */
+    public void reset() {
+        mInitialized = false;
+    }
+
+    /**
+     * @param timestamp Time of the scan in milliseconds, or -1 if unknown
+     * @param grid Probability grid that provides the beacon coordinates and the measurement model
+     * @param columns Columns of the beacons in the distance table of the grid
+     * @param estimatedDistances Estimated distance to each beacon, in meters
+     * @param beaconCount Number of beacons to use from the arrays
+     * @param pdfSharpness Sharpness of the probability density function
+     * @return Returns whether a position was estimated, which is then available through
+     * {@link #getX()} and {@link #getY()}
+     */
+    public boolean update(long timestamp, ProbabilityGrid grid, int[] columns, double[] estimatedDistances,
+                          int beaconCount, double pdfSharpness) {
+        long interval;
+        if (timestamp >= 0) {
+            interval = Math.max(timestamp - mTimestamp, 0);
+            mTimestamp = Math.max(timestamp, mTimestamp);
+        } else {
+            interval = DEFAULT_SCAN_INTERVAL;
+            mTimestamp += DEFAULT_SCAN_INTERVAL;
+        }
+
+        if (mInitialized) {
+            predict(Math.max(MIN_MOTION_NOISE, MOTION_NOISE * interval / 1000));
+        } else {
+            if (timestamp >= 0) {
+                mTimestamp = timestamp;
+            }
+
+            initialize();
+        }
+
+        double weightSum = weigh(grid, columns, estimatedDistances, beaconCount, pdfSharpness);
+        if (!(weightSum > 0) || Double.isInfinite(weightSum)) {
+            // All particles were discarded (or the weights are invalid), start over
+            initialize();
+            weightSum = weigh(grid, columns, estimatedDistances, beaconCount, pdfSharpness);
+            if (!(weightSum > 0) || Double.isInfinite(weightSum)) {
+                mInitialized = false;
+                return false;
+            }
+        }
+
+        // Normalize the weights, and estimate the position as the weighted mean of the particles
+        double x = 0, y = 0, squaredWeightSum = 0;
+        for (int i = 0; i < mParticleCount; i++) {
+            double weight = mWeights[i] / weightSum;
+            mWeights[i] = weight;
+
+            x += weight * mX[i];
+            y += weight * mY[i];
+            squaredWeightSum += weight * weight;
+        }
+
+        mEstimatedX = x;
+        mEstimatedY = y;
+
+        // Effective sample size
+        if (1 / squaredWeightSum < mParticleCount / 2.0) {
+            resample();
+        }
+
+        return true;
+    }
+
+    public double getX() {
+        return mEstimatedX;
+    }
+
+    public double getY() {
+        return mEstimatedY;
+    }
+
+    // State of the particles, for tests
+    double getParticleX(int particle) {
+        return mX[particle];
+    }
+
+    double getParticleY(int particle) {
+        return mY[particle];
+    }
+
+    double getWeight(int particle) {
+        return mWeights[particle];
+    }
+
+    /**
+     * Spreads the particles uniformly over the building, with equal weights. A particle that could
+     * not be placed within the building is discarded (its weight is zero) until it is resampled.
+     */
+    private void initialize() {
+        double width = mFloorPlan.getWidth();
+        double height = mFloorPlan.getHeight();
+
+        for (int i = 0; i < mParticleCount; i++) {
+            double x = 0, y = 0;
+            boolean inside = false;
+            for (int attempt = 0; attempt < MAX_PLACEMENT_ATTEMPTS && !inside; attempt++) {
+                x = mRandom.nextDouble() * width;
+                y = mRandom.nextDouble() * height;
+                inside = mFloorPlan.isInside(x, y);
+            }
+
+            mX[i] = x;
+            mY[i] = y;
+            mWeights[i] = inside ? 1.0 / mParticleCount : 0;
+        }
+
+        mInitialized = true;
+    }
+
+    /**
+     * Moves every particle by a random walk step, discarding particles that leave the building.
+     *
+     * @param motionNoise Standard deviation of the step in centimeters
+     */
+    private void predict(double motionNoise) {
+        for (int i = 0; i < mParticleCount; i++) {
+            double x = mX[i] + motionNoise * mRandom.nextGaussian();
+            double y = mY[i] + motionNoise * mRandom.nextGaussian();
+            if (!mFloorPlan.isInside(x, y)) {
+                mWeights[i] = 0;
+                continue;
+            }
+
+            mX[i] = x;
+            mY[i] = y;
+        }
+    }
+
+    /**
+     * @return Returns the sum of the updated weights
+     */
+    private double weigh(ProbabilityGrid grid, int[] columns, double[] estimatedDistances, int beaconCount,
+                         double pdfSharpness) {
+        double weightSum = 0;
+        for (int i = 0; i < mParticleCount; i++) {
+            if (mWeights[i] == 0) {
+                continue;
+            }
+
+            mWeights[i] *= grid.getProbability(mX[i], mY[i], columns, estimatedDistances, beaconCount, pdfSharpness);
+            weightSum += mWeights[i];
+        }
+
+        return weightSum;
+    }
+
+    /**
+     * Systematic resampling: a single random offset selects particles at equally spaced positions of
+     * the cumulative (normalized) weights.
+     */
+    private void resample() {
+        double step = 1.0 / mParticleCount;
+        double position = mRandom.nextDouble() * step;
+        double cumulativeWeight = mWeights[0];
+
+        for (int i = 0, j = 0; i < mParticleCount; i++, position += step) {
+            while (position > cumulativeWeight && j < mParticleCount - 1) {
+                j++;
+                cumulativeWeight += mWeights[j];
+            }
+
+            mResampledX[i] = mX[j];
+            mResampledY[i] = mY[j];
+        }
+
+        double[] x = mX;
+        mX = mResampledX;
+        mResampledX = x;
+
+        double[] y = mY;
+        mY = mResampledY;
+        mResampledY = y;
+
+        for (int i = 0; i < mParticleCount; i++) {
+            mWeights[i] = step;
+        }
+    }
+}
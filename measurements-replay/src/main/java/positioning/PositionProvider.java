@@ -4,36 +4,98 @@ import model.Beacon;
 import model.Coordinates;
 
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 public final class PositionProvider {
 
-    private boolean mAllowLessThanThreeBeacons = false;
-    private PositioningMethod mDefaultPositioningMethod = PositioningMethod.WEIGHTED_CENTROID;
-    private double mWeightExponent = 1.0;
-    private double mPdfSharpness = 0.5;
+    // Number of values per position in the results of a batch: x, y and confidence
+    public static final int RESULT_STRIDE = 3;
 
-    private static PositionProvider instance;
+    // Number of cells evaluated at once by the batched search
+    private static final int GRID_BLOCK_SIZE = 256;
 
-    private final Map<String, Coordinates> mBeaconCoordinatesMap = new HashMap<>();
+    private volatile PositioningConfiguration mConfiguration;
+    private final Site mSite;
+    private final BeaconRegistry mBeaconRegistry;
     private final DistanceProvider mDistanceProvider;
+    private volatile RadioMap mRadioMap;
+
+    // Scratch space of the grid based methods (a provider is used by one thread at a time)
+    private int[] mGridColumns = new int[16];
+    private double[] mGridDistances = new double[16];
+    private final double[] mGridDenominators = new double[GRID_BLOCK_SIZE];
+
+    // Scratch space of the least squares trilateration
+    private double[] mSolverX = new double[16];
+    private double[] mSolverY = new double[16];
+    private double[] mSolverRanges = new double[16];
+
+    private final MultilaterationSolver mMultilaterationSolver = new MultilaterationSolver();
+
+    // Previous multilateration fix, the initial guess of the next one
+    private boolean mHasMultilaterationFix;
+    private double mMultilaterationX, mMultilaterationY;
+
+    // Created on first use, as most providers never use it
+    private ParticleFilter mParticleFilter;
+
+    // Position smoothing of every positioning method, created on first use
+    private final KalmanFilter[] mKalmanFilters = new KalmanFilter[PositioningMethod.values().length];
+
+    // Scratch space of the fingerprinting method
+    private double[] mFingerprint = new double[0];
+    private final int[] mNeighbours = new int[RadioMap.DEFAULT_NEIGHBOUR_COUNT];
+    private final double[] mNeighbourDistances = new double[RadioMap.DEFAULT_NEIGHBOUR_COUNT];
+
+    private final CoarseToFineSearch mCoarseToFineSearch;
+
+    // Estimator of every positioning method, by ordinal
+    private final Estimator[] mEstimators = new Estimator[PositioningMethod.values().length];
+
+    private static PositionProvider instance;
 
     private PositionProvider() {
-        mDistanceProvider = DistanceProvider.getInstance();
-
-        mBeaconCoordinatesMap.put("00:CD:FF:0E:5E:B9", new Coordinates(25, 438));
-        mBeaconCoordinatesMap.put("20:18:FF:00:3F:E4", new Coordinates(230, 608));
-        mBeaconCoordinatesMap.put("20:18:FF:00:3F:E7", new Coordinates(390, 283));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:02", new Coordinates(575, 283));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:07", new Coordinates(600, 593));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:08", new Coordinates(820, 598));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:20", new Coordinates(920, 78));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:2C", new Coordinates(1120, 298));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:2D", new Coordinates(1100, 580));
-        mBeaconCoordinatesMap.put("20:18:FF:00:40:2E", new Coordinates(740, 320));
+        this(PositioningConfiguration.DEFAULT, Site.getDefault(), DistanceProvider.getInstance());
+    }
+
+    /**
+     * Creates a position provider bound to a session.
+     *
+     * @param configuration Configuration used when no configuration is passed explicitly
+     * @param site Floor of the site the session takes place on
+     * @param distanceProvider Distance provider of the session
+     */
+    public PositionProvider(PositioningConfiguration configuration, Site site, DistanceProvider distanceProvider) {
+        this(configuration, site, distanceProvider, null);
+    }
+
+    /**
+     * Creates a position provider bound to a session.
+     *
+     * @param configuration Configuration used when no configuration is passed explicitly
+     * @param site Floor of the site the session takes place on
+     * @param distanceProvider Distance provider of the session, its measurement store should use the
+     *                         beacon registry of the site
+     * @param radioMap Radio map used by the fingerprinting method, or null if there is none
+     */
+    public PositionProvider(PositioningConfiguration configuration, Site site, DistanceProvider distanceProvider,
+                            RadioMap radioMap) {
+        if (distanceProvider.getMeasurementStore().getBeaconRegistry() != site.getBeaconRegistry()) {
+            throw new IllegalArgumentException("The distance provider uses the beacons of a different site");
+        }
+
+        mConfiguration = configuration;
+        mSite = site;
+        mBeaconRegistry = site.getBeaconRegistry();
+        mDistanceProvider = distanceProvider;
+        mRadioMap = radioMap;
+        mCoarseToFineSearch = new CoarseToFineSearch(site.getCoarseProbabilityGrid(),
+                CoarseToFineSearch.DEFAULT_CANDIDATE_COUNT, CoarseToFineSearch.DEFAULT_RESOLUTION);
+
+        for (PositioningMethod method : PositioningMethod.values()) {
+            mEstimators[method.ordinal()] = createEstimator(method);
+        }
     }
 
     public static PositionProvider getInstance() {
@@ -45,39 +107,211 @@ public final class PositionProvider {
     }
 
     public void updateWeightExponent(double weightExponent) {
-        mWeightExponent = weightExponent;
+        mConfiguration = mConfiguration.withWeightExponent(weightExponent);
     }
 
     public void updatePdfSharpness(double pdfSharpness) {
-        mPdfSharpness = pdfSharpness;
+        mConfiguration = mConfiguration.withPdfSharpness(pdfSharpness);
     }
 
-    private Coordinates getCoordinates(Beacon beacon) {
-        return mBeaconCoordinatesMap.get(beacon.getBluetoothAddress());
+    public void updateRadioMap(RadioMap radioMap) {
+        mRadioMap = radioMap;
+    }
+
+    public PositioningConfiguration getConfiguration() {
+        return mConfiguration;
+    }
+
+    /**
+     * @return Returns the floor of the site the provider estimates positions on
+     */
+    public Site getSite() {
+        return mSite;
     }
 
     public Coordinates getPosition(List<Beacon> beaconList) throws PositioningException {
-        return getPosition(beaconList, mDefaultPositioningMethod);
+        PositioningConfiguration configuration = mConfiguration;
+        return getPosition(beaconList, configuration.getDefaultPositioningMethod(), configuration);
     }
 
     public Coordinates getPosition(List<Beacon> beaconList, PositioningMethod method) throws PositioningException {
+        return getPosition(beaconList, method, mConfiguration);
+    }
+
+    public Coordinates getPosition(List<Beacon> beaconList, PositioningMethod method,
+                                   PositioningConfiguration configuration) throws PositioningException {
+        if (mBeaconRegistry.size() == 0) {
+            throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
+        }
+
+        List<Beacon> sortedBeaconList = prepareBeacons(beaconList, configuration);
+        Coordinates position = estimateCoordinates(sortedBeaconList, method, mEstimators[method.ordinal()],
+                configuration);
+
+        if (sortedBeaconList.size() >= 3) {
+            position.setConfidence(mDistanceProvider.getConfidence(sortedBeaconList.subList(0, 3)));
+        }
+
+        if (!configuration.isSmoothPositions()) {
+            return position;
+        }
+
+        return getKalmanFilter(method).smooth(position, getScanTimestamp(beaconList));
+    }
+
+    public double[] getPositions(List<List<Beacon>> scans, PositioningMethod... methods) {
+        double[] results = new double[RESULT_STRIDE * scans.size() * methods.length];
+        getPositions(scans, methods, mConfiguration, results);
+        return results;
+    }
+
+    /**
+     * Estimates the positions of a whole sequence of scans with several methods at once. The batch
+     * owns the ingestion of the measurements: the measurements of every scan are added to the
+     * measurement store of the distance provider right before the scan is positioned, so the caller
+     * should not add them itself. The beacon registry is checked and the methods are resolved once
+     * per batch, and every scan is validated and sorted by distance once for all methods. The
+     * results are the same as those of adding the measurements of every scan and calling
+     * {@link #getPosition(List, PositioningMethod, PositioningConfiguration)} for every method.
+     *
+     * @param scans Beacons detected per scan, in chronological order
+     * @param methods Methods to estimate every position with
+     * @param configuration Configuration of all methods
+     * @param results Receives the x and y coordinate (in centimeters) and the confidence of every
+     *                scan and method, scan by scan and within a scan in the order of the methods:
+     *                the result of scan i and method j starts at index
+     *                {@value #RESULT_STRIDE} * (i * methods.length + j). All three are NaN if no
+     *                position could be estimated
+     * @return Returns the number of positions that were estimated
+     */
+    public int getPositions(List<List<Beacon>> scans, PositioningMethod[] methods,
+                            PositioningConfiguration configuration, double[] results) {
+        if (results.length < RESULT_STRIDE * scans.size() * methods.length) {
+            throw new IllegalArgumentException("The result array cannot hold " + scans.size() + " scans of "
+                    + methods.length + " methods");
+        }
+
+        Estimator[] estimators = new Estimator[methods.length];
+        for (int j = 0; j < methods.length; j++) {
+            estimators[j] = mEstimators[methods[j].ordinal()];
+        }
+
+        // Without beacon coordinates no scan can be positioned, but the measurements are still added
+        boolean hasBeacons = mBeaconRegistry.size() > 0;
+
+        int positionCount = 0;
+        int index = 0;
+        for (List<Beacon> scan : scans) {
+            mDistanceProvider.addMeasurements(scan);
+
+            List<Beacon> sortedBeaconList = null;
+            if (hasBeacons) {
+                try {
+                    sortedBeaconList = prepareBeacons(scan, configuration);
+                } catch (PositioningException e) {
+                    // None of the methods can estimate a position for this scan
+                }
+            }
+
+            double confidence = Double.NaN;
+            if (sortedBeaconList != null && sortedBeaconList.size() >= 3) {
+                confidence = mDistanceProvider.getConfidence(sortedBeaconList.subList(0, 3));
+            }
+
+            for (int j = 0; j < methods.length; j++, index += RESULT_STRIDE) {
+                Coordinates position = null;
+                if (sortedBeaconList != null) {
+                    try {
+                        position = estimateCoordinates(sortedBeaconList, methods[j], estimators[j], configuration);
+                    } catch (PositioningException e) {
+                        // Ignore, the result of this method is left empty
+                    }
+                }
+
+                if (position == null) {
+                    results[index] = Double.NaN;
+                    results[index + 1] = Double.NaN;
+                    results[index + 2] = Double.NaN;
+                    continue;
+                }
+
+                if (!Double.isNaN(confidence)) {
+                    position.setConfidence(confidence);
+                }
+
+                if (configuration.isSmoothPositions()) {
+                    position = getKalmanFilter(methods[j]).smooth(position, getScanTimestamp(scan));
+                }
+
+                results[index] = position.getX();
+                results[index + 1] = position.getY();
+                results[index + 2] = position.getConfidence();
+                positionCount++;
+            }
+        }
+
+        return positionCount;
+    }
+
+    private KalmanFilter getKalmanFilter(PositioningMethod method) {
+        // Every method has its own filter, as positions of several methods may be requested per scan
+        KalmanFilter kalmanFilter = mKalmanFilters[method.ordinal()];
+        if (kalmanFilter == null) {
+            kalmanFilter = new KalmanFilter();
+            mKalmanFilters[method.ordinal()] = kalmanFilter;
+        }
+
+        return kalmanFilter;
+    }
+
+    /**
+     * @param beaconList Beacons detected in a single scan
+     * @return Returns the time of the scan in milliseconds, or -1 if unknown
+     */
+    public static long getScanTimestamp(List<Beacon> beaconList) {
+        // Beacons of a scan share the timestamp of the scan
+        Date lastMeasurement = beaconList.get(0).getLastMeasurement();
+        return lastMeasurement == null ? -1 : lastMeasurement.getTime();
+    }
+
+    /**
+     * Checks whether a position can be estimated from the beacons detected in a scan.
+     *
+     * @return Returns the beacons to estimate the position with, sorted by distance if there are at
+     * least three
+     */
+    private List<Beacon> prepareBeacons(List<Beacon> beaconList,
+                                        PositioningConfiguration configuration) throws PositioningException {
         if (beaconList == null || beaconList.isEmpty()) {
             throw new PositioningException("No beacons detected, unable to determine position");
         }
 
-        if (beaconList.size() < 3 && !mAllowLessThanThreeBeacons) {
+        if (beaconList.size() < 3 && !configuration.isAllowLessThanThreeBeacons()) {
             throw new PositioningException("Less than three beacons detected");
         }
 
-        if (mBeaconCoordinatesMap.isEmpty()) {
-            throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
+        if (beaconList.size() < 3) {
+            return beaconList;
         }
 
+        // Sort a copy of the list by distance, so the order of the caller's list (and thereby the
+        // resolution of ties) does not depend on previously evaluated parameters
+        return mDistanceProvider.sortByDistance(beaconList);
+    }
+
+    /**
+     * @param beaconList Beacons returned by {@link #prepareBeacons(List, PositioningConfiguration)}
+     * @param estimator Estimator of the method, used when there are at least three beacons
+     */
+    private Coordinates estimateCoordinates(List<Beacon> beaconList, PositioningMethod method, Estimator estimator,
+                                            PositioningConfiguration configuration) throws PositioningException {
         if (beaconList.size() == 1) {
-            Beacon beacon1 = beaconList.get(0);
-            Coordinates beacon1Coordinates = getCoordinates(beacon1);
+            int beacon1Id = mBeaconRegistry.getId(beaconList.get(0));
+            if (beacon1Id < 0) {
+                throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
+            }
 
-            return beacon1Coordinates;
+            return new Coordinates(mBeaconRegistry.getX(beacon1Id), mBeaconRegistry.getY(beacon1Id));
         }
 
         if (beaconList.size() == 2) {
@@ -88,42 +322,50 @@ public final class PositionProvider {
         }
 
         // List contains at least 3 beacons, perform lateration
-        // Sort list by distance
-        beaconList.sort(Comparator.comparingDouble(mDistanceProvider::getDistance));
+        Coordinates position = estimator.estimate(beaconList, configuration);
+        if (position == null) {
+            throw new PositioningException("No position found with method " + method.getName());
+        }
 
-        Beacon beacon1 = beaconList.get(0);
-        Beacon beacon2 = beaconList.get(1);
-        Beacon beacon3 = beaconList.get(2);
+        return position;
+    }
 
-        Coordinates position = new Coordinates();
+    private Estimator createEstimator(PositioningMethod method) {
         switch (method) {
             case TRILATERATION:
-                position = trilateration(beacon1, beacon2, beacon3);
-                break;
+            case LINE_INTERSECTION:
+            case LEAST_SQUARES:
+                return (beaconList, configuration) -> trilateration(beaconList.get(0), beaconList.get(1),
+                        beaconList.get(2), method, beaconList, configuration.getWeightExponent());
             case WEIGHTED_CENTROID:
-                position = weightedCentroid(beaconList);
-                break;
+                return (beaconList, configuration) -> weightedCentroid(beaconList, configuration.getWeightExponent());
             case PROBABILITY:
-                position = probabilityBased(beaconList);
-                break;
+                return (beaconList, configuration) -> probabilityBased(beaconList, configuration.getPdfSharpness(),
+                        configuration.getProbabilitySearch());
+            case MULTILATERATION:
+                return (beaconList, configuration) -> multilateration(beaconList, configuration.getWeightExponent());
+            case PARTICLE_FILTER:
+                return (beaconList, configuration) -> particleFilter(beaconList, configuration.getPdfSharpness(),
+                        configuration.getParticleCount());
+            case FINGERPRINT:
+                return (beaconList, configuration) -> fingerprint(beaconList);
         }
 
-        position.setConfidence(mDistanceProvider.getConfidence(Arrays.asList(beacon1, beacon2, beacon3)));
-        return position;
+        throw new IllegalArgumentException("Unknown positioning method " + method);
     }
 
     private Coordinates weightedMidPoint(Beacon beacon1, Beacon beacon2) throws PositioningException {
-        Coordinates beacon1Coordinates = getCoordinates(beacon1);
-        Coordinates beacon2Coordinates = getCoordinates(beacon2);
-        if (beacon1Coordinates == null || beacon2Coordinates == null) {
+        int beacon1Id = mBeaconRegistry.getId(beacon1);
+        int beacon2Id = mBeaconRegistry.getId(beacon2);
+        if (beacon1Id < 0 || beacon2Id < 0) {
             throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
         }
 
-        double x1 = beacon1Coordinates.getX();
-        double y1 = beacon1Coordinates.getY();
+        double x1 = mBeaconRegistry.getX(beacon1Id);
+        double y1 = mBeaconRegistry.getY(beacon1Id);
 
-        double x2 = beacon2Coordinates.getX();
-        double y2 = beacon2Coordinates.getY();
+        double x2 = mBeaconRegistry.getX(beacon2Id);
+        double y2 = mBeaconRegistry.getY(beacon2Id);
 
         double r1 = mDistanceProvider.getDistance(beacon1) * 100;
         double r2 = mDistanceProvider.getDistance(beacon2) * 100;
@@ -136,87 +378,91 @@ public final class PositionProvider {
         return weightedMidPoint;
     }
 
-    // Reference: http://paulbourke.net/geometry/circlesphere/
-    private Coordinates trilateration(Beacon beacon1, Beacon beacon2, Beacon beacon3) throws PositioningException {
-        Coordinates beacon1Coordinates = getCoordinates(beacon1);
-        Coordinates beacon2Coordinates = getCoordinates(beacon2);
-        Coordinates beacon3Coordinates = getCoordinates(beacon3);
-        if (beacon1Coordinates == null || beacon2Coordinates == null || beacon3Coordinates == null) {
+    private Coordinates trilateration(Beacon beacon1, Beacon beacon2, Beacon beacon3, PositioningMethod method,
+                                      List<Beacon> beaconList, double weightExponent) throws PositioningException {
+        int beacon1Id = mBeaconRegistry.getId(beacon1);
+        int beacon2Id = mBeaconRegistry.getId(beacon2);
+        int beacon3Id = mBeaconRegistry.getId(beacon3);
+        if (beacon1Id < 0 || beacon2Id < 0 || beacon3Id < 0) {
             throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
         }
 
-        double x1 = beacon1Coordinates.getX();
-        double y1 = beacon1Coordinates.getY();
-
-        double x2 = beacon2Coordinates.getX();
-        double y2 = beacon2Coordinates.getY();
-
         // Convert distances to centimeters
         double r1 = mDistanceProvider.getDistance(beacon1) * 100;
         double r2 = mDistanceProvider.getDistance(beacon2) * 100;
+        double r3 = mDistanceProvider.getDistance(beacon3) * 100;
 
-        double distance = Math.hypot((x2 - x1), (y2 - y1));
-        if (distance < Math.abs(r1 - r2)) {
-            // No intersections exist, one circle is contained in the other
-            return weightedCentroid(Arrays.asList(beacon1, beacon2, beacon3));
+        // The solver writes into the returned position
+        Coordinates position = new Coordinates();
+        boolean solved;
+        switch (method) {
+            case LINE_INTERSECTION:
+                solved = Trilateration.lineIntersection(mBeaconRegistry.getX(beacon1Id), mBeaconRegistry.getY(beacon1Id), r1,
+                        mBeaconRegistry.getX(beacon2Id), mBeaconRegistry.getY(beacon2Id), r2,
+                        mBeaconRegistry.getX(beacon3Id), mBeaconRegistry.getY(beacon3Id), r3, position);
+                break;
+            case LEAST_SQUARES:
+                solved = leastSquares(beaconList, position);
+                break;
+            default:
+                solved = Trilateration.circleIntersection(mBeaconRegistry.getX(beacon1Id), mBeaconRegistry.getY(beacon1Id), r1,
+                        mBeaconRegistry.getX(beacon2Id), mBeaconRegistry.getY(beacon2Id), r2,
+                        mBeaconRegistry.getX(beacon3Id), mBeaconRegistry.getY(beacon3Id), position);
         }
 
-        if (distance > r1 + r2) {
-            // No intersections (due to inaccuracy), use weighted centroid
-            return weightedCentroid(Arrays.asList(beacon1, beacon2, beacon3));
+        if (!solved) {
+            // No intersections (due to inaccuracy), use weighted centroid of the three beacons
+            return weightedCentroid(beaconList, 3, weightExponent);
         }
 
-        // Calculate point p where the line through the intersection points crosses the line through
-        // the circle centers
-        Coordinates p = new Coordinates();
-        double a = (r1 * r1 - r2 * r2 + distance * distance) / (2 * distance);
-        p.setX(x1 + (a / distance) * (x2 - x1));
-        p.setY(y1 + (a / distance) * (y2 - y1));
+        return position;
+    }
 
-        if (distance == r1 + r2) {
-            // Only one intersection exists
-            return p;
+    private boolean leastSquares(List<Beacon> beaconList, Coordinates result) {
+        // Use all beacons with known coordinates, not only the nearest three
+        if (beaconList.size() > mSolverX.length) {
+            mSolverX = new double[beaconList.size()];
+            mSolverY = new double[beaconList.size()];
+            mSolverRanges = new double[beaconList.size()];
         }
 
-        // Two intersections exist (due to inaccuracy)
-        double h = Math.sqrt(r1 * r1 - a * a);
-
-        // First intersection point
-        Coordinates firstIntersection = new Coordinates();
-        firstIntersection.setX(p.getX() + (h / distance) * (y2 - y1));
-        firstIntersection.setY(p.getY() - (h / distance) * (x2 - x1));
-
-        // Second intersection point
-        Coordinates secondIntersection = new Coordinates();
-        secondIntersection.setX(p.getX() - (h / distance) * (y2 - y1));
-        secondIntersection.setY(p.getY() + (h / distance) * (x2 - x1));
+        int beaconCount = 0;
+        for (Beacon beacon : beaconList) {
+            int beaconId = mBeaconRegistry.getId(beacon);
+            if (beaconId < 0) {
+                continue;
+            }
 
-        // Choose intersection point closest to the third beacon
-        if (Coordinates.calculateDistance(firstIntersection, beacon3Coordinates)
-                < Coordinates.calculateDistance(secondIntersection, beacon3Coordinates)) {
-            return firstIntersection;
+            mSolverX[beaconCount] = mBeaconRegistry.getX(beaconId);
+            mSolverY[beaconCount] = mBeaconRegistry.getY(beaconId);
+            mSolverRanges[beaconCount] = mDistanceProvider.getDistance(beacon) * 100;
+            beaconCount++;
         }
 
-        return secondIntersection;
+        return Trilateration.leastSquares(mSolverX, mSolverY, mSolverRanges, beaconCount, result);
     }
 
-    private Coordinates weightedCentroid(List<Beacon> beaconList) {
-        return weightedCentroid(beaconList, mWeightExponent);
+    private Coordinates weightedCentroid(List<Beacon> beaconList, double weightExponent) {
+        return weightedCentroid(beaconList, beaconList.size(), weightExponent);
     }
 
-    private Coordinates weightedCentroid(List<Beacon> beaconList, double weightExponent) {
+    /**
+     * @param beaconCount Number of beacons to use, the first ones of the list
+     */
+    private Coordinates weightedCentroid(List<Beacon> beaconList, int beaconCount, double weightExponent) {
         double x = 0, y = 0, weightSum = 0;
-        for (Beacon beacon : beaconList) {
-            Coordinates beaconCoordinates = getCoordinates(beacon);
-            if (beaconCoordinates == null) {
+        for (int i = 0; i < beaconCount; i++) {
+            Beacon beacon = beaconList.get(i);
+            int beaconId = mBeaconRegistry.getId(beacon);
+            if (beaconId < 0) {
                 continue;
             }
 
             double distance = mDistanceProvider.getDistance(beacon);
             double weight = 1 / Math.pow(distance, weightExponent);
 
-            x += beaconCoordinates.getX() * weight;
-            y += beaconCoordinates.getY() * weight;
+            x += mBeaconRegistry.getX(beaconId) * weight;
+            y += mBeaconRegistry.getY(beaconId) * weight;
             weightSum += weight;
         }
 
@@ -226,52 +472,153 @@ public final class PositionProvider {
         return new Coordinates(x, y);
     }
 
-    private Coordinates probabilityBased(List<Beacon> beaconList) {
-        return probabilityBased(beaconList, mPdfSharpness);
+    private Coordinates multilateration(List<Beacon> beaconList, double weightExponent) {
+        // Use all beacons with known coordinates, not only the nearest three
+        mMultilaterationSolver.clear();
+        for (Beacon beacon : beaconList) {
+            int beaconId = mBeaconRegistry.getId(beacon);
+            if (beaconId < 0) {
+                continue;
+            }
+
+            // Convert distance to centimeters
+            double range = mDistanceProvider.getDistance(beacon) * 100;
+            mMultilaterationSolver.addBeacon(mBeaconRegistry.getX(beaconId), mBeaconRegistry.getY(beaconId), range);
+        }
+
+        if (mMultilaterationSolver.getBeaconCount() < 3) {
+            return weightedCentroid(beaconList, weightExponent);
+        }
+
+        // Start from the previous fix, or from the weighted centroid for the first one
+        double initialX = mMultilaterationX, initialY = mMultilaterationY;
+        if (!mHasMultilaterationFix) {
+            Coordinates centroid = weightedCentroid(beaconList, weightExponent);
+            initialX = centroid.getX();
+            initialY = centroid.getY();
+        }
+
+        if (!mMultilaterationSolver.solve(initialX, initialY)) {
+            return weightedCentroid(beaconList, weightExponent);
+        }
+
+        mHasMultilaterationFix = true;
+        mMultilaterationX = mMultilaterationSolver.getX();
+        mMultilaterationY = mMultilaterationSolver.getY();
+
+        return new Coordinates(mMultilaterationX, mMultilaterationY);
     }
 
-    private Coordinates probabilityBased(List<Beacon> beaconList, double pdfSharpness) {
-        int stepSize = 20;
+    private Coordinates particleFilter(List<Beacon> beaconList, double pdfSharpness,
+                                       int particleCount) throws PositioningException {
+        if (mParticleFilter == null || mParticleFilter.getParticleCount() != particleCount) {
+            mParticleFilter = new ParticleFilter(mSite.getFloorPlan(), particleCount, ParticleFilter.DEFAULT_SEED);
+        }
 
-        double maxProbability = -1;
-        Coordinates bestCoordinates = null;
+        int beaconCount = collectGridDistances(beaconList);
 
-        // TODO: make boundaries configurable
-        int xBoundary = 1200, yBoundary = 960;
-        for (int x = 0; x <= xBoundary; x += stepSize) {
-            for (int y = 0; y <= yBoundary; y += stepSize) {
-                // Only include coordinates within the building
-                if ((x > 700 && (x < 1140 || y > 620)) || (x <= 700 && y < 640 && y > 240)) {
-                    Coordinates coordinates = new Coordinates(x + stepSize / 2.0, y + stepSize / 2.0);
-                    double probability = getProbability(coordinates, beaconList, pdfSharpness);
+        if (!mParticleFilter.update(getScanTimestamp(beaconList), mSite.getProbabilityGrid(), mGridColumns, mGridDistances, beaconCount,
+                pdfSharpness)) {
+            throw new PositioningException("No particle is consistent with the estimated distances");
+        }
 
-                    if (probability > maxProbability) {
-                        maxProbability = probability;
-                        bestCoordinates = coordinates;
-                    }
-                }
+        return new Coordinates(mParticleFilter.getX(), mParticleFilter.getY());
+    }
+
+    private Coordinates fingerprint(List<Beacon> beaconList) throws PositioningException {
+        RadioMap radioMap = mRadioMap;
+        if (radioMap == null) {
+            throw new PositioningException("No radio map available, unable to match fingerprints");
+        }
+
+        if (mFingerprint.length != radioMap.getBeaconCount()) {
+            mFingerprint = new double[radioMap.getBeaconCount()];
+        }
+
+        // Beacons that are not part of the radio map cannot be matched, and are ignored
+        Arrays.fill(mFingerprint, RadioMap.MISSING_RSSI);
+        for (Beacon beacon : beaconList) {
+            int column = radioMap.getBeaconColumn(BeaconRegistry.parseAddress(beacon.getBluetoothAddress()));
+            if (column >= 0) {
+                mFingerprint[column] = mDistanceProvider.getFilteredRssi(beacon);
             }
         }
 
-        return bestCoordinates;
+        int neighbourCount = radioMap.findNearest(mFingerprint, mNeighbours.length, mNeighbours, mNeighbourDistances);
+        if (neighbourCount == 0) {
+            throw new PositioningException("The radio map has no reference points");
+        }
+
+        // Weight the nearest reference points by the inverse of their distance in signal space (the
+        // offset keeps an exact match from outweighing all others completely)
+        double x = 0, y = 0, weightSum = 0;
+        for (int i = 0; i < neighbourCount; i++) {
+            double weight = 1 / (Math.sqrt(mNeighbourDistances[i]) + 1);
+            x += weight * radioMap.getX(mNeighbours[i]);
+            y += weight * radioMap.getY(mNeighbours[i]);
+            weightSum += weight;
+        }
+
+        return new Coordinates(x / weightSum, y / weightSum);
     }
 
-    private double getProbability(Coordinates position, List<Beacon> beaconList, double pdfSharpness) {
-        double probability = 1;
+    /**
+     * Collects the grid columns and estimated distances of the beacons with known coordinates, in
+     * list order, into the scratch space (the grid columns are the ids of the beacon registry).
+     *
+     * @return Returns the number of beacons collected
+     */
+    private int collectGridDistances(List<Beacon> beaconList) {
+        if (beaconList.size() > mGridColumns.length) {
+            mGridColumns = new int[beaconList.size()];
+            mGridDistances = new double[beaconList.size()];
+        }
+
+        int beaconCount = 0;
         for (Beacon beacon : beaconList) {
-            Coordinates beaconCoordinates = getCoordinates(beacon);
-            if (beaconCoordinates == null) {
+            int column = mBeaconRegistry.getId(beacon);
+            if (column < 0) {
                 continue;
             }
 
-            double distance = Coordinates.calculateDistance(position, beaconCoordinates) / 100;
-            probability *= getProbability(distance, beacon, pdfSharpness);
+            mGridColumns[beaconCount] = column;
+            mGridDistances[beaconCount] = mDistanceProvider.getDistance(beacon);
+            beaconCount++;
         }
 
-        return probability;
+        return beaconCount;
     }
 
-    private double getProbability(double distance, Beacon beacon, double pdfSharpness) {
-        return 1 / (Math.pow(distance - mDistanceProvider.getDistance(beacon), 2) + pdfSharpness);
+    private Coordinates probabilityBased(List<Beacon> beaconList, double pdfSharpness,
+                                         ProbabilitySearch probabilitySearch) {
+        int beaconCount = collectGridDistances(beaconList);
+
+        if (probabilitySearch == ProbabilitySearch.COARSE_TO_FINE) {
+            if (!mCoarseToFineSearch.search(mGridColumns, mGridDistances, beaconCount, pdfSharpness)) {
+                return null;
+            }
+
+            return new Coordinates(mCoarseToFineSearch.getX(), mCoarseToFineSearch.getY());
+        }
+
+        ProbabilityGrid probabilityGrid = mSite.getProbabilityGrid();
+        int cell = probabilitySearch == ProbabilitySearch.BATCHED
+                ? probabilityGrid.findMostProbableCell(mGridColumns, mGridDistances, beaconCount, pdfSharpness,
+                mGridDenominators)
+                : probabilityGrid.findMostProbableCell(mGridColumns, mGridDistances, beaconCount, pdfSharpness);
+        if (cell < 0) {
+            return null;
+        }
+
+        return new Coordinates(probabilityGrid.getCellX(cell), probabilityGrid.getCellY(cell));
+    }
+
+    /**
+     * Estimates a position from the beacons of a scan, sorted by distance (at least three).
+     */
+    private interface Estimator {
+
+        Coordinates estimate(List<Beacon> beaconList, PositioningConfiguration configuration)
+                throws PositioningException;
     }
 }
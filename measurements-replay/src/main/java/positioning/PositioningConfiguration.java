@@ -0,0 +1,108 @@
+package positioning;
+
+/**
+ * Immutable set of parameters used to estimate a position from the distances to the detected
+ * beacons. A configuration can be shared freely between threads and sessions.
+ */
+public final class PositioningConfiguration {
+
+    public static final PositioningConfiguration DEFAULT =
+            new PositioningConfiguration(PositioningMethod.WEIGHTED_CENTROID, 1.0, 0.5, false);
+
+    private final PositioningMethod defaultPositioningMethod;
+    private final double weightExponent;
+    private final double pdfSharpness;
+    private final boolean allowLessThanThreeBeacons;
+    private final ProbabilitySearch probabilitySearch;
+    private final int particleCount;
+    private final boolean smoothPositions;
+
+    /**
+     * Creates a configuration that searches the probability grid exhaustively, with the default
+     * number of particles, and without smoothing (see the with-ers to change these).
+     */
+    public PositioningConfiguration(PositioningMethod defaultPositioningMethod, double weightExponent,
+                                    double pdfSharpness, boolean allowLessThanThreeBeacons) {
+        this(defaultPositioningMethod, weightExponent, pdfSharpness, allowLessThanThreeBeacons,
+                ProbabilitySearch.EXHAUSTIVE, ParticleFilter.DEFAULT_PARTICLE_COUNT, false);
+    }
+
+    private PositioningConfiguration(PositioningMethod defaultPositioningMethod, double weightExponent,
+                                     double pdfSharpness, boolean allowLessThanThreeBeacons,
+                                     ProbabilitySearch probabilitySearch, int particleCount,
+                                     boolean smoothPositions) {
+        this.defaultPositioningMethod = defaultPositioningMethod;
+        this.weightExponent = weightExponent;
+        this.pdfSharpness = pdfSharpness;
+        this.allowLessThanThreeBeacons = allowLessThanThreeBeacons;
+        this.probabilitySearch = probabilitySearch;
+        this.particleCount = particleCount;
+        this.smoothPositions = smoothPositions;
+    }
+
+    public PositioningConfiguration withWeightExponent(double weightExponent) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, probabilitySearch, particleCount, smoothPositions);
+    }
+
+    public PositioningConfiguration withPdfSharpness(double pdfSharpness) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, probabilitySearch, particleCount, smoothPositions);
+    }
+
+    public PositioningConfiguration withProbabilitySearch(ProbabilitySearch probabilitySearch) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, probabilitySearch, particleCount, smoothPositions);
+    }
+
+    public PositioningConfiguration withParticleCount(int particleCount) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, probabilitySearch, particleCount, smoothPositions);
+    }
+
+    public PositioningConfiguration withSmoothPositions(boolean smoothPositions) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, probabilitySearch, particleCount, smoothPositions);
+    }
+
+    public PositioningMethod getDefaultPositioningMethod() {
+        return defaultPositioningMethod;
+    }
+
+    public double getWeightExponent() {
+        return weightExponent;
+    }
+
+    public double getPdfSharpness() {
+        return pdfSharpness;
+    }
+
+    public boolean isAllowLessThanThreeBeacons() {
+        return allowLessThanThreeBeacons;
+    }
+
+    public ProbabilitySearch getProbabilitySearch() {
+        return probabilitySearch;
+    }
+
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    public boolean isSmoothPositions() {
+        return smoothPositions;
+    }
+
+    @Override
+    public String toString() {
+        return "PositioningConfiguration{" +
+                "defaultPositioningMethod=" + defaultPositioningMethod +
+                ", weightExponent=" + weightExponent +
+                ", pdfSharpness=" + pdfSharpness +
+                ", allowLessThanThreeBeacons=" + allowLessThanThreeBeacons +
+                ", probabilitySearch=" + probabilitySearch +
+                ", particleCount=" + particleCount +
+                ", smoothPositions=" + smoothPositions +
+                '}';
+    }
+}
@@ -6,8 +6,13 @@ import java.util.Map;
 public enum PositioningMethod {
 
     TRILATERATION("trilateration"),
+    LINE_INTERSECTION("line_intersection"),
+    LEAST_SQUARES("least_squares"),
     WEIGHTED_CENTROID("weighted_centroid"),
-    PROBABILITY("probability");
+    PROBABILITY("probability"),
+    MULTILATERATION("multilateration"),
+    PARTICLE_FILTER("particle_filter"),
+    FINGERPRINT("fingerprint");
 
     private final String name;
     private static final Map<String, PositioningMethod> valuesByName;
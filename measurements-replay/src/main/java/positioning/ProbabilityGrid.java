@@ -0,0 +1,259 @@
+package positioning;
+
+import model.Coordinates;
+
+import java.util.Arrays;
+
+/**
+ * Grid of candidate positions used by the probability based positioning method, precomputed for a
+ * beacon layout: the centers of all grid cells within the building, and the distance from every
+ * cell to every beacon. Evaluating a position is then a loop over primitive arrays.
+ *
+ * The distances are stored twice: one row of beacons per cell for evaluating single cells, and one
+ * row of cells per beacon for the batched search, which evaluates a block of cells at once with
+ * plain loops over consecutive elements that the JIT compiler can vectorize. The beacon columns are
+ * the ids of the beacons in the registry the grid was created for.
+ */
+public final class ProbabilityGrid {
+
+    // Step size of the grid used by the exhaustive search
+    public static final int DEFAULT_STEP_SIZE = 20;
+
+    private final FloorPlan mFloorPlan;
+    private final int mStepSize;
+    private final int mCellCount;
+    private final double[] mCellX, mCellY;
+
+    private final int mBeaconCount;
+    private final double[] mBeaconX, mBeaconY;
+
+    // Distance in meters from every cell to every beacon, one row of beacons per cell
+    private final double[] mDistances;
+    // Same distances, one row of cells per beacon
+    private final double[] mBeaconDistances;
+
+    private ProbabilityGrid(FloorPlan floorPlan, int stepSize, double[] cellX, double[] cellY, int cellCount,
+                            double[] beaconX, double[] beaconY, double[] distances) {
+        mFloorPlan = floorPlan;
+        mStepSize = stepSize;
+        mCellX = cellX;
+        mCellY = cellY;
+        mCellCount = cellCount;
+        mBeaconCount = beaconX.length;
+        mBeaconX = beaconX;
+        mBeaconY = beaconY;
+        mDistances = distances;
+
+        mBeaconDistances = new double[distances.length];
+        for (int cell = 0; cell < cellCount; cell++) {
+            for (int beacon = 0; beacon < mBeaconCount; beacon++) {
+                mBeaconDistances[beacon * cellCount + cell] = distances[cell * mBeaconCount + beacon];
+            }
+        }
+    }
+
+    /**
+     * @param beaconRegistry Beacons of the site, with their coordinates
+     * @param floorPlan Floor plan of the floor the beacons are on
+     * @return Returns the 20 cm grid for the given beacon layout
+     */
+    public static ProbabilityGrid create(BeaconRegistry beaconRegistry, FloorPlan floorPlan) {
+        return create(beaconRegistry, floorPlan, DEFAULT_STEP_SIZE);
+    }
+
+    /**
+     * @param beaconRegistry Beacons of the site, with their coordinates
+     * @param floorPlan Floor plan of the floor the beacons are on
+     * @param stepSize Cell size in centimeters
+     * @return Returns the grid for the given beacon layout
+     */
+    public static ProbabilityGrid create(BeaconRegistry beaconRegistry, FloorPlan floorPlan,
+                                         int stepSize) {
+        int maxCells = (int) (Math.ceil(floorPlan.getWidth() / stepSize) * Math.ceil(floorPlan.getHeight() / stepSize));
+        double[] cellX = new double[maxCells];
+        double[] cellY = new double[maxCells];
+
+        // Cells are ordered as they were visited by the original grid search (x first, then y)
+        int cellCount = 0;
+        for (int x = 0; x < floorPlan.getWidth(); x += stepSize) {
+            for (int y = 0; y < floorPlan.getHeight(); y += stepSize) {
+                // Only include cells with their center within the building
+                double centerX = x + stepSize / 2.0;
+                double centerY = y + stepSize / 2.0;
+                if (floorPlan.isInside(centerX, centerY)) {
+                    cellX[cellCount] = centerX;
+                    cellY[cellCount] = centerY;
+                    cellCount++;
+                }
+            }
+        }
+
+        double[] beaconX = new double[beaconRegistry.size()];
+        double[] beaconY = new double[beaconRegistry.size()];
+        for (int id = 0; id < beaconRegistry.size(); id++) {
+            beaconX[id] = beaconRegistry.getX(id);
+            beaconY[id] = beaconRegistry.getY(id);
+        }
+
+        int beaconCount = beaconX.length;
+        double[] distances = new double[cellCount * beaconCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            Coordinates cellCoordinates = new Coordinates(cellX[cell], cellY[cell]);
+            for (int beacon = 0; beacon < beaconCount; beacon++) {
+                Coordinates beaconCoordinates = new Coordinates(beaconX[beacon], beaconY[beacon]);
+                distances[cell * beaconCount + beacon] =
+                        Coordinates.calculateDistance(cellCoordinates, beaconCoordinates) / 100;
+            }
+        }
+
+        return new ProbabilityGrid(floorPlan, stepSize, cellX, cellY, cellCount, beaconX, beaconY, distances);
+    }
+
+    /**
+     * @param x X coordinate in centimeters
+     * @param y Y coordinate in centimeters
+     * @return Returns whether the coordinates lie within the building, according to the floor plan
+     */
+    public boolean isInside(double x, double y) {
+        return mFloorPlan.isInside(x, y);
+    }
+
+    public FloorPlan getFloorPlan() {
+        return mFloorPlan;
+    }
+
+    public int getStepSize() {
+        return mStepSize;
+    }
+
+    public int getCellCount() {
+        return mCellCount;
+    }
+
+    public int getBeaconCount() {
+        return mBeaconCount;
+    }
+
+    public double getCellX(int cell) {
+        return mCellX[cell];
+    }
+
+    public double getCellY(int cell) {
+        return mCellY[cell];
+    }
+
+    /**
+     * @return Returns the product of 1 / ((distance - estimated distance)^2 + pdf sharpness) over the
+     * given beacons, for arbitrary coordinates (in centimeters)
+     */
+    public double getProbability(double x, double y, int[] columns, double[] estimatedDistances, int beaconCount,
+                                 double pdfSharpness) {
+        double probability = 1;
+        for (int i = 0; i < beaconCount; i++) {
+            double dx = x - mBeaconX[columns[i]];
+            double dy = y - mBeaconY[columns[i]];
+            double distance = Math.sqrt(dx * dx + dy * dy) / 100;
+
+            probability *= 1 / (Math.pow(distance - estimatedDistances[i], 2) + pdfSharpness);
+        }
+
+        return probability;
+    }
+
+    /**
+     * @return Returns the probability of the given cell, see {@link #getProbability(double, double,
+     * int[], double[], int, double)}
+     */
+    public double getProbability(int cell, int[] columns, double[] estimatedDistances, int beaconCount,
+                                 double pdfSharpness) {
+        int row = cell * mBeaconCount;
+
+        double probability = 1;
+        for (int i = 0; i < beaconCount; i++) {
+            double distance = mDistances[row + columns[i]];
+            probability *= 1 / (Math.pow(distance - estimatedDistances[i], 2) + pdfSharpness);
+        }
+
+        return probability;
+    }
+
+    /**
+     * Finds the cell that maximizes the product of 1 / ((cell distance - estimated distance)^2 + pdf
+     * sharpness) over the given beacons.
+     *
+     * @param columns Columns of the beacons in the distance table
+     * @param estimatedDistances Estimated distance to each beacon, in meters
+     * @param beaconCount Number of beacons to use from the arrays
+     * @param pdfSharpness Sharpness of the probability density function
+     * @return Returns the most probable cell (the first one in case of a tie), or -1 if the grid is
+     * empty
+     */
+    public int findMostProbableCell(int[] columns, double[] estimatedDistances, int beaconCount, double pdfSharpness) {
+        double maxProbability = -1;
+        int bestCell = -1;
+
+        for (int cell = 0, row = 0; cell < mCellCount; cell++, row += mBeaconCount) {
+            double probability = 1;
+            for (int i = 0; i < beaconCount; i++) {
+                double distance = mDistances[row + columns[i]];
+                probability *= 1 / (Math.pow(distance - estimatedDistances[i], 2) + pdfSharpness);
+            }
+
+            if (probability > maxProbability) {
+                maxProbability = probability;
+                bestCell = cell;
+            }
+        }
+
+        return bestCell;
+    }
+
+    /**
+     * Batched version of {@link #findMostProbableCell(int[], double[], int, double)}. Instead of
+     * multiplying the reciprocals, the denominators ((cell distance - estimated distance)^2 + pdf
+     * sharpness) of a block of cells are multiplied beacon by beacon, and the cell with the smallest
+     * product is the most probable one. This avoids a division per beacon, at the cost of rounding
+     * differently: cells whose probabilities differ only in the last bits may be ordered
+     * differently than by the scalar search. Falls back to the scalar search without scratch space.
+     *
+     * @param denominators Scratch space, its length determines the number of cells per block
+     */
+    public int findMostProbableCell(int[] columns, double[] estimatedDistances, int beaconCount, double pdfSharpness,
+                                    double[] denominators) {
+        if (denominators == null || denominators.length == 0) {
+            return findMostProbableCell(columns, estimatedDistances, beaconCount, pdfSharpness);
+        }
+
+        double minDenominator = Double.POSITIVE_INFINITY;
+        int bestCell = -1;
+
+        for (int start = 0; start < mCellCount; start += denominators.length) {
+            int length = Math.min(denominators.length, mCellCount - start);
+            Arrays.fill(denominators, 0, length, 1);
+
+            for (int i = 0; i < beaconCount; i++) {
+                int offset = columns[i] * mCellCount + start;
+                double estimatedDistance = estimatedDistances[i];
+
+                for (int j = 0; j < length; j++) {
+                    double difference = mBeaconDistances[offset + j] - estimatedDistance;
+                    denominators[j] *= difference * difference + pdfSharpness;
+                }
+            }
+
+            for (int j = 0; j < length; j++) {
+                if (denominators[j] < minDenominator) {
+                    minDenominator = denominators[j];
+                    bestCell = start + j;
+                }
+            }
+        }
+
+        // Only happens if all products overflow, leave those cases to the scalar search
+        if (bestCell < 0 && mCellCount > 0) {
+            return findMostProbableCell(columns, estimatedDistances, beaconCount, pdfSharpness);
+        }
+
+        return bestCell;
+    }
+}
@@ -0,0 +1,40 @@
+package positioning;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Strategy used by the probability based positioning method to find the most probable position.
+ */
+public enum ProbabilitySearch {
+
+    // Evaluate every cell of the 20 cm grid
+    EXHAUSTIVE("exhaustive"),
+    // Evaluate every cell of the 20 cm grid in blocks of cells, which is faster, but may resolve
+    // near-ties differently than the exhaustive search (see ProbabilityGrid)
+    BATCHED("batched"),
+    // Evaluate a coarse grid, and refine the best cells down to a few centimeters
+    COARSE_TO_FINE("coarse_to_fine");
+
+    private final String name;
+    private static final Map<String, ProbabilitySearch> valuesByName;
+
+    static {
+        valuesByName = new HashMap<>(values().length);
+        for (ProbabilitySearch value : values()) {
+            valuesByName.put(value.name, value);
+        }
+    }
+
+    ProbabilitySearch(String name) {
+        this.name = name;
+    }
+
+    public static ProbabilitySearch getProbabilitySearch(String name) {
+        return valuesByName.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+}
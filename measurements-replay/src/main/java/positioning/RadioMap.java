@@ -0,0 +1,140 @@
+package positioning;
+
+import model.Beacon;
+import model.Coordinates;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Radio map of the fingerprinting method: reference points at known positions, each with the RSSI
+ * of every beacon as measured there. A fingerprint is a vector with one element per beacon of the
+ * map, beacons that were not detected get {@link #MISSING_RSSI}, so fingerprints with different
+ * sets of detected beacons can still be compared by their Euclidean distance. The reference points
+ * are indexed by a k-d tree, so the k nearest fingerprints are found without comparing against
+ * every reference point.
+ *
+ * A radio map is immutable, and can be shared freely between threads and sessions.
+ */
+public final class RadioMap {
+
+    // RSSI (in dBm) of beacons that were not detected, just below the weakest RSSI ever measured
+    public static final double MISSING_RSSI = -100;
+
+    // Number of nearest reference points that are averaged into a position
+    public static final int DEFAULT_NEIGHBOUR_COUNT = 4;
+
+    // Bluetooth address of the beacon of every column, in ascending order
+    private final long[] mBeaconAddresses;
+    private final double[] mX, mY;
+    private final KdTree mTree;
+
+    private RadioMap(long[] beaconAddresses, double[] x, double[] y, double[] fingerprints) {
+        mBeaconAddresses = beaconAddresses;
+        mX = x;
+        mY = y;
+        mTree = new KdTree(fingerprints, beaconAddresses.length);
+    }
+
+    /**
+     * @param positions Position of every reference point, in centimeters
+     * @param scans Beacons detected at every reference point, the RSSI of each beacon is its
+     *              fingerprint value
+     * @return Returns the radio map of the reference points, its beacons are all beacons detected at
+     * any reference point
+     */
+    public static RadioMap create(List<Coordinates> positions, List<List<Beacon>> scans) {
+        if (positions.size() != scans.size()) {
+            throw new IllegalArgumentException("Every reference point needs a single scan");
+        }
+
+        // Order the beacons by address, so the radio map does not depend on the order of the scans
+        TreeSet<Long> beaconAddressSet = new TreeSet<>();
+        for (List<Beacon> scan : scans) {
+            for (Beacon beacon : scan) {
+                long address = BeaconRegistry.parseAddress(beacon.getBluetoothAddress());
+                if (address < 0) {
+                    throw new IllegalArgumentException("Invalid beacon address " + beacon.getBluetoothAddress());
+                }
+
+                beaconAddressSet.add(address);
+            }
+        }
+
+        if (beaconAddressSet.isEmpty()) {
+            throw new IllegalArgumentException("A radio map needs at least one detected beacon");
+        }
+
+        long[] beaconAddresses = new long[beaconAddressSet.size()];
+        int column = 0;
+        for (long beaconAddress : beaconAddressSet) {
+            beaconAddresses[column++] = beaconAddress;
+        }
+
+        int beaconCount = beaconAddresses.length;
+        double[] x = new double[positions.size()];
+        double[] y = new double[positions.size()];
+        double[] fingerprints = new double[positions.size() * beaconCount];
+        for (int i = 0; i < positions.size(); i++) {
+            x[i] = positions.get(i).getX();
+            y[i] = positions.get(i).getY();
+
+            int offset = i * beaconCount;
+            Arrays.fill(fingerprints, offset, offset + beaconCount, MISSING_RSSI);
+            for (Beacon beacon : scans.get(i)) {
+                long address = BeaconRegistry.parseAddress(beacon.getBluetoothAddress());
+                fingerprints[offset + Arrays.binarySearch(beaconAddresses, address)] = beacon.getRssi();
+            }
+        }
+
+        return new RadioMap(beaconAddresses, x, y, fingerprints);
+    }
+
+    public int getReferencePointCount() {
+        return mTree.size();
+    }
+
+    public int getBeaconCount() {
+        return mTree.getDimension();
+    }
+
+    /**
+     * @param beaconAddress Bluetooth address as a 48-bit number (see {@link BeaconRegistry#parseAddress(String)})
+     * @return Returns the element of the beacon in a fingerprint, or -1 if the beacon is not part of
+     * the radio map
+     */
+    public int getBeaconColumn(long beaconAddress) {
+        int column = Arrays.binarySearch(mBeaconAddresses, beaconAddress);
+        return column < 0 ? -1 : column;
+    }
+
+    /**
+     * @param fingerprint RSSI of every beacon of the map (see {@link #getBeaconColumn(long)}), in
+     *                    dBm, or {@link #MISSING_RSSI} if the beacon was not detected
+     * @param k Number of reference points to find
+     * @param neighbours Receives the indices of the nearest reference points, nearest first, at
+     *                   least k elements long
+     * @param squaredDistances Receives the squared distances (in dBm squared) between the fingerprint
+     *                         and the nearest reference points, at least k elements long
+     * @return Returns the number of reference points found, k unless the map has fewer reference
+     * points
+     */
+    public int findNearest(double[] fingerprint, int k, int[] neighbours, double[] squaredDistances) {
+        return mTree.findNearest(fingerprint, k, neighbours, squaredDistances);
+    }
+
+    /**
+     * @return Returns the x coordinate of the reference point, in centimeters
+     */
+    public double getX(int referencePoint) {
+        return mX[referencePoint];
+    }
+
+    /**
+     * @return Returns the y coordinate of the reference point, in centimeters
+     */
+    public double getY(int referencePoint) {
+        return mY[referencePoint];
+    }
+}
@@ -0,0 +1,117 @@
+package positioning;
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity ring buffer of RSSI measurements. Once the buffer is full, adding a measurement
+ * overwrites the oldest one, so adding never allocates.
+ * <p>
+ * Running statistics can be tracked for the oldest measurements of the window (one per window
+ * size), and are kept up to date while measurements are added.
+ */
+public final class RssiWindow {
+
+    private final int[] mValues;
+    private int mStart, mSize;
+
+    // Tracked statistics, indexed by length (at most the capacity)
+    private final WindowStatistics[] mStatisticsByLength;
+    private WindowStatistics[] mStatistics = new WindowStatistics[0];
+
+    public RssiWindow(int capacity) {
+        mValues = new int[capacity];
+        mStatisticsByLength = new WindowStatistics[capacity + 1];
+    }
+
+    public void add(int rssi) {
+        if (mSize == mValues.length) {
+            // The oldest measurement leaves every window, and the next one enters it
+            int oldest = mValues[mStart];
+            for (WindowStatistics statistics : mStatistics) {
+                statistics.remove(oldest);
+                statistics.add(statistics.getLength() < mSize ? get(statistics.getLength()) : rssi);
+            }
+
+            // Drop the oldest measurement
+            mValues[mStart] = rssi;
+            mStart = mStart + 1 == mValues.length ? 0 : mStart + 1;
+            return;
+        }
+
+        for (WindowStatistics statistics : mStatistics) {
+            if (statistics.getLength() > mSize) {
+                statistics.add(rssi);
+            }
+        }
+
+        int end = mStart + mSize;
+        mValues[end < mValues.length ? end : end - mValues.length] = rssi;
+        mSize++;
+    }
+
+    /**
+     * @param index Index in the window, 0 is the oldest measurement
+     * @return Returns the measurement with the given index
+     */
+    public int get(int index) {
+        int position = mStart + index;
+        return mValues[position < mValues.length ? position : position - mValues.length];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int capacity() {
+        return mValues.length;
+    }
+
+    /**
+     * Starts tracking the statistics of the oldest {@code windowSize} measurements (or the whole
+     * window, if the window size exceeds the capacity).
+     *
+     * @param windowSize Window size
+     * @return Returns the tracked statistics
+     */
+    public WindowStatistics track(int windowSize) {
+        int length = Math.min(windowSize, mValues.length);
+
+        WindowStatistics statistics = mStatisticsByLength[length];
+        if (statistics != null) {
+            return statistics;
+        }
+
+        statistics = new WindowStatistics(this, length);
+        for (int i = 0; i < length && i < mSize; i++) {
+            statistics.add(get(i));
+        }
+
+        mStatisticsByLength[length] = statistics;
+        mStatistics = Arrays.copyOf(mStatistics, mStatistics.length + 1);
+        mStatistics[mStatistics.length - 1] = statistics;
+
+        return statistics;
+    }
+
+    /**
+     * @param windowSize Window size
+     * @return Returns the statistics of the oldest {@code windowSize} measurements, or null if they
+     * are not tracked
+     */
+    public WindowStatistics getStatistics(int windowSize) {
+        return mStatisticsByLength[Math.min(windowSize, mValues.length)];
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+
+        for (WindowStatistics statistics : mStatistics) {
+            statistics.clear();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package positioning;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A floor of a site, with everything the positioning methods need to know about it: the beacons
+ * installed at the site, the floor plan, and the probability grids derived from both. Building the
+ * grids is expensive, so all providers of a site should share a single instance.
+ *
+ * Sites bundled with the application are stored as sites/&lt;site&gt;/beacons.json (see
+ * {@link BeaconRegistry}) and sites/&lt;site&gt;/floor-&lt;floor&gt;.json (see {@link FloorPlan}), and
+ * are loaded only once.
+ *
+ * A site is immutable, and can be shared freely between threads and sessions.
+ */
+public final class Site {
+
+    // Site used by the singletons (getInstance) and the replay when no site is given
+    public static final String DEFAULT_NAME = "living-room";
+    public static final int DEFAULT_FLOOR = 0;
+
+    private static final Map<String, Site> bundledSites = new HashMap<>();
+
+    private final String mName;
+    private final int mFloor;
+    private final BeaconRegistry mBeaconRegistry;
+    private final FloorPlan mFloorPlan;
+
+    private final ProbabilityGrid mProbabilityGrid;
+    private final ProbabilityGrid mCoarseProbabilityGrid;
+
+    /**
+     * @param name Name of the site
+     * @param floor Floor number
+     * @param beaconRegistry Beacons of the site
+     * @param floorPlan Floor plan of the floor the beacons are on
+     */
+    public Site(String name, int floor, BeaconRegistry beaconRegistry, FloorPlan floorPlan) {
+        mName = name;
+        mFloor = floor;
+        mBeaconRegistry = beaconRegistry;
+        mFloorPlan = floorPlan;
+
+        mProbabilityGrid = ProbabilityGrid.create(beaconRegistry, floorPlan);
+        mCoarseProbabilityGrid = ProbabilityGrid.create(beaconRegistry, floorPlan,
+                CoarseToFineSearch.DEFAULT_COARSE_STEP_SIZE);
+    }
+
+    /**
+     * @param name Name of the site
+     * @param floor Floor number
+     * @return Returns the floor of the site bundled with the application
+     */
+    public static Site load(String name, int floor) throws IOException {
+        String key = name + "/" + floor;
+        synchronized (bundledSites) {
+            Site site = bundledSites.get(key);
+            if (site == null) {
+                site = new Site(name, floor, BeaconRegistry.loadSite(name), FloorPlan.loadSite(name, floor));
+                bundledSites.put(key, site);
+            }
+
+            return site;
+        }
+    }
+
+    /**
+     * @return Returns the default floor of the default site bundled with the application
+     */
+    public static Site getDefault() {
+        try {
+            return load(DEFAULT_NAME, DEFAULT_FLOOR);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the default site", e);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getFloor() {
+        return mFloor;
+    }
+
+    public BeaconRegistry getBeaconRegistry() {
+        return mBeaconRegistry;
+    }
+
+    public FloorPlan getFloorPlan() {
+        return mFloorPlan;
+    }
+
+    /**
+     * @return Returns the grid searched by the exhaustive probability search
+     */
+    public ProbabilityGrid getProbabilityGrid() {
+        return mProbabilityGrid;
+    }
+
+    /**
+     * @return Returns the grid of the first stage of the coarse-to-fine probability search
+     */
+    public ProbabilityGrid getCoarseProbabilityGrid() {
+        return mCoarseProbabilityGrid;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " (floor " + mFloor + ")";
+    }
+}
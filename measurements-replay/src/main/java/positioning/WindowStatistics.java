@@ -0,0 +1,182 @@
+package positioning;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics of the oldest {@code length} measurements in an {@link RssiWindow}. The
+ * statistics are updated in constant time whenever a measurement enters or leaves that part of the
+ * window: the sum and sum of squares are kept exactly, and a counting histogram over the RSSI range
+ * is used for the median and mode.
+ */
+public final class WindowStatistics {
+
+    // RSSI values are signed bytes
+    private static final int MIN_RSSI = -128;
+    private static final int RSSI_RANGE = 256;
+
+    private final RssiWindow mWindow;
+    private final int mLength;
+
+    private final int[] mHistogram = new int[RSSI_RANGE];
+
+    // Number of distinct values per frequency, used to maintain the maximum frequency
+    private final int[] mCountOfCounts;
+
+    private int mCount, mMaxCount;
+    private long mSum, mSumOfSquares;
+
+    // Range of histogram bins that have been used, the median only walks this range
+    private int mLowestBin = RSSI_RANGE, mHighestBin = -1;
+
+    WindowStatistics(RssiWindow window, int length) {
+        mWindow = window;
+        mLength = length;
+        mCountOfCounts = new int[length + 1];
+    }
+
+    private static int getBin(int rssi) {
+        return Math.min(Math.max(rssi - MIN_RSSI, 0), RSSI_RANGE - 1);
+    }
+
+    void add(int rssi) {
+        int bin = getBin(rssi);
+        int frequency = mHistogram[bin]++;
+        if (frequency > 0) {
+            mCountOfCounts[frequency]--;
+        }
+        mCountOfCounts[frequency + 1]++;
+        if (frequency + 1 > mMaxCount) {
+            mMaxCount = frequency + 1;
+        }
+
+        if (bin < mLowestBin) {
+            mLowestBin = bin;
+        }
+        if (bin > mHighestBin) {
+            mHighestBin = bin;
+        }
+
+        mCount++;
+        mSum += rssi;
+        mSumOfSquares += (long) rssi * rssi;
+    }
+
+    void remove(int rssi) {
+        int bin = getBin(rssi);
+        int frequency = mHistogram[bin]--;
+        mCountOfCounts[frequency]--;
+        if (frequency > 1) {
+            mCountOfCounts[frequency - 1]++;
+        }
+        if (frequency == mMaxCount && mCountOfCounts[frequency] == 0) {
+            mMaxCount--;
+        }
+
+        mCount--;
+        mSum -= rssi;
+        mSumOfSquares -= (long) rssi * rssi;
+    }
+
+    void clear() {
+        Arrays.fill(mHistogram, 0);
+        Arrays.fill(mCountOfCounts, 0);
+        mCount = 0;
+        mMaxCount = 0;
+        mSum = 0;
+        mSumOfSquares = 0;
+        mLowestBin = RSSI_RANGE;
+        mHighestBin = -1;
+    }
+
+    /**
+     * @return Returns the number of oldest measurements covered by these statistics
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return Returns the number of measurements currently covered, at most the length
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getSum() {
+        return mSum;
+    }
+
+    public long getSumOfSquares() {
+        return mSumOfSquares;
+    }
+
+    /**
+     * @return Returns the number of occurrences of the most frequent value
+     */
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    public double getMedian() {
+        if (mCount == 0) {
+            return 0.0;
+        }
+
+        int middle = mCount / 2;
+        if (mCount % 2 == 0) {
+            return (getRankedValue(middle - 1) + getRankedValue(middle)) / 2.0;
+        }
+
+        return getRankedValue(middle);
+    }
+
+    // Returns the value with the given rank, 0 is the smallest value
+    private int getRankedValue(int rank) {
+        int seen = 0;
+        for (int bin = mLowestBin; bin <= mHighestBin; bin++) {
+            seen += mHistogram[bin];
+            if (seen > rank) {
+                return bin + MIN_RSSI;
+            }
+        }
+
+        return mHighestBin + MIN_RSSI;
+    }
+
+    /**
+     * @return Returns the most frequent value. If several values occur equally often, the value that
+     * reaches that frequency first (from oldest to newest) is returned
+     */
+    public int getMode() {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        if (mCountOfCounts[mMaxCount] == 1) {
+            // Unique mode, find the value with the maximum frequency
+            for (int i = 0; i < mCount; i++) {
+                int rssi = mWindow.get(i);
+                if (mHistogram[getBin(rssi)] == mMaxCount) {
+                    return rssi;
+                }
+            }
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            int rssi = mWindow.get(i);
+
+            int count = 0;
+            for (int j = 0; j <= i; j++) {
+                if (mWindow.get(j) == rssi) {
+                    count++;
+                }
+            }
+
+            if (count == mMaxCount) {
+                return rssi;
+            }
+        }
+
+        return mWindow.get(0);
+    }
+}
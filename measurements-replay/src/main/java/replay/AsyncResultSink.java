@@ -0,0 +1,113 @@
+package replay;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards replayed traces to another sink on a background thread, so writing the results of one
+ * trace overlaps with replaying the next one. At most a bounded number of writes is buffered; when
+ * the buffer is full the caller blocks until the writer catches up. Replayed traces may be written
+ * from several threads at once, the underlying sink is only called from the writer thread.
+ * <p>
+ * Any failure of the underlying sink (including runtime exceptions) stops the writer, and is
+ * rethrown by the next call. Callers never block on a writer that has stopped.
+ */
+public class AsyncResultSink implements ResultSink {
+
+    private static final Write END_OF_STREAM = () -> {
+    };
+
+    // Interval at which blocked callers check whether the writer is still running
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final ResultSink sink;
+    private final BlockingQueue<Write> queue;
+    private final Thread writer;
+
+    private volatile Throwable failure;
+
+    public AsyncResultSink(ResultSink sink, int capacity) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        writer = new Thread(this::run, "result-sink-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Write write = queue.take();
+                if (write == END_OF_STREAM) {
+                    return;
+                }
+
+                write.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    private void submit(Write write) throws IOException {
+        checkFailure();
+
+        try {
+            while (!queue.offer(write, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the result writer", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing replayed traces failed", failure);
+        }
+
+        if (!writer.isAlive()) {
+            throw new IOException("The result writer has stopped");
+        }
+    }
+
+    @Override
+    public void write(ReplaySession session, ReplayedTrace replayedTrace) throws IOException {
+        submit(() -> sink.write(session, replayedTrace));
+    }
+
+    @Override
+    public void endSession(ReplaySession session) throws IOException {
+        submit(() -> sink.endSession(session));
+    }
+
+    /**
+     * Waits until all buffered writes are completed, and closes the underlying sink.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            submit(END_OF_STREAM);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the result writer", e);
+        } finally {
+            sink.close();
+        }
+
+        if (failure != null) {
+            throw new IOException("Writing replayed traces failed", failure);
+        }
+    }
+}
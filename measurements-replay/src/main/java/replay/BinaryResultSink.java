@@ -0,0 +1,110 @@
+package replay;
+
+import model.Coordinates;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes all replayed traces of a session to a single binary file (replayed-traces/traceN.bin).
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header  magic, version, positioning count, positioning timestamps (long, epoch milliseconds)
+ * traces  combination id (int), parameters (modified UTF-8, as Parameters.toFileName()),
+ *         position count (int), x coordinates, y coordinates, confidences (double columns)
+ * end     -1 (int)
+ * </pre>
+ * Traces are stored in the order in which they are written. The i-th position of every trace
+ * belongs to the i-th positioning timestamp.
+ */
+public class BinaryResultSink implements ResultSink {
+
+    public static final int MAGIC = 0x49505352;
+    public static final int VERSION = 1;
+
+    private final Path outputDirectory;
+    private final Map<ReplaySession, DataOutputStream> outputs = new HashMap<>();
+
+    public BinaryResultSink(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    @Override
+    public void write(ReplaySession session, ReplayedTrace replayedTrace) throws IOException {
+        DataOutputStream output = outputs.get(session);
+        if (output == null) {
+            output = open(session);
+            outputs.put(session, output);
+        }
+
+        List<Coordinates> positions = replayedTrace.getPositions();
+        output.writeInt(replayedTrace.getCombinationId());
+        output.writeUTF(replayedTrace.getParameters().toFileName());
+        output.writeInt(positions.size());
+        for (Coordinates coordinates : positions) {
+            output.writeDouble(coordinates.getX());
+        }
+        for (Coordinates coordinates : positions) {
+            output.writeDouble(coordinates.getY());
+        }
+        for (Coordinates coordinates : positions) {
+            output.writeDouble(coordinates.getConfidence());
+        }
+    }
+
+    private DataOutputStream open(ReplaySession session) throws IOException {
+        Files.createDirectories(outputDirectory);
+
+        Path file = outputDirectory.resolve(session.getTraceName() + ".bin");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+
+        long[] positioningTimestamps = session.getTraceData().getPositioningTimestamps();
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(positioningTimestamps.length);
+        for (long timestamp : positioningTimestamps) {
+            output.writeLong(timestamp);
+        }
+
+        return output;
+    }
+
+    @Override
+    public void endSession(ReplaySession session) throws IOException {
+        DataOutputStream output = outputs.remove(session);
+        if (output == null) {
+            // No positions were estimated, still write an empty file
+            output = open(session);
+        }
+
+        try {
+            output.writeInt(-1);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (DataOutputStream output : outputs.values()) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        outputs.clear();
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package replay;
+
+/**
+ * Checkpoint timestamps recorded while walking a trace, in chronological order. Checkpoint numbers
+ * start at 1 and refer to the ground truth coordinates of the trace.
+ */
+public class Checkpoints {
+
+    private final long[] timestamps;
+    private final int[] checkpoints;
+
+    public Checkpoints(long[] timestamps, int[] checkpoints) {
+        this.timestamps = timestamps;
+        this.checkpoints = checkpoints;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int getCheckpoint(int index) {
+        return checkpoints[index];
+    }
+}
@@ -0,0 +1,108 @@
+package replay;
+
+/**
+ * Streaming summary of positioning errors. The mean and root mean square error are exact, the
+ * median and other percentiles are estimated from a histogram with 1 cm bins (the estimate is off by
+ * at most half a bin).
+ */
+public class ErrorAccumulator {
+
+    // Bin width in meters
+    private static final double BIN_WIDTH = 0.01;
+
+    // Errors larger than the last bin (30 m) are counted in the last bin
+    private static final int BIN_COUNT = 3000;
+
+    private final int[] histogram = new int[BIN_COUNT];
+    private int count;
+    private double sum, sumOfSquares;
+
+    /**
+     * @param error Positioning error in meters
+     */
+    public void add(double error) {
+        int bin = (int) (error / BIN_WIDTH);
+        histogram[Math.min(Math.max(bin, 0), BIN_COUNT - 1)]++;
+
+        count++;
+        sum += error;
+        sumOfSquares += error * error;
+    }
+
+    public void merge(ErrorAccumulator other) {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            histogram[i] += other.histogram[i];
+        }
+
+        count += other.count;
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMeanError() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double getRmsError() {
+        return count == 0 ? Double.NaN : Math.sqrt(sumOfSquares / count);
+    }
+
+    public double getMedianError() {
+        return getPercentileError(50);
+    }
+
+    /**
+     * @param percentile Percentile in the range [0, 100]
+     * @return Returns the estimated percentile, interpolated linearly between the closest ranks (like
+     * numpy.percentile)
+     */
+    public double getPercentileError(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double rank = percentile / 100 * (count - 1);
+        int lowerRank = (int) Math.floor(rank);
+        int upperRank = Math.min(lowerRank + 1, count - 1);
+
+        double lower = getRankedError(lowerRank);
+        double upper = getRankedError(upperRank);
+
+        return lower + (rank - lowerRank) * (upper - lower);
+    }
+
+    /**
+     * @param error Error in meters
+     * @return Returns the fraction of errors smaller than the given error (cumulative distribution)
+     */
+    public double getCumulativeFraction(double error) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        int bins = Math.min((int) (error / BIN_WIDTH), BIN_COUNT);
+        int below = 0;
+        for (int i = 0; i < bins; i++) {
+            below += histogram[i];
+        }
+
+        return (double) below / count;
+    }
+
+    // Returns the center of the bin containing the error with the given rank (0 is the smallest error)
+    private double getRankedError(int rank) {
+        int seen = 0;
+        for (int i = 0; i < BIN_COUNT; i++) {
+            seen += histogram[i];
+            if (seen > rank) {
+                return (i + 0.5) * BIN_WIDTH;
+            }
+        }
+
+        return BIN_COUNT * BIN_WIDTH;
+    }
+}
@@ -0,0 +1,34 @@
+package replay;
+
+import model.Parameters;
+
+/**
+ * Positioning errors of a single parameter combination, accumulated while replaying a trace.
+ */
+public class EvaluationResult {
+
+    private final int combinationId;
+    private final Parameters parameters;
+    private final ErrorAccumulator errors;
+
+    public EvaluationResult(int combinationId, Parameters parameters, ErrorAccumulator errors) {
+        this.combinationId = combinationId;
+        this.parameters = parameters;
+        this.errors = errors;
+    }
+
+    /**
+     * @return Returns the index of the parameter combination in the enumeration order of the sweep
+     */
+    public int getCombinationId() {
+        return combinationId;
+    }
+
+    public Parameters getParameters() {
+        return parameters;
+    }
+
+    public ErrorAccumulator getErrors() {
+        return errors;
+    }
+}
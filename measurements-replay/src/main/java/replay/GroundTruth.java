@@ -0,0 +1,114 @@
+package replay;
+
+import model.Coordinates;
+
+/**
+ * Ground truth of a trace at a sequence of timestamps, usually the scans of a session. The path
+ * between two consecutive checkpoints is assumed to be walked at a constant speed, so the ground
+ * truth is interpolated linearly between the coordinates of the checkpoints (as in
+ * plotting/trace.py).
+ */
+public class GroundTruth {
+
+    // Coordinates of the checkpoints walked in every trace (living room floor plan)
+    public static final Coordinates[] LIVING_ROOM_CHECKPOINTS = {
+            new Coordinates(180, 430), new Coordinates(390, 340), new Coordinates(575, 340),
+            new Coordinates(750, 430), new Coordinates(880, 480), new Coordinates(1080, 480),
+            new Coordinates(1080, 300), new Coordinates(870, 300), new Coordinates(870, 120)
+    };
+
+    private final double[] x;
+    private final double[] y;
+    private final boolean[] available;
+
+    private GroundTruth(double[] x, double[] y, boolean[] available) {
+        this.x = x;
+        this.y = y;
+        this.available = available;
+    }
+
+    /**
+     * @param checkpointCoordinates Coordinates of the i-th checkpoint, in centimeters
+     * @return Returns the ground truth at every scan of the session, the index of a position is the
+     * index of the scan it was estimated from
+     */
+    public static GroundTruth atScans(Coordinates[] checkpointCoordinates, ReplaySession session) {
+        return interpolate(checkpointCoordinates, session.getTraceData().getCheckpoints(),
+                session.getScanTimestamps());
+    }
+
+    /**
+     * @param checkpointCoordinates Coordinates of the i-th checkpoint, in centimeters
+     * @param checkpoints Timestamps at which the checkpoints were passed
+     * @param timestamps Timestamps to interpolate at, in chronological order (-1 if unknown)
+     * @return Returns the ground truth at every timestamp, timestamps outside of the checkpoint
+     * timestamps have no ground truth
+     */
+    public static GroundTruth interpolate(Coordinates[] checkpointCoordinates, Checkpoints checkpoints,
+                                          long[] timestamps) {
+        double[] x = new double[timestamps.length];
+        double[] y = new double[timestamps.length];
+        boolean[] available = new boolean[timestamps.length];
+
+        int checkpointCount = Math.min(checkpointCoordinates.length, checkpoints.size());
+        int segment = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            long timestamp = timestamps[i];
+
+            // Find the pair of checkpoints the timestamp falls between
+            while (segment < checkpointCount - 1 && timestamp > checkpoints.getTimestamp(segment + 1)) {
+                segment++;
+            }
+
+            if (segment >= checkpointCount - 1 || timestamp < checkpoints.getTimestamp(segment)) {
+                continue;
+            }
+
+            Coordinates checkpoint1 = checkpointCoordinates[segment];
+            Coordinates checkpoint2 = checkpointCoordinates[segment + 1];
+            long startTime = checkpoints.getTimestamp(segment);
+            long stopTime = checkpoints.getTimestamp(segment + 1);
+
+            // Interpolating assumes that the walking speed is constant
+            double dt = stopTime == startTime ? 0 : (double) (timestamp - startTime) / (stopTime - startTime);
+            x[i] = dt * (checkpoint2.getX() - checkpoint1.getX()) + checkpoint1.getX();
+            y[i] = dt * (checkpoint2.getY() - checkpoint1.getY()) + checkpoint1.getY();
+            available[i] = true;
+        }
+
+        return new GroundTruth(x, y, available);
+    }
+
+    public int size() {
+        return available.length;
+    }
+
+    /**
+     * @param index Index of the timestamp (the scan)
+     * @return Returns whether the ground truth is known at the timestamp with the given index
+     */
+    public boolean isAvailable(int index) {
+        return index < available.length && available[index];
+    }
+
+    /**
+     * @param index Index of the timestamp (the scan)
+     * @return Returns the ground truth at the timestamp with the given index, in centimeters
+     */
+    public Coordinates getPosition(int index) {
+        return new Coordinates(x[index], y[index]);
+    }
+
+    /**
+     * @param index Index of the timestamp (the scan) the position was estimated at
+     * @param position Estimated position, in centimeters
+     * @return Returns the Euclidean distance between the estimated position and the ground truth, in
+     * meters
+     */
+    public double getError(int index, Coordinates position) {
+        double dx = position.getX() - x[index];
+        double dy = position.getY() - y[index];
+
+        return Math.sqrt(dx * dx + dy * dy) / 100;
+    }
+}
@@ -0,0 +1,70 @@
+package replay;
+
+import model.Coordinates;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes every replayed trace to a separate JSON file, named after its parameters
+ * (replayed-traces/traceN/windowSize=..._pdfSharpness=....json). This is the layout read by the
+ * plotting scripts.
+ */
+public class JsonResultSink implements ResultSink {
+
+    private final Path outputDirectory;
+
+    public JsonResultSink(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    @Override
+    public void write(ReplaySession session, ReplayedTrace replayedTrace) throws IOException {
+        Path traceDirectory = outputDirectory.resolve(session.getTraceName());
+        Files.createDirectories(traceDirectory);
+
+        Path file = traceDirectory.resolve(replayedTrace.getParameters().toFileName() + ".json");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            JSONArray traceJson = new JSONArray();
+
+            List<Coordinates> positions = replayedTrace.getPositions();
+            for (int i = 0; i < positions.size(); i++) {
+                JSONObject coordinatesJson = coordinatesToJson(positions.get(i));
+
+                // Add positioning timestamps (used for ground truth interpolation). Positions beyond
+                // the recorded timestamps have no time
+                if (i < session.getPositioningCount()) {
+                    coordinatesJson.put("time", session.getPositioningTimestamp(i));
+                }
+
+                traceJson.add(coordinatesJson);
+            }
+
+            writer.write(traceJson.toJSONString());
+        }
+    }
+
+    @Override
+    public void endSession(ReplaySession session) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static JSONObject coordinatesToJson(Coordinates coordinates) {
+        JSONObject jsonObject = new JSONObject();
+
+        jsonObject.put("x", coordinates.getX());
+        jsonObject.put("y", coordinates.getY());
+        jsonObject.put("confidence", coordinates.getConfidence());
+
+        return jsonObject;
+    }
+}
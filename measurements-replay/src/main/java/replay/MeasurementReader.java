@@ -0,0 +1,184 @@
+package replay;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader for exported measurements (measurements.json). Records are decoded one at a
+ * time into primitive columns, timestamps are parsed exactly once, and the result is ordered by
+ * timestamp. Measurements with equal timestamps keep their order in the file.
+ */
+public class MeasurementReader implements ContentHandler {
+
+    private static final String BEACON_ADDRESS_KEY = "beacon_address";
+    private static final String RSSI_KEY = "rssi";
+    private static final String CHANNEL_KEY = "channel";
+
+    private final Map<String, Integer> beaconIds = new HashMap<>();
+    private final List<String> beaconAddresses = new ArrayList<>();
+
+    private long[] timestamps = new long[256];
+    private int[] ids = new int[256];
+    private int[] rssiValues = new int[256];
+    private int[] channels = new int[256];
+    private int size;
+
+    // State of the record that is currently being parsed
+    private int depth;
+    private String key;
+    private String beaconAddress;
+    private String timestamp;
+    private int rssi, channel;
+
+    private MeasurementReader() {
+    }
+
+    public static MeasurementTable read(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            MeasurementReader measurementReader = new MeasurementReader();
+            new JSONParser().parse(reader, measurementReader);
+
+            return measurementReader.toTable();
+        } catch (ParseException e) {
+            throw new IOException("Invalid measurements file " + path + ": " + e, e);
+        }
+    }
+
+    private MeasurementTable toTable() {
+        int[] order = Timestamps.sortedOrder(timestamps, size);
+
+        long[] sortedTimestamps = new long[size];
+        int[] sortedIds = new int[size];
+        byte[] sortedRssiValues = new byte[size];
+        byte[] sortedChannels = new byte[size];
+        for (int i = 0; i < size; i++) {
+            sortedTimestamps[i] = timestamps[order[i]];
+            sortedIds[i] = ids[order[i]];
+            sortedRssiValues[i] = (byte) rssiValues[order[i]];
+            sortedChannels[i] = (byte) channels[order[i]];
+        }
+
+        return new MeasurementTable(LongBuffer.wrap(sortedTimestamps), IntBuffer.wrap(sortedIds),
+                ByteBuffer.wrap(sortedRssiValues), ByteBuffer.wrap(sortedChannels),
+                beaconAddresses.toArray(new String[0]));
+    }
+
+    private void addRecord() throws ParseException {
+        if (beaconAddress == null || timestamp == null) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Incomplete measurement record");
+        }
+
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            rssiValues = Arrays.copyOf(rssiValues, capacity);
+            channels = Arrays.copyOf(channels, capacity);
+        }
+
+        Integer beaconId = beaconIds.get(beaconAddress);
+        if (beaconId == null) {
+            beaconId = beaconAddresses.size();
+            beaconIds.put(beaconAddress, beaconId);
+            beaconAddresses.add(beaconAddress);
+        }
+
+        timestamps[size] = Timestamps.parse(timestamp);
+        ids[size] = beaconId;
+        rssiValues[size] = rssi;
+        channels[size] = channel;
+        size++;
+    }
+
+    @Override
+    public void startJSON() {
+    }
+
+    @Override
+    public void endJSON() {
+    }
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        if (depth == 1) {
+            beaconAddress = null;
+            timestamp = null;
+            rssi = 0;
+            channel = -1;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean endObject() throws ParseException {
+        if (depth == 1) {
+            addRecord();
+        }
+
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        this.key = key;
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        key = null;
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (depth != 1 || key == null || value == null) {
+            return true;
+        }
+
+        switch (key) {
+            case BEACON_ADDRESS_KEY:
+                beaconAddress = (String) value;
+                break;
+            case Timestamps.TIMESTAMP_KEY:
+                timestamp = (String) value;
+                break;
+            case RSSI_KEY:
+                rssi = ((Number) value).intValue();
+                break;
+            case CHANNEL_KEY:
+                channel = ((Number) value).intValue();
+                break;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package replay;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Column-oriented, chronologically ordered table of recorded RSSI measurements. Beacon addresses
+ * are stored once and referenced by a dense id per table. RSSI values and channels are stored as
+ * bytes. The columns are either backed by arrays or by a memory-mapped trace cache file.
+ */
+public class MeasurementTable {
+
+    private final LongBuffer timestamps;
+    private final IntBuffer beaconIds;
+    private final ByteBuffer rssiValues;
+    private final ByteBuffer channels;
+    private final String[] beaconAddresses;
+
+    MeasurementTable(LongBuffer timestamps, IntBuffer beaconIds, ByteBuffer rssiValues, ByteBuffer channels,
+                     String[] beaconAddresses) {
+        this.timestamps = timestamps;
+        this.beaconIds = beaconIds;
+        this.rssiValues = rssiValues;
+        this.channels = channels;
+        this.beaconAddresses = beaconAddresses;
+    }
+
+    public int size() {
+        return timestamps.limit();
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps.get(index);
+    }
+
+    public int getBeaconId(int index) {
+        return beaconIds.get(index);
+    }
+
+    public String getBeaconAddress(int index) {
+        return beaconAddresses[beaconIds.get(index)];
+    }
+
+    public int getRssi(int index) {
+        return rssiValues.get(index);
+    }
+
+    /**
+     * @return Returns the advertising channel of the measurement, or -1 if it was not recorded
+     */
+    public int getChannel(int index) {
+        return channels.get(index);
+    }
+
+    public int getBeaconCount() {
+        return beaconAddresses.length;
+    }
+
+    public String getBeaconAddressById(int beaconId) {
+        return beaconAddresses[beaconId];
+    }
+
+    // Column views used to write the trace cache, positioned at the first measurement
+    LongBuffer getTimestamps() {
+        return timestamps.duplicate();
+    }
+
+    IntBuffer getBeaconIds() {
+        return beaconIds.duplicate();
+    }
+
+    ByteBuffer getRssiValues() {
+        return rssiValues.duplicate();
+    }
+
+    ByteBuffer getChannels() {
+        return channels.duplicate();
+    }
+}
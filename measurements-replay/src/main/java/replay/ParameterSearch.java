@@ -0,0 +1,241 @@
+package replay;
+
+import positioning.RadioMap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Searches the parameter space for the combinations with the smallest mean error, without
+ * replaying every combination on every trace (successive halving). All candidates are evaluated on
+ * a few traces first, only the best 1/reduction factor of them are promoted to the next rung, which
+ * evaluates them on reduction factor times as many traces, until the last rung evaluates the
+ * remaining candidates on all traces. Errors are accumulated over the traces of all rungs, so
+ * promoted candidates are never replayed twice on the same trace.
+ *
+ * Candidates are either all combinations, or a random or Latin hypercube sample of them.
+ */
+public class ParameterSearch {
+
+    private final ParameterSweep parameterSweep;
+    private final int reductionFactor;
+    private final Random random;
+
+    // Number of replays (combinations times traces) of the last search
+    private long replayCount;
+
+    /**
+     * @param reductionFactor Fraction (1/reduction factor) of the candidates that is promoted to the
+     *                        next rung, and factor by which the number of traces grows, at least 2
+     * @param seed Seed of the samplers
+     */
+    public ParameterSearch(ParameterSweep parameterSweep, int reductionFactor, long seed) {
+        if (reductionFactor < 2) {
+            throw new IllegalArgumentException("The reduction factor should be at least 2");
+        }
+
+        this.parameterSweep = parameterSweep;
+        this.reductionFactor = reductionFactor;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return Returns the ids of all parameter combinations
+     */
+    public BitSet getAllCombinations() {
+        BitSet combinationIds = new BitSet();
+        combinationIds.set(0, parameterSweep.getCombinationCount());
+        return combinationIds;
+    }
+
+    /**
+     * @param sampleSize Number of combinations to sample
+     * @return Returns the ids of the given number of combinations sampled uniformly without
+     * replacement, or all combinations if there are not that many
+     */
+    public BitSet sampleRandom(int sampleSize) {
+        int combinationCount = parameterSweep.getCombinationCount();
+        if (sampleSize >= combinationCount) {
+            return getAllCombinations();
+        }
+
+        // Floyd's algorithm, every subset of the sample size is equally likely
+        BitSet combinationIds = new BitSet(combinationCount);
+        for (int i = combinationCount - sampleSize; i < combinationCount; i++) {
+            int id = random.nextInt(i + 1);
+            combinationIds.set(combinationIds.get(id) ? i : id);
+        }
+
+        return combinationIds;
+    }
+
+    /**
+     * Samples the two axes of the parameter space, the distance parameter sets and the positioning
+     * parameter sets (both in the order of the sweep configuration), as a Latin hypercube: both
+     * axes are divided into as many strata as there are samples, and every stratum of either axis
+     * is sampled exactly once. Window sizes, distance models, and positioning methods are covered
+     * evenly, which random samples of the same size do not guarantee.
+     *
+     * @param sampleSize Number of combinations to sample
+     * @return Returns the ids of the sampled combinations. Strata that are smaller than a parameter
+     * set can sample the same combination twice, so there can be fewer ids than the sample size
+     */
+    public BitSet sampleLatinHypercube(int sampleSize) {
+        ParameterSpace parameterSpace = parameterSweep.getParameterSpace();
+        if (sampleSize >= parameterSpace.size()) {
+            return getAllCombinations();
+        }
+
+        int distanceCount = parameterSpace.getDistanceCount();
+        int positioningCount = parameterSpace.getPositioningCount();
+
+        // The i-th distance stratum is paired with a random positioning stratum
+        int[] positioningStrata = new int[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            int j = random.nextInt(i + 1);
+            positioningStrata[i] = positioningStrata[j];
+            positioningStrata[j] = i;
+        }
+
+        BitSet combinationIds = new BitSet(parameterSpace.size());
+        for (int i = 0; i < sampleSize; i++) {
+            int distanceIndex = (int) ((i + random.nextDouble()) * distanceCount / sampleSize);
+            int positioningIndex = (int) ((positioningStrata[i] + random.nextDouble()) * positioningCount / sampleSize);
+            combinationIds.set(parameterSpace.getId(Math.min(distanceIndex, distanceCount - 1),
+                    Math.min(positioningIndex, positioningCount - 1)));
+        }
+
+        return combinationIds;
+    }
+
+    /**
+     * @param traces Traces to evaluate the candidates on. The first rungs only use the first traces,
+     *               so they should not be ordered by difficulty
+     * @param candidates Ids of the parameter combinations to search
+     * @return Returns the errors of the candidates of the last rung over all traces, ordered by mean
+     * error (combinations without positions last)
+     */
+    public List<EvaluationResult> search(List<Trace> traces, BitSet candidates) {
+        replayCount = 0;
+
+        EvaluationResult[] results = new EvaluationResult[parameterSweep.getCombinationCount()];
+        BitSet survivors = (BitSet) candidates.clone();
+        int evaluatedTraces = 0;
+        for (int rungTraces : getRungTraceCounts(traces.size())) {
+            if (evaluatedTraces > 0) {
+                survivors = promote(survivors, results);
+            }
+
+            for (; evaluatedTraces < rungTraces; evaluatedTraces++) {
+                Trace trace = traces.get(evaluatedTraces);
+                List<EvaluationResult> traceResults = parameterSweep.evaluate(trace.getSession(),
+                        trace.getGroundTruth(), trace.getRadioMap(), survivors);
+
+                for (EvaluationResult result : traceResults) {
+                    EvaluationResult previous = results[result.getCombinationId()];
+                    if (previous == null) {
+                        results[result.getCombinationId()] = result;
+                    } else {
+                        previous.getErrors().merge(result.getErrors());
+                    }
+                }
+
+                replayCount += survivors.cardinality();
+            }
+        }
+
+        List<EvaluationResult> ranking = new ArrayList<>();
+        for (int id = survivors.nextSetBit(0); id >= 0; id = survivors.nextSetBit(id + 1)) {
+            if (results[id] != null) {
+                ranking.add(results[id]);
+            }
+        }
+
+        ranking.sort(Comparator.comparingDouble(result -> result.getErrors().getMeanError()));
+        return ranking;
+    }
+
+    /**
+     * @return Returns the number of replays (combinations times traces) of the last search, an
+     * exhaustive sweep needs the number of combinations times the number of traces
+     */
+    public long getReplayCount() {
+        return replayCount;
+    }
+
+    /**
+     * @return Returns the number of traces every rung is evaluated on, in ascending order. The last
+     * rung uses all traces, every rung before it 1/reduction factor as many (but at least one)
+     */
+    private List<Integer> getRungTraceCounts(int traceCount) {
+        List<Integer> rungTraceCounts = new ArrayList<>();
+        for (int traces = traceCount; traces > 0; traces /= reductionFactor) {
+            rungTraceCounts.add(0, traces);
+        }
+
+        return rungTraceCounts;
+    }
+
+    /**
+     * @return Returns the best 1/reduction factor of the survivors by mean error so far (at least
+     * one). Ties are resolved in enumeration order, combinations without positions come last
+     */
+    private BitSet promote(BitSet survivors, EvaluationResult[] results) {
+        List<Integer> ranking = new ArrayList<>();
+        for (int id = survivors.nextSetBit(0); id >= 0; id = survivors.nextSetBit(id + 1)) {
+            ranking.add(id);
+        }
+
+        ranking.sort(Comparator.comparingDouble(id -> results[id] == null ? Double.NaN
+                : results[id].getErrors().getMeanError()));
+
+        BitSet promoted = new BitSet(results.length);
+        int promotedCount = Math.max(1, ranking.size() / reductionFactor);
+        for (int i = 0; i < ranking.size(); i++) {
+            if (i < promotedCount) {
+                promoted.set(ranking.get(i));
+            } else {
+                // Drop the accumulated errors of pruned combinations
+                results[ranking.get(i)] = null;
+            }
+        }
+
+        return promoted;
+    }
+
+    /**
+     * Trace to evaluate candidates on, with the ground truth and radio map it is evaluated with.
+     */
+    public static class Trace {
+
+        private final ReplaySession session;
+        private final GroundTruth groundTruth;
+        private final RadioMap radioMap;
+
+        /**
+         * @param groundTruth Ground truth at the scans of the session (see {@link GroundTruth#atScans})
+         * @param radioMap    Radio map of the fingerprinting method, or null if there is none. It should
+         *                    not contain reference points of the session itself
+         */
+        public Trace(ReplaySession session, GroundTruth groundTruth, RadioMap radioMap) {
+            this.session = session;
+            this.groundTruth = groundTruth;
+            this.radioMap = radioMap;
+        }
+
+        public ReplaySession getSession() {
+            return session;
+        }
+
+        public GroundTruth getGroundTruth() {
+            return groundTruth;
+        }
+
+        public RadioMap getRadioMap() {
+            return radioMap;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package replay;
+
+import model.Parameters;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import positioning.DistanceMethod;
+import positioning.DistanceModel;
+import positioning.PositioningMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All parameter combinations of a sweep, enumerated up front. A combination is the product of a
+ * distance parameter set (window size, distance method, distance model and path loss exponent) and
+ * a positioning parameter set (positioning method, weight exponent, pdf sharpness and smoothing),
+ * and is identified by a dense id: distance index * number of positioning sets + positioning index.
+ * Results can therefore be stored in arrays indexed by id, and a combination is only decoded into
+ * {@link Parameters} (e.g. for its file name) when it is reported.
+ *
+ * The values of every parameter are stored per set in primitive arrays. A parameter space is
+ * immutable, and can be shared freely between threads.
+ */
+public final class ParameterSpace {
+
+    private static final String DEFAULT_RESOURCE = "/sweep.json";
+
+    // Value of the parameters that are not used by a distance model or positioning method
+    private static final double UNUSED = -1;
+
+    // Distance parameter sets
+    private final int mDistanceCount;
+    private final int[] mWindowSizes;
+    private final DistanceMethod[] mDistanceMethods;
+    private final DistanceModel[] mDistanceModels;
+    private final double[] mPathLossExponents;
+
+    // Positioning parameter sets
+    private final int mPositioningCount;
+    private final PositioningMethod[] mPositioningMethods;
+    private final double[] mWeightExponents;
+    private final double[] mPdfSharpnesses;
+    private final boolean[] mSmoothing;
+
+    /**
+     * @param distanceParameters Distance parameter sets, only their distance parameters are used
+     * @param positioningParameters Positioning parameter sets, only their positioning parameters are
+     *                              used
+     */
+    public ParameterSpace(List<Parameters> distanceParameters, List<Parameters> positioningParameters) {
+        if (distanceParameters.isEmpty() || positioningParameters.isEmpty()) {
+            throw new IllegalArgumentException("A parameter space needs at least one combination");
+        }
+
+        if ((long) distanceParameters.size() * positioningParameters.size() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many parameter combinations");
+        }
+
+        mDistanceCount = distanceParameters.size();
+        mWindowSizes = new int[mDistanceCount];
+        mDistanceMethods = new DistanceMethod[mDistanceCount];
+        mDistanceModels = new DistanceModel[mDistanceCount];
+        mPathLossExponents = new double[mDistanceCount];
+        for (int i = 0; i < mDistanceCount; i++) {
+            Parameters params = distanceParameters.get(i);
+            mWindowSizes[i] = params.getWindowSize();
+            mDistanceMethods[i] = params.getDistanceMethod();
+            mDistanceModels[i] = params.getDistanceModel();
+            mPathLossExponents[i] = params.getPathLossExponent();
+        }
+
+        mPositioningCount = positioningParameters.size();
+        mPositioningMethods = new PositioningMethod[mPositioningCount];
+        mWeightExponents = new double[mPositioningCount];
+        mPdfSharpnesses = new double[mPositioningCount];
+        mSmoothing = new boolean[mPositioningCount];
+        for (int i = 0; i < mPositioningCount; i++) {
+            Parameters params = positioningParameters.get(i);
+            mPositioningMethods[i] = params.getPositioningMethod();
+            mWeightExponents[i] = params.getWeightExponent();
+            mPdfSharpnesses[i] = params.getPdfSharpness();
+            mSmoothing[i] = params.isSmoothing();
+        }
+    }
+
+    /**
+     * @return Returns the parameter space of the full sweep, as configured by the sweep
+     * configuration bundled with the application
+     */
+    public static ParameterSpace createDefault() {
+        try (InputStream inputStream = ParameterSpace.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("No sweep configuration " + DEFAULT_RESOURCE);
+            }
+
+            return parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8), DEFAULT_RESOURCE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the sweep configuration", e);
+        }
+    }
+
+    /**
+     * Sweep configurations are JSON files with the "window_sizes" and "distance_methods" to sweep
+     * (the distance method has no effect for a window size of 1, which is only swept once), the
+     * "distance_models" with the "path_loss_exponent" values of each model that uses it, the
+     * "positioning_methods" with the "weight_exponent" and "pdf_sharpness" values of each method
+     * that sweeps them, and the "smoothing" values (false and/or true), which a method can override.
+     * Models and methods are objects with their name ("model" or "method"), combinations are
+     * enumerated in the order of the file.
+     *
+     * Values are a single number, a list of numbers, or a range {"from": a, "to": b, "step": c}
+     * that includes both ends. Ranges are enumerated in exact decimal arithmetic, so a step of 0.1
+     * yields 1.6 rather than 1.6000000000000003.
+     *
+     * @param path Path of the sweep configuration file
+     */
+    public static ParameterSpace load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader, path.toString());
+        }
+    }
+
+    private static ParameterSpace parse(Reader reader, String name) throws IOException {
+        try {
+            JSONObject sweepJson = (JSONObject) new JSONParser().parse(reader);
+
+            List<Parameters> distanceParameters = new ArrayList<>();
+            Parameters params = new Parameters();
+            for (BigDecimal windowSize : getValues(sweepJson.get("window_sizes"))) {
+                params.setWindowSize(windowSize.intValueExact());
+
+                List<DistanceMethod> distanceMethods = new ArrayList<>();
+                if (params.getWindowSize() == 1) {
+                    distanceMethods.add(null);
+                } else {
+                    for (Object methodName : (JSONArray) sweepJson.get("distance_methods")) {
+                        distanceMethods.add(getEnum(DistanceMethod.getDistanceMethod((String) methodName),
+                                "distance method", methodName));
+                    }
+                }
+
+                for (DistanceMethod distanceMethod : distanceMethods) {
+                    params.setDistanceMethod(distanceMethod);
+
+                    for (Object modelObject : (JSONArray) sweepJson.get("distance_models")) {
+                        JSONObject modelJson = (JSONObject) modelObject;
+                        params.setDistanceModel(getEnum(DistanceModel.getDistanceModel((String) modelJson.get("model")),
+                                "distance model", modelJson.get("model")));
+
+                        for (double pathLossExponent : getDoubles(modelJson.get("path_loss_exponent"))) {
+                            params.setPathLossExponent(pathLossExponent);
+                            distanceParameters.add(new Parameters(params));
+                        }
+                    }
+                }
+            }
+
+            List<Parameters> positioningParameters = new ArrayList<>();
+            params = new Parameters();
+            for (Object methodObject : (JSONArray) sweepJson.get("positioning_methods")) {
+                JSONObject methodJson = (JSONObject) methodObject;
+                params.setPositioningMethod(getEnum(PositioningMethod.getPositioningMethod((String) methodJson.get("method")),
+                        "positioning method", methodJson.get("method")));
+
+                JSONArray smoothingJson = (JSONArray) (methodJson.containsKey("smoothing")
+                        ? methodJson.get("smoothing") : sweepJson.get("smoothing"));
+                for (double weightExponent : getDoubles(methodJson.get("weight_exponent"))) {
+                    params.setWeightExponent(weightExponent);
+
+                    for (double pdfSharpness : getDoubles(methodJson.get("pdf_sharpness"))) {
+                        params.setPdfSharpness(pdfSharpness);
+
+                        for (Object smoothing : smoothingJson) {
+                            params.setSmoothing((Boolean) smoothing);
+                            positioningParameters.add(new Parameters(params));
+                        }
+                    }
+                }
+            }
+
+            return new ParameterSpace(distanceParameters, positioningParameters);
+        } catch (ParseException | ClassCastException | NullPointerException | ArithmeticException
+                 | IllegalArgumentException e) {
+            throw new IOException("Invalid sweep configuration " + name + ": " + e, e);
+        }
+    }
+
+    private static <T> T getEnum(T value, String type, Object name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown " + type + " " + name);
+        }
+
+        return value;
+    }
+
+    /**
+     * @return Returns the values of the specification, or only {@link #UNUSED} if there is none
+     */
+    private static double[] getDoubles(Object valuesJson) {
+        if (valuesJson == null) {
+            return new double[]{UNUSED};
+        }
+
+        List<BigDecimal> values = getValues(valuesJson);
+        double[] doubles = new double[values.size()];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = values.get(i).doubleValue();
+        }
+
+        return doubles;
+    }
+
+    private static List<BigDecimal> getValues(Object valuesJson) {
+        List<BigDecimal> values = new ArrayList<>();
+        if (valuesJson instanceof JSONArray) {
+            for (Object value : (JSONArray) valuesJson) {
+                values.add(toDecimal(value));
+            }
+        } else if (valuesJson instanceof JSONObject) {
+            JSONObject rangeJson = (JSONObject) valuesJson;
+            BigDecimal from = toDecimal(rangeJson.get("from"));
+            BigDecimal to = toDecimal(rangeJson.get("to"));
+            BigDecimal step = toDecimal(rangeJson.get("step"));
+            if (step.signum() <= 0 || from.compareTo(to) > 0) {
+                throw new IllegalArgumentException("Invalid range " + rangeJson.toJSONString());
+            }
+
+            for (BigDecimal value = from; value.compareTo(to) <= 0; value = value.add(step)) {
+                values.add(value);
+            }
+        } else {
+            values.add(toDecimal(valuesJson));
+        }
+
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("No values");
+        }
+
+        return values;
+    }
+
+    // Numbers are parsed as doubles, of which the shortest representation is the decimal in the file
+    private static BigDecimal toDecimal(Object value) {
+        if (value instanceof Long) {
+            return BigDecimal.valueOf((Long) value);
+        }
+
+        return new BigDecimal(Double.toString(((Number) value).doubleValue()));
+    }
+
+    /**
+     * @return Returns the number of parameter combinations, combination ids range from 0 (inclusive)
+     * up to this number (exclusive)
+     */
+    public int size() {
+        return mDistanceCount * mPositioningCount;
+    }
+
+    public int getDistanceCount() {
+        return mDistanceCount;
+    }
+
+    public int getPositioningCount() {
+        return mPositioningCount;
+    }
+
+    public int getId(int distanceIndex, int positioningIndex) {
+        return distanceIndex * mPositioningCount + positioningIndex;
+    }
+
+    public int getDistanceIndex(int id) {
+        return id / mPositioningCount;
+    }
+
+    public int getPositioningIndex(int id) {
+        return id % mPositioningCount;
+    }
+
+    public int getWindowSize(int distanceIndex) {
+        return mWindowSizes[distanceIndex];
+    }
+
+    public DistanceMethod getDistanceMethod(int distanceIndex) {
+        return mDistanceMethods[distanceIndex];
+    }
+
+    public DistanceModel getDistanceModel(int distanceIndex) {
+        return mDistanceModels[distanceIndex];
+    }
+
+    public double getPathLossExponent(int distanceIndex) {
+        return mPathLossExponents[distanceIndex];
+    }
+
+    public PositioningMethod getPositioningMethod(int positioningIndex) {
+        return mPositioningMethods[positioningIndex];
+    }
+
+    public double getWeightExponent(int positioningIndex) {
+        return mWeightExponents[positioningIndex];
+    }
+
+    public double getPdfSharpness(int positioningIndex) {
+        return mPdfSharpnesses[positioningIndex];
+    }
+
+    public boolean isSmoothing(int positioningIndex) {
+        return mSmoothing[positioningIndex];
+    }
+
+    /**
+     * @return Returns whether the distance parameter sets filter the RSSI windows the same way
+     */
+    public boolean isSameFilter(int distanceIndex1, int distanceIndex2) {
+        return mWindowSizes[distanceIndex1] == mWindowSizes[distanceIndex2]
+                && mDistanceMethods[distanceIndex1] == mDistanceMethods[distanceIndex2];
+    }
+
+    /**
+     * @return Returns a new copy of the parameters of the combination
+     */
+    public Parameters getParameters(int id) {
+        int distanceIndex = getDistanceIndex(id);
+        int positioningIndex = getPositioningIndex(id);
+
+        Parameters params = new Parameters();
+        params.setWindowSize(mWindowSizes[distanceIndex]);
+        params.setDistanceMethod(mDistanceMethods[distanceIndex]);
+        params.setDistanceModel(mDistanceModels[distanceIndex]);
+        params.setPathLossExponent(mPathLossExponents[distanceIndex]);
+        params.setPositioningMethod(mPositioningMethods[positioningIndex]);
+        params.setWeightExponent(mWeightExponents[positioningIndex]);
+        params.setPdfSharpness(mPdfSharpnesses[positioningIndex]);
+        params.setSmoothing(mSmoothing[positioningIndex]);
+
+        return params;
+    }
+
+    /**
+     * @return Returns the file name of the combination, see {@link Parameters#toFileName()}
+     */
+    public String toFileName(int id) {
+        return getParameters(id).toFileName();
+    }
+}
@@ -0,0 +1,518 @@
+package replay;
+
+import model.Beacon;
+import model.Coordinates;
+import positioning.DistanceConfiguration;
+import positioning.DistanceMethod;
+import positioning.DistanceProvider;
+import positioning.FilteredRssiCache;
+import positioning.KalmanFilter;
+import positioning.MeasurementStore;
+import positioning.PositionProvider;
+import positioning.PositioningConfiguration;
+import positioning.PositioningException;
+import positioning.RadioMap;
+import positioning.Site;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays the measurements of a trace for every parameter combination of a {@link ParameterSpace},
+ * and reports the results by combination id. The sweep is planned as a pipeline of stages: window
+ * filter (window size and distance method), distance model (model and path loss exponent), and
+ * positioning method and its parameters. Every distinct result of a stage is computed once per
+ * scan and shared by all combinations downstream of it: the RSSI windows are filtered once per
+ * window filter, and the distances and the beacons sorted by distance are computed once per
+ * distance model.
+ *
+ * The sweep is sharded by window filter: every shard replays all measurements in its own session,
+ * and evaluates all distance and positioning parameters on the way. Window filters with many
+ * combinations are split further into shards of consecutive combinations, so the parallelism is
+ * not limited by the number of window filters (at the cost of filtering the windows once per
+ * shard). Shards are executed on a fork-join pool and merged in enumeration order, so the result
+ * does not depend on the degree of parallelism.
+ *
+ * Sweeps can be restricted to a subset of the combinations, shards without any of them are skipped
+ * entirely.
+ */
+public class ParameterSweep {
+
+    // Number of shards planned per thread, so threads that finish early can take over work
+    private static final int SHARDS_PER_THREAD = 4;
+    // Smallest number of combinations worth filtering the windows of a shard again
+    private static final int MIN_SHARD_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final ParameterSpace parameterSpace;
+    private final Site site;
+    private final List<int[]> filterStages;
+    private final List<int[]> shards;
+
+    // Configurations of every distance and positioning parameter set, shared by all shards
+    private final DistanceConfiguration[] distanceConfigurations;
+    private final PositioningConfiguration[] positioningConfigurations;
+
+    // Positioning parameter set of which every smoothed set smooths the positions, or -1 if it has
+    // no unsmoothed twin and estimates them itself
+    private final int[] smoothingSources;
+
+    public ParameterSweep() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParameterSweep(int parallelism) {
+        this(ParameterSpace.createDefault(), parallelism);
+    }
+
+    public ParameterSweep(ParameterSpace parameterSpace, int parallelism) {
+        this(parameterSpace, Site.getDefault(), parallelism);
+    }
+
+    /**
+     * @param site Floor of the site the traces were recorded on
+     */
+    public ParameterSweep(ParameterSpace parameterSpace, Site site, int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.parameterSpace = parameterSpace;
+        this.site = site;
+        this.filterStages = getFilterStages(parameterSpace);
+        this.shards = getShards(parameterSpace, filterStages, parallelism);
+
+        distanceConfigurations = new DistanceConfiguration[parameterSpace.getDistanceCount()];
+        for (int i = 0; i < distanceConfigurations.length; i++) {
+            distanceConfigurations[i] = getDistanceConfiguration(parameterSpace, i);
+        }
+
+        double unsweptWeightExponent = getUnsweptWeightExponent(parameterSpace);
+        positioningConfigurations = new PositioningConfiguration[parameterSpace.getPositioningCount()];
+        for (int i = 0; i < positioningConfigurations.length; i++) {
+            positioningConfigurations[i] = getPositioningConfiguration(parameterSpace, i, unsweptWeightExponent);
+        }
+
+        smoothingSources = getSmoothingSources(parameterSpace);
+    }
+
+    public List<ReplayedTrace> run(List<List<Beacon>> allMeasurements) {
+        return run(allMeasurements, null);
+    }
+
+    /**
+     * @param allMeasurements Measurements grouped per scan, in chronological order
+     * @param radioMap Radio map of the fingerprinting method, or null if there is none (which leaves
+     *                 the fingerprinting method without positions)
+     * @return Returns the trace of every parameter combination that produced at least one position,
+     * ordered by parameter combination
+     */
+    public List<ReplayedTrace> run(List<List<Beacon>> allMeasurements, RadioMap radioMap) {
+        return pool.invoke(new SweepTask<>(allMeasurements, radioMap, null, 0, shards.size(), this::createTraceLane));
+    }
+
+    /**
+     * Like {@link #run(List, RadioMap)}, but writes every replayed trace to the sink as soon as the
+     * shard that replayed it is finished, so only the traces of the shards in progress are kept in
+     * memory. The traces arrive in the order in which the shards finish (not ordered by parameter
+     * combination), from the threads of the sweep, so the sink has to be thread-safe (see
+     * {@link AsyncResultSink}). The session is not ended.
+     *
+     * @param session Session to replay
+     * @param radioMap Radio map of the fingerprinting method, or null if there is none
+     * @param sink Sink that receives the trace of every parameter combination that produced at least
+     *             one position
+     */
+    public void run(ReplaySession session, RadioMap radioMap, ResultSink sink) throws IOException {
+        LaneFactory<Void> laneFactory = combinationId -> {
+            Lane<ReplayedTrace> traceLane = createTraceLane(combinationId);
+            return new Lane<Void>() {
+                @Override
+                public void add(int scan, Coordinates position) {
+                    traceLane.add(scan, position);
+                }
+
+                @Override
+                public Void finish() {
+                    ReplayedTrace replayedTrace = traceLane.finish();
+                    if (replayedTrace != null) {
+                        try {
+                            sink.write(session, replayedTrace);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    return null;
+                }
+            };
+        };
+
+        try {
+            pool.invoke(new SweepTask<>(session.getScans(), radioMap, null, 0, shards.size(), laneFactory));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Lane<ReplayedTrace> createTraceLane(int combinationId) {
+        List<Coordinates> trace = new ArrayList<>();
+        return new Lane<ReplayedTrace>() {
+            @Override
+            public void add(int scan, Coordinates position) {
+                trace.add(position);
+            }
+
+            @Override
+            public ReplayedTrace finish() {
+                return trace.isEmpty() ? null
+                        : new ReplayedTrace(combinationId, parameterSpace.getParameters(combinationId), trace);
+            }
+        };
+    }
+
+    public List<EvaluationResult> evaluate(ReplaySession session, GroundTruth groundTruth) {
+        return evaluate(session, groundTruth, null);
+    }
+
+    /**
+     * Replays the session for every parameter combination, and compares the estimated positions
+     * with the ground truth on the fly. Only the accumulated errors are kept, not the positions.
+     *
+     * @param session Session to replay
+     * @param groundTruth Ground truth at the scans of the session (see {@link GroundTruth#atScans})
+     * @param radioMap Radio map of the fingerprinting method, or null if there is none. It should
+     *                 not contain reference points of the session itself
+     * @return Returns the errors of every parameter combination that produced at least one position
+     * with a known ground truth, ordered by parameter combination
+     */
+    public List<EvaluationResult> evaluate(ReplaySession session, GroundTruth groundTruth, RadioMap radioMap) {
+        return evaluate(session, groundTruth, radioMap, null);
+    }
+
+    /**
+     * Like {@link #evaluate(ReplaySession, GroundTruth, RadioMap)}, but only replays the given
+     * parameter combinations. Their results are the same as in a full sweep.
+     *
+     * @param combinationIds Ids of the parameter combinations to evaluate, or null to evaluate all
+     */
+    public List<EvaluationResult> evaluate(ReplaySession session, GroundTruth groundTruth, RadioMap radioMap,
+                                           BitSet combinationIds) {
+        LaneFactory<EvaluationResult> laneFactory = combinationId -> {
+            ErrorAccumulator errors = new ErrorAccumulator();
+            return new Lane<EvaluationResult>() {
+                @Override
+                public void add(int scan, Coordinates position) {
+                    // Scans without a position are skipped, so the ground truth is looked up by scan
+                    if (groundTruth.isAvailable(scan)) {
+                        errors.add(groundTruth.getError(scan, position));
+                    }
+                }
+
+                @Override
+                public EvaluationResult finish() {
+                    return errors.getCount() == 0 ? null
+                            : new EvaluationResult(combinationId, parameterSpace.getParameters(combinationId), errors);
+                }
+            };
+        };
+
+        return pool.invoke(new SweepTask<>(session.getScans(), radioMap, combinationIds, 0, shards.size(),
+                laneFactory));
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public ParameterSpace getParameterSpace() {
+        return parameterSpace;
+    }
+
+    /**
+     * @return Returns the number of parameter combinations, combination ids range from 0 (inclusive)
+     * up to this number (exclusive)
+     */
+    public int getCombinationCount() {
+        return parameterSpace.size();
+    }
+
+    private <R> List<R> replay(List<List<Beacon>> allMeasurements, RadioMap radioMap, BitSet combinationIds,
+                               int[] shard, LaneFactory<R> laneFactory) {
+        int[] distanceIndices = filterStages.get(shard[0]);
+        int fromId = shard[1], toId = shard[2];
+        if (combinationIds != null) {
+            int nextId = combinationIds.nextSetBit(fromId);
+            if (nextId < 0 || nextId >= toId) {
+                return new ArrayList<>();
+            }
+        }
+
+        // The combinations of a window filter have consecutive ids, lanes are indexed by id - first
+        // id (a shard only replays the lanes of its own combinations, and their unsmoothed twins)
+        int firstId = parameterSpace.getId(distanceIndices[0], 0);
+        int laneCount = parameterSpace.getId(distanceIndices[1], 0) - firstId;
+
+        // Every shard is a separate session, with its own measurement store and providers. All
+        // distance providers of the shard filter the same windows, and share the filtered RSSI
+        MeasurementStore measurementStore = new MeasurementStore(site.getBeaconRegistry());
+        DistanceConfiguration filterConfiguration = distanceConfigurations[distanceIndices[0]];
+        FilteredRssiCache filteredRssiCache = new FilteredRssiCache(measurementStore,
+                filterConfiguration.getWindowSize(), filterConfiguration.getDistanceMethod());
+
+        // Smoothed lanes smooth the positions of the lane of their unsmoothed twin instead of
+        // estimating them again, so the twin is replayed even if it is not evaluated itself. Lanes
+        // that are not evaluated have no lane consumer, lanes that are not replayed no provider
+        PositionProvider[] positionProviders = new PositionProvider[laneCount];
+        KalmanFilter[] kalmanFilters = new KalmanFilter[laneCount];
+        int[] sourceLanes = new int[laneCount];
+        List<Lane<R>> lanes = new ArrayList<>(Collections.nCopies(laneCount, null));
+        int lastDistanceIndex = parameterSpace.getDistanceIndex(toId - 1);
+        for (int distanceIndex = parameterSpace.getDistanceIndex(fromId); distanceIndex <= lastDistanceIndex; distanceIndex++) {
+            DistanceProvider distanceProvider = new DistanceProvider(distanceConfigurations[distanceIndex],
+                    measurementStore, filteredRssiCache);
+
+            for (int positioningIndex = 0; positioningIndex < parameterSpace.getPositioningCount(); positioningIndex++) {
+                int combinationId = parameterSpace.getId(distanceIndex, positioningIndex);
+                if (combinationId < fromId || combinationId >= toId
+                        || combinationIds != null && !combinationIds.get(combinationId)) {
+                    continue;
+                }
+
+                int lane = combinationId - firstId;
+                int sourceIndex = positioningIndex;
+                if (parameterSpace.isSmoothing(positioningIndex)) {
+                    kalmanFilters[lane] = new KalmanFilter();
+                    if (smoothingSources[positioningIndex] >= 0) {
+                        sourceIndex = smoothingSources[positioningIndex];
+                    }
+                }
+
+                int sourceLane = parameterSpace.getId(distanceIndex, sourceIndex) - firstId;
+                if (positionProviders[sourceLane] == null) {
+                    positionProviders[sourceLane] = new PositionProvider(positioningConfigurations[sourceIndex], site,
+                            distanceProvider, radioMap);
+                }
+                sourceLanes[lane] = sourceLane;
+                lanes.set(lane, laneFactory.create(combinationId));
+            }
+        }
+
+        Coordinates[] positions = new Coordinates[laneCount];
+        for (int scan = 0; scan < allMeasurements.size(); scan++) {
+            List<Beacon> measurements = allMeasurements.get(scan);
+            measurementStore.addMeasurements(measurements);
+
+            for (int i = 0; i < laneCount; i++) {
+                PositionProvider positionProvider = positionProviders[i];
+                if (positionProvider == null) {
+                    continue;
+                }
+
+                try {
+                    positions[i] = positionProvider.getPosition(measurements);
+                } catch (PositioningException e) {
+                    // Ignore positioning errors generated while replaying
+                    positions[i] = null;
+                }
+            }
+
+            for (int i = 0; i < laneCount; i++) {
+                Lane<R> lane = lanes.get(i);
+                Coordinates position = positions[sourceLanes[i]];
+                if (lane == null || position == null) {
+                    continue;
+                }
+
+                KalmanFilter kalmanFilter = kalmanFilters[i];
+                lane.add(scan, kalmanFilter == null ? position
+                        : kalmanFilter.smooth(position, PositionProvider.getScanTimestamp(measurements)));
+            }
+        }
+
+        List<R> result = new ArrayList<>();
+        for (Lane<R> lane : lanes) {
+            R laneResult = lane == null ? null : lane.finish();
+            if (laneResult != null) {
+                result.add(laneResult);
+            }
+        }
+
+        return result;
+    }
+
+    private static DistanceConfiguration getDistanceConfiguration(ParameterSpace parameterSpace, int distanceIndex) {
+        // The distance method is not used for a window size of 1, fall back to the mean
+        DistanceMethod distanceMethod = parameterSpace.getDistanceMethod(distanceIndex) == null
+                ? DistanceMethod.MEAN : parameterSpace.getDistanceMethod(distanceIndex);
+
+        return new DistanceConfiguration(parameterSpace.getDistanceModel(distanceIndex), distanceMethod,
+                parameterSpace.getWindowSize(distanceIndex), parameterSpace.getPathLossExponent(distanceIndex));
+    }
+
+    /**
+     * @param unsweptWeightExponent Weight exponent of the methods that do not sweep it
+     */
+    private static PositioningConfiguration getPositioningConfiguration(ParameterSpace parameterSpace,
+                                                                        int positioningIndex,
+                                                                        double unsweptWeightExponent) {
+        double weightExponent = parameterSpace.getWeightExponent(positioningIndex) < 0
+                ? unsweptWeightExponent : parameterSpace.getWeightExponent(positioningIndex);
+
+        return new PositioningConfiguration(parameterSpace.getPositioningMethod(positioningIndex), weightExponent,
+                parameterSpace.getPdfSharpness(positioningIndex), false);
+    }
+
+    /**
+     * Methods that do not sweep the weight exponent (the trilateration solvers and multilateration
+     * fall back to the weighted centroid) use the last configured weight exponent, as the sequential
+     * replay always did: it left the weight exponent of the last weighted centroid run behind.
+     *
+     * @return Returns the last weight exponent in enumeration order, or the default weight exponent
+     * if none is configured
+     */
+    private static double getUnsweptWeightExponent(ParameterSpace parameterSpace) {
+        for (int i = parameterSpace.getPositioningCount() - 1; i >= 0; i--) {
+            if (parameterSpace.getWeightExponent(i) >= 0) {
+                return parameterSpace.getWeightExponent(i);
+            }
+        }
+
+        return PositioningConfiguration.DEFAULT.getWeightExponent();
+    }
+
+    /**
+     * @return Returns the unsmoothed twin of every smoothed positioning parameter set (same method and
+     * parameters), or -1 if it has none or is not smoothed
+     */
+    private static int[] getSmoothingSources(ParameterSpace parameterSpace) {
+        int[] smoothingSources = new int[parameterSpace.getPositioningCount()];
+        for (int i = 0; i < smoothingSources.length; i++) {
+            smoothingSources[i] = -1;
+            if (!parameterSpace.isSmoothing(i)) {
+                continue;
+            }
+
+            for (int j = 0; j < smoothingSources.length; j++) {
+                if (!parameterSpace.isSmoothing(j)
+                        && parameterSpace.getPositioningMethod(j) == parameterSpace.getPositioningMethod(i)
+                        && parameterSpace.getWeightExponent(j) == parameterSpace.getWeightExponent(i)
+                        && parameterSpace.getPdfSharpness(j) == parameterSpace.getPdfSharpness(i)) {
+                    smoothingSources[i] = j;
+                    break;
+                }
+            }
+        }
+
+        return smoothingSources;
+    }
+
+    /**
+     * @return Returns the ranges (from inclusive, to exclusive) of distance parameter sets that share
+     * a window filter, consecutive in enumeration order
+     */
+    private static List<int[]> getFilterStages(ParameterSpace parameterSpace) {
+        List<int[]> filterStages = new ArrayList<>();
+
+        int from = 0;
+        for (int i = 1; i <= parameterSpace.getDistanceCount(); i++) {
+            if (i == parameterSpace.getDistanceCount() || !parameterSpace.isSameFilter(from, i)) {
+                filterStages.add(new int[]{from, i});
+                from = i;
+            }
+        }
+
+        return filterStages;
+    }
+
+    /**
+     * Splits every window filter into shards of consecutive combinations, about the same size, with
+     * enough shards in total to keep all threads busy.
+     *
+     * @return Returns the window filter (index of the filter stage) and the range of combination ids
+     * (from inclusive, to exclusive) of every shard, in enumeration order
+     */
+    private static List<int[]> getShards(ParameterSpace parameterSpace, List<int[]> filterStages, int parallelism) {
+        int plannedShards = SHARDS_PER_THREAD * parallelism;
+        int maxShardSize = Math.max(MIN_SHARD_SIZE, (parameterSpace.size() + plannedShards - 1) / plannedShards);
+
+        List<int[]> shards = new ArrayList<>();
+        for (int filterStage = 0; filterStage < filterStages.size(); filterStage++) {
+            int fromId = parameterSpace.getId(filterStages.get(filterStage)[0], 0);
+            int toId = parameterSpace.getId(filterStages.get(filterStage)[1], 0);
+
+            int shardCount = (toId - fromId + maxShardSize - 1) / maxShardSize;
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new int[]{filterStage, fromId + (int) ((long) (toId - fromId) * i / shardCount),
+                        fromId + (int) ((long) (toId - fromId) * (i + 1) / shardCount)});
+            }
+        }
+
+        return shards;
+    }
+
+    /**
+     * Consumes the positions estimated for a single parameter combination.
+     */
+    private interface Lane<R> {
+
+        /**
+         * @param scan Index of the scan the position was estimated from
+         */
+        void add(int scan, Coordinates position);
+
+        /**
+         * @return Returns the result of the parameter combination, or null if there is nothing to
+         * report
+         */
+        R finish();
+    }
+
+    private interface LaneFactory<R> {
+
+        Lane<R> create(int combinationId);
+    }
+
+    private class SweepTask<R> extends RecursiveTask<List<R>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<List<Beacon>> allMeasurements;
+        private final RadioMap radioMap;
+        private final BitSet combinationIds;
+        private final int from, to;
+        private final LaneFactory<R> laneFactory;
+
+        SweepTask(List<List<Beacon>> allMeasurements, RadioMap radioMap, BitSet combinationIds, int from, int to,
+                  LaneFactory<R> laneFactory) {
+            this.allMeasurements = allMeasurements;
+            this.radioMap = radioMap;
+            this.combinationIds = combinationIds;
+            this.from = from;
+            this.to = to;
+            this.laneFactory = laneFactory;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (to - from <= 1) {
+                return from < to ? replay(allMeasurements, radioMap, combinationIds, shards.get(from), laneFactory) : new ArrayList<>();
+            }
+
+            int middle = (from + to) >>> 1;
+            SweepTask<R> left = new SweepTask<>(allMeasurements, radioMap, combinationIds, from, middle, laneFactory);
+            SweepTask<R> right = new SweepTask<>(allMeasurements, radioMap, combinationIds, middle, to, laneFactory);
+            left.fork();
+
+            List<R> rightResult = right.compute();
+            List<R> result = left.join();
+
+            // Merge in enumeration order to keep the result deterministic
+            result.addAll(rightResult);
+            return result;
+        }
+    }
+}
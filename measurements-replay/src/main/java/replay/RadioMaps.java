@@ -0,0 +1,51 @@
+package replay;
+
+import model.Beacon;
+import model.Coordinates;
+import positioning.RadioMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds radio maps for the fingerprinting method from recorded traces. Every scan during which the
+ * ground truth is known (between the first and the last checkpoint) becomes a reference point at
+ * the interpolated ground truth.
+ */
+public final class RadioMaps {
+
+    private RadioMaps() {
+    }
+
+    /**
+     * @param sessions Sessions of all recorded traces
+     * @param excludedSession Session that is left out, as it is the one that is evaluated
+     * @param checkpointCoordinates Coordinates of the i-th checkpoint, in centimeters
+     * @return Returns the radio map of the scans of all other sessions, or null if they have no scans
+     * with a known ground truth
+     */
+    public static RadioMap createLeaveOneOut(List<ReplaySession> sessions, ReplaySession excludedSession,
+                                             Coordinates[] checkpointCoordinates) {
+        List<Coordinates> positions = new ArrayList<>();
+        List<List<Beacon>> scans = new ArrayList<>();
+        for (ReplaySession session : sessions) {
+            if (session != excludedSession) {
+                addReferencePoints(session, checkpointCoordinates, positions, scans);
+            }
+        }
+
+        return scans.isEmpty() ? null : RadioMap.create(positions, scans);
+    }
+
+    private static void addReferencePoints(ReplaySession session, Coordinates[] checkpointCoordinates,
+                                           List<Coordinates> positions, List<List<Beacon>> scans) {
+        List<List<Beacon>> sessionScans = session.getScans();
+        GroundTruth groundTruth = GroundTruth.atScans(checkpointCoordinates, session);
+        for (int i = 0; i < sessionScans.size(); i++) {
+            if (groundTruth.isAvailable(i)) {
+                positions.add(groundTruth.getPosition(i));
+                scans.add(sessionScans.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package replay;
+
+import model.Beacon;
+import positioning.PositionProvider;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A single trace prepared for replaying: the measurements grouped per scan, and the positioning
+ * timestamps shared by all output writers. Everything is loaded once per trace, independent of the
+ * number of parameter combinations that are replayed.
+ */
+public class ReplaySession {
+
+    // Measurements further apart than this threshold belong to different scans (500 ms scan period)
+    private static final long SCAN_PERIOD_THRESHOLD = 400;
+
+    private final String traceName;
+    private final TraceData traceData;
+    private final List<List<Beacon>> scans;
+    private final long[] scanTimestamps;
+    private final String[] positioningTimestamps;
+
+    private ReplaySession(String traceName, TraceData traceData) {
+        this.traceName = traceName;
+        this.traceData = traceData;
+        this.scans = Collections.unmodifiableList(groupScans(traceData.getMeasurements()));
+
+        scanTimestamps = new long[scans.size()];
+        for (int i = 0; i < scans.size(); i++) {
+            // Only the scan of an empty trace is empty
+            List<Beacon> scan = scans.get(i);
+            scanTimestamps[i] = scan.isEmpty() ? -1 : PositionProvider.getScanTimestamp(scan);
+        }
+
+        long[] timestamps = traceData.getPositioningTimestamps();
+        positioningTimestamps = new String[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            positioningTimestamps[i] = Timestamps.format(timestamps[i]);
+        }
+    }
+
+    public static ReplaySession load(TraceCache traceCache, Path tracesDirectory, String traceName) throws IOException {
+        return new ReplaySession(traceName, traceCache.load(tracesDirectory.resolve(traceName)));
+    }
+
+    private static List<List<Beacon>> groupScans(MeasurementTable measurements) {
+        List<List<Beacon>> scans = new ArrayList<>();
+        List<Beacon> scan = new ArrayList<>();
+
+        for (int i = 0; i < measurements.size(); i++) {
+            long timestamp = measurements.getTimestamp(i);
+
+            // Recover beacons detected in each scan interval (500 ms)
+            if (!scan.isEmpty() && timestamp - measurements.getTimestamp(i - 1) > SCAN_PERIOD_THRESHOLD) {
+                scans.add(scan);
+                scan = new ArrayList<>();
+            }
+
+            scan.add(new Beacon(measurements.getBeaconAddress(i), measurements.getRssi(i), new Date(timestamp)));
+        }
+
+        // Add final scan
+        scans.add(scan);
+
+        return scans;
+    }
+
+    public String getTraceName() {
+        return traceName;
+    }
+
+    public TraceData getTraceData() {
+        return traceData;
+    }
+
+    /**
+     * @return Returns the measurements grouped per scan, in chronological order
+     */
+    public List<List<Beacon>> getScans() {
+        return scans;
+    }
+
+    /**
+     * @return Returns the time of every scan in milliseconds (the time of its measurements), or -1
+     * for an empty scan. Positions are estimated per scan, so their ground truth is interpolated at
+     * these timestamps
+     */
+    public long[] getScanTimestamps() {
+        return scanTimestamps.clone();
+    }
+
+    public int getPositioningCount() {
+        return positioningTimestamps.length;
+    }
+
+    /**
+     * @param index Index of the position within the replayed trace
+     * @return Returns the timestamp at which the app estimated the position with the given index,
+     * formatted as stored by the back-end (used for ground truth interpolation)
+     */
+    public String getPositioningTimestamp(int index) {
+        return positioningTimestamps[index];
+    }
+}
@@ -0,0 +1,37 @@
+package replay;
+
+import model.Coordinates;
+import model.Parameters;
+
+import java.util.List;
+
+/**
+ * The positions estimated for a single parameter combination while replaying a trace.
+ */
+public class ReplayedTrace {
+
+    private final int combinationId;
+    private final Parameters parameters;
+    private final List<Coordinates> positions;
+
+    public ReplayedTrace(int combinationId, Parameters parameters, List<Coordinates> positions) {
+        this.combinationId = combinationId;
+        this.parameters = parameters;
+        this.positions = positions;
+    }
+
+    /**
+     * @return Returns the index of the parameter combination in the enumeration order of the sweep
+     */
+    public int getCombinationId() {
+        return combinationId;
+    }
+
+    public Parameters getParameters() {
+        return parameters;
+    }
+
+    public List<Coordinates> getPositions() {
+        return positions;
+    }
+}
@@ -0,0 +1,15 @@
+package replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the replayed traces. For every session, all replayed traces are written first,
+ * followed by a single call to {@link #endSession(ReplaySession)}.
+ */
+public interface ResultSink extends Closeable {
+
+    void write(ReplaySession session, ReplayedTrace replayedTrace) throws IOException;
+
+    void endSession(ReplaySession session) throws IOException;
+}
@@ -0,0 +1,161 @@
+package replay;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for exported timestamped records, such as the positioning timestamps
+ * (trace.json) and checkpoints (checkpoints.json). Only the timestamp and a single optional integer
+ * field are decoded; the records are returned ordered by timestamp. Records with equal timestamps
+ * keep their order in the file.
+ */
+public class TimestampReader implements ContentHandler {
+
+    private static final String CHECKPOINT_KEY = "checkpoint";
+
+    private final String valueKey;
+
+    private long[] timestamps = new long[64];
+    private int[] values = new int[64];
+    private int size;
+
+    // State of the record that is currently being parsed
+    private int depth;
+    private String key;
+    private String timestamp;
+    private int value;
+
+    private TimestampReader(String valueKey) {
+        this.valueKey = valueKey;
+    }
+
+    /**
+     * @param path Path of the exported positioning records (trace.json)
+     * @return Returns the positioning timestamps in ascending order
+     */
+    public static long[] readTimestamps(Path path) throws IOException {
+        TimestampReader timestampReader = parse(path, null);
+        int[] order = Timestamps.sortedOrder(timestampReader.timestamps, timestampReader.size);
+
+        long[] sortedTimestamps = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTimestamps[i] = timestampReader.timestamps[order[i]];
+        }
+
+        return sortedTimestamps;
+    }
+
+    /**
+     * @param path Path of the exported checkpoints (checkpoints.json)
+     * @return Returns the checkpoints in chronological order
+     */
+    public static Checkpoints readCheckpoints(Path path) throws IOException {
+        TimestampReader timestampReader = parse(path, CHECKPOINT_KEY);
+        int[] order = Timestamps.sortedOrder(timestampReader.timestamps, timestampReader.size);
+
+        long[] sortedTimestamps = new long[order.length];
+        int[] sortedCheckpoints = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedTimestamps[i] = timestampReader.timestamps[order[i]];
+            sortedCheckpoints[i] = timestampReader.values[order[i]];
+        }
+
+        return new Checkpoints(sortedTimestamps, sortedCheckpoints);
+    }
+
+    private static TimestampReader parse(Path path, String valueKey) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            TimestampReader timestampReader = new TimestampReader(valueKey);
+            new JSONParser().parse(reader, timestampReader);
+
+            return timestampReader;
+        } catch (ParseException e) {
+            throw new IOException("Invalid timestamps file " + path + ": " + e, e);
+        }
+    }
+
+    @Override
+    public void startJSON() {
+    }
+
+    @Override
+    public void endJSON() {
+    }
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        if (depth == 1) {
+            timestamp = null;
+            value = -1;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean endObject() throws ParseException {
+        if (depth == 1) {
+            if (timestamp == null) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Record without timestamp");
+            }
+
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            timestamps[size] = Timestamps.parse(timestamp);
+            values[size] = value;
+            size++;
+        }
+
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        this.key = key;
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        key = null;
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (depth != 1 || key == null || value == null) {
+            return true;
+        }
+
+        if (key.equals(Timestamps.TIMESTAMP_KEY)) {
+            timestamp = (String) value;
+        } else if (key.equals(valueKey)) {
+            this.value = ((Number) value).intValue();
+        }
+
+        return true;
+    }
+}
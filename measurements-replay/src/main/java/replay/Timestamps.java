@@ -0,0 +1,68 @@
+package replay;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Conversion between the timestamp strings stored by the back-end (e.g. 2021-06-03T11:51:07.568Z)
+ * and epoch milliseconds.
+ */
+public final class Timestamps {
+
+    public static final String TIMESTAMP_KEY = "system.totimestamp(timeuuid)";
+
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private Timestamps() {
+    }
+
+    public static long parse(String timestamp) {
+        return Instant.from(FORMATTER.parse(timestamp)).toEpochMilli();
+    }
+
+    public static String format(long epochMillis) {
+        return FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * @param timestamps Timestamps of the records
+     * @param size Number of records
+     * @return Returns the record indices in ascending order of their timestamps; records with equal
+     * timestamps keep their original order
+     */
+    static int[] sortedOrder(long[] timestamps, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        sort(timestamps, order, new int[size], 0, size);
+        return order;
+    }
+
+    // Stable merge sort of the record indices by timestamp
+    private static void sort(long[] timestamps, int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        sort(timestamps, order, buffer, from, middle);
+        sort(timestamps, order, buffer, middle, to);
+        if (timestamps[order[middle - 1]] <= timestamps[order[middle]]) {
+            return;
+        }
+
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && timestamps[buffer[left]] <= timestamps[buffer[right]])) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+}
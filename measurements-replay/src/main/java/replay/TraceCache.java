@@ -0,0 +1,220 @@
+package replay;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary, column-oriented cache of recorded traces. The first time a trace is loaded its JSON
+ * files are parsed and written to a cache file; subsequent loads memory-map the cache file instead.
+ * The cache file stores the size and modification time of every JSON source, and is rewritten when
+ * any of them changes.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header        magic, version, 3 x (source size, source modification time),
+ *               measurement count, beacon count, positioning count, checkpoint count
+ * beacons       beacon count x (UTF-8 length (short), UTF-8 bytes of the address)
+ * measurements  timestamps (long), beacon ids (int), RSSI values (byte), channels (byte)
+ * positioning   timestamps (long)
+ * checkpoints   timestamps (long), checkpoint numbers (int)
+ * </pre>
+ * Every column starts at a multiple of 8 bytes.
+ */
+public class TraceCache {
+
+    private static final int MAGIC = 0x49505343;
+    private static final int VERSION = 1;
+
+    private static final String MEASUREMENTS_FILE = "measurements.json";
+    private static final String POSITIONING_FILE = "trace.json";
+    private static final String CHECKPOINTS_FILE = "checkpoints.json";
+
+    private final Path cacheDirectory;
+
+    public TraceCache(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @param traceDirectory Directory containing the JSON files of the trace
+     * @return Returns the trace, from the cache if it is up to date
+     */
+    public TraceData load(Path traceDirectory) throws IOException {
+        Path[] sources = {
+                traceDirectory.resolve(MEASUREMENTS_FILE),
+                traceDirectory.resolve(POSITIONING_FILE),
+                traceDirectory.resolve(CHECKPOINTS_FILE)
+        };
+        long[] fingerprint = getFingerprint(sources);
+
+        Path cacheFile = cacheDirectory.resolve(traceDirectory.getFileName() + ".bin");
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                TraceData traceData = map(cacheFile, fingerprint);
+                if (traceData != null) {
+                    return traceData;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // Truncated or corrupt cache file, rebuild it from the JSON sources
+            }
+        }
+
+        TraceData traceData = new TraceData(
+                MeasurementReader.read(sources[0]),
+                TimestampReader.readTimestamps(sources[1]),
+                TimestampReader.readCheckpoints(sources[2])
+        );
+        write(cacheFile, fingerprint, traceData);
+
+        return traceData;
+    }
+
+    private static long[] getFingerprint(Path[] sources) throws IOException {
+        long[] fingerprint = new long[sources.length * 2];
+        for (int i = 0; i < sources.length; i++) {
+            fingerprint[2 * i] = Files.size(sources[i]);
+            fingerprint[2 * i + 1] = Files.getLastModifiedTime(sources[i]).toMillis();
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * @return Returns the cached trace, or null if the cache file is outdated or invalid
+     */
+    private static TraceData map(Path cacheFile, long[] fingerprint) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+
+        for (long value : fingerprint) {
+            if (buffer.getLong() != value) {
+                return null;
+            }
+        }
+
+        int measurementCount = buffer.getInt();
+        String[] beaconAddresses = new String[buffer.getInt()];
+        int positioningCount = buffer.getInt();
+        int checkpointCount = buffer.getInt();
+
+        for (int i = 0; i < beaconAddresses.length; i++) {
+            byte[] address = new byte[buffer.getShort()];
+            buffer.get(address);
+            beaconAddresses[i] = new String(address, StandardCharsets.UTF_8);
+        }
+
+        LongBuffer timestamps = sliceColumn(buffer, measurementCount * 8).asLongBuffer();
+        IntBuffer beaconIds = sliceColumn(buffer, measurementCount * 4).asIntBuffer();
+        ByteBuffer rssiValues = sliceColumn(buffer, measurementCount);
+        ByteBuffer channels = sliceColumn(buffer, measurementCount);
+        MeasurementTable measurements = new MeasurementTable(timestamps, beaconIds, rssiValues, channels, beaconAddresses);
+
+        long[] positioningTimestamps = new long[positioningCount];
+        sliceColumn(buffer, positioningCount * 8).asLongBuffer().get(positioningTimestamps);
+
+        long[] checkpointTimestamps = new long[checkpointCount];
+        int[] checkpointNumbers = new int[checkpointCount];
+        sliceColumn(buffer, checkpointCount * 8).asLongBuffer().get(checkpointTimestamps);
+        sliceColumn(buffer, checkpointCount * 4).asIntBuffer().get(checkpointNumbers);
+
+        return new TraceData(measurements, positioningTimestamps, new Checkpoints(checkpointTimestamps, checkpointNumbers));
+    }
+
+    private static ByteBuffer sliceColumn(ByteBuffer buffer, int length) {
+        align(buffer);
+
+        ByteBuffer column = buffer.slice();
+        column.limit(length);
+        buffer.position(buffer.position() + length);
+
+        return column;
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    private void write(Path cacheFile, long[] fingerprint, TraceData traceData) throws IOException {
+        MeasurementTable measurements = traceData.getMeasurements();
+        long[] positioningTimestamps = traceData.getPositioningTimestamps();
+        Checkpoints checkpoints = traceData.getCheckpoints();
+
+        byte[][] beaconAddresses = new byte[measurements.getBeaconCount()][];
+        int beaconsLength = 0;
+        for (int i = 0; i < beaconAddresses.length; i++) {
+            beaconAddresses[i] = measurements.getBeaconAddressById(i).getBytes(StandardCharsets.UTF_8);
+            beaconsLength += 2 + beaconAddresses[i].length;
+        }
+
+        // Upper bound of the file size, including the padding of every column
+        int measurementCount = measurements.size();
+        int capacity = 8 + fingerprint.length * 8 + 16 + beaconsLength
+                + measurementCount * 14 + positioningTimestamps.length * 8 + checkpoints.size() * 12 + 7 * 8;
+
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (long value : fingerprint) {
+            buffer.putLong(value);
+        }
+
+        buffer.putInt(measurementCount)
+                .putInt(beaconAddresses.length)
+                .putInt(positioningTimestamps.length)
+                .putInt(checkpoints.size());
+        for (byte[] address : beaconAddresses) {
+            buffer.putShort((short) address.length).put(address);
+        }
+
+        align(buffer);
+        buffer.asLongBuffer().put(measurements.getTimestamps());
+        buffer.position(buffer.position() + measurementCount * 8);
+        align(buffer);
+        buffer.asIntBuffer().put(measurements.getBeaconIds());
+        buffer.position(buffer.position() + measurementCount * 4);
+        align(buffer);
+        buffer.put(measurements.getRssiValues());
+        align(buffer);
+        buffer.put(measurements.getChannels());
+
+        align(buffer);
+        buffer.asLongBuffer().put(positioningTimestamps);
+        buffer.position(buffer.position() + positioningTimestamps.length * 8);
+
+        align(buffer);
+        for (int i = 0; i < checkpoints.size(); i++) {
+            buffer.putLong(checkpoints.getTimestamp(i));
+        }
+        align(buffer);
+        for (int i = 0; i < checkpoints.size(); i++) {
+            buffer.putInt(checkpoints.getCheckpoint(i));
+        }
+        buffer.flip();
+
+        // Write to a temporary file first, so a concurrent or interrupted run never maps a partial file
+        Files.createDirectories(cacheDirectory);
+        Path temporaryFile = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,30 @@
+package replay;
+
+/**
+ * Everything recorded for a single trace: the RSSI measurements, the timestamps at which the app
+ * estimated a position, and the checkpoints used as ground truth.
+ */
+public class TraceData {
+
+    private final MeasurementTable measurements;
+    private final long[] positioningTimestamps;
+    private final Checkpoints checkpoints;
+
+    public TraceData(MeasurementTable measurements, long[] positioningTimestamps, Checkpoints checkpoints) {
+        this.measurements = measurements;
+        this.positioningTimestamps = positioningTimestamps;
+        this.checkpoints = checkpoints;
+    }
+
+    public MeasurementTable getMeasurements() {
+        return measurements;
+    }
+
+    public long[] getPositioningTimestamps() {
+        return positioningTimestamps;
+    }
+
+    public Checkpoints getCheckpoints() {
+        return checkpoints;
+    }
+}
@@ -0,0 +1,109 @@
+package positioning;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KdTreeTest {
+
+    @Test
+    public void nearestMatchBruteForce() {
+        Random random = new Random(3);
+        for (int dimension : new int[]{1, 2, 5, 12}) {
+            for (int size : new int[]{1, 7, 8, 9, 100, 1000}) {
+                double[] points = new double[size * dimension];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = 100 * random.nextDouble();
+                }
+
+                assertNearest(points, dimension, random, 100 * random.nextDouble());
+            }
+        }
+    }
+
+    @Test
+    public void duplicatePointsAndTies() {
+        // RSSI fingerprints take few distinct values, and reference points are often recorded twice
+        Random random = new Random(5);
+        int dimension = 6, size = 400;
+        double[] points = new double[size * dimension];
+        for (int i = 0; i < size; i++) {
+            for (int d = 0; d < dimension; d++) {
+                points[i * dimension + d] = i >= size / 2 ? points[(i - size / 2) * dimension + d]
+                        : -70 + random.nextInt(4);
+            }
+        }
+
+        assertNearest(points, dimension, random, -68);
+    }
+
+    @Test
+    public void allPointsEqual() {
+        double[] points = new double[50 * 3];
+        Arrays.fill(points, -60);
+
+        KdTree tree = new KdTree(points, 3);
+        int[] neighbours = new int[50];
+        double[] squaredDistances = new double[50];
+        assertEquals(50, tree.findNearest(new double[]{-60, -61, -60}, 50, neighbours, squaredDistances));
+        assertDistinct(neighbours, 50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1, squaredDistances[i], 0);
+        }
+    }
+
+    private static void assertNearest(double[] points, int dimension, Random random, double offset) {
+        KdTree tree = new KdTree(points, dimension);
+        int size = points.length / dimension;
+        assertEquals(size, tree.size());
+
+        for (int query = 0; query < 20; query++) {
+            double[] queryPoint = new double[dimension];
+            for (int d = 0; d < dimension; d++) {
+                queryPoint[d] = offset + (random.nextBoolean() ? random.nextInt(3) : 10 * random.nextGaussian());
+            }
+
+            double[] bruteForce = new double[size];
+            for (int i = 0; i < size; i++) {
+                bruteForce[i] = getSquaredDistance(points, dimension, i, queryPoint);
+            }
+            Arrays.sort(bruteForce);
+
+            for (int k : new int[]{1, 3, size, size + 2}) {
+                int[] neighbours = new int[k];
+                double[] squaredDistances = new double[k];
+                int count = tree.findNearest(queryPoint, k, neighbours, squaredDistances);
+                assertEquals(Math.min(k, size), count);
+                assertDistinct(neighbours, count);
+
+                // Ties can be broken either way, so compare the distances rather than the indices
+                for (int i = 0; i < count; i++) {
+                    assertEquals(bruteForce[i], squaredDistances[i], 1e-9);
+                    assertEquals(squaredDistances[i], getSquaredDistance(points, dimension, neighbours[i], queryPoint), 1e-9);
+                }
+            }
+        }
+    }
+
+    private static double getSquaredDistance(double[] points, int dimension, int point, double[] query) {
+        double squaredDistance = 0;
+        for (int d = 0; d < dimension; d++) {
+            double difference = query[d] - points[point * dimension + d];
+            squaredDistance += difference * difference;
+        }
+
+        return squaredDistance;
+    }
+
+    private static void assertDistinct(int[] neighbours, int count) {
+        int[] sorted = Arrays.copyOf(neighbours, count);
+        Arrays.sort(sorted);
+        for (int i = 1; i < count; i++) {
+            assertTrue("Duplicate neighbour " + sorted[i], sorted[i] != sorted[i - 1]);
+        }
+    }
+}
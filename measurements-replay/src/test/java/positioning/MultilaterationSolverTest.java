@@ -0,0 +1,81 @@
+package positioning;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultilaterationSolverTest {
+
+    // Beacons in the corners of a 10 x 6 meter room, and one in the middle of a wall
+    private static final double[][] BEACONS = {{0, 0}, {1000, 0}, {1000, 600}, {0, 600}, {500, 600}};
+
+    @Test
+    public void exactRangesFromCentroid() {
+        MultilaterationSolver solver = new MultilaterationSolver(100, 1e-6);
+        Random random = new Random(7);
+
+        for (int beaconCount = 3; beaconCount <= BEACONS.length; beaconCount++) {
+            for (int i = 0; i < 100; i++) {
+                double x = 50 + 900 * random.nextDouble();
+                double y = 50 + 500 * random.nextDouble();
+
+                solver.clear();
+                double centroidX = 0, centroidY = 0;
+                for (int j = 0; j < beaconCount; j++) {
+                    solver.addBeacon(BEACONS[j][0], BEACONS[j][1], Math.hypot(x - BEACONS[j][0], y - BEACONS[j][1]));
+                    centroidX += BEACONS[j][0] / beaconCount;
+                    centroidY += BEACONS[j][1] / beaconCount;
+                }
+
+                assertTrue(solver.solve(centroidX, centroidY));
+                assertEquals(x, solver.getX(), 1e-3);
+                assertEquals(y, solver.getY(), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void defaultToleranceConvergesQuicklyFromPreviousPosition() {
+        MultilaterationSolver solver = new MultilaterationSolver();
+        double x = 320, y = 410;
+        for (double[] beacon : BEACONS) {
+            solver.addBeacon(beacon[0], beacon[1], Math.hypot(x - beacon[0], y - beacon[1]));
+        }
+
+        assertTrue(solver.solve(x + 40, y - 30));
+        assertEquals(x, solver.getX(), MultilaterationSolver.DEFAULT_TOLERANCE);
+        assertEquals(y, solver.getY(), MultilaterationSolver.DEFAULT_TOLERANCE);
+        assertTrue(solver.getIterationCount() <= 5);
+    }
+
+    @Test
+    public void manyBeacons() {
+        MultilaterationSolver solver = new MultilaterationSolver(100, 1e-6);
+        double x = 712, y = 233;
+        for (int i = 0; i < 40; i++) {
+            double angle = 2 * Math.PI * i / 40;
+            double beaconX = 500 + 800 * Math.cos(angle);
+            double beaconY = 300 + 800 * Math.sin(angle);
+            solver.addBeacon(beaconX, beaconY, Math.hypot(x - beaconX, y - beaconY));
+        }
+
+        assertEquals(40, solver.getBeaconCount());
+        assertTrue(solver.solve(500, 300));
+        assertEquals(x, solver.getX(), 1e-3);
+        assertEquals(y, solver.getY(), 1e-3);
+    }
+
+    @Test
+    public void noBeacons() {
+        MultilaterationSolver solver = new MultilaterationSolver();
+        solver.addBeacon(0, 0, 100);
+        solver.clear();
+
+        assertEquals(0, solver.getBeaconCount());
+        assertFalse(solver.solve(0, 0));
+    }
+}
@@ -0,0 +1,168 @@
+package positioning;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParticleFilterTest {
+
+    private static final int PARTICLE_COUNT = 200;
+
+    // Beacons in three corners of a 10 x 6 meter room
+    private static final double[] BEACON_X = {0, 1000, 1000};
+    private static final double[] BEACON_Y = {0, 0, 600};
+    private static final int[] COLUMNS = {0, 1, 2};
+
+    @Test
+    public void resamplingCopiesParticlesByWeight() {
+        FloorPlan floorPlan = createFloorPlan(1000, 600, rectangle(0, 0, 1000, 600));
+        ProbabilityGrid grid = createGrid(floorPlan);
+
+        // Without beacons all particles keep their weight, so nothing is resampled. The same seed
+        // places the particles of both filters at the same coordinates
+        ParticleFilter unweighted = new ParticleFilter(floorPlan, PARTICLE_COUNT, ParticleFilter.DEFAULT_SEED);
+        assertTrue(unweighted.update(0, grid, COLUMNS, new double[0], 0, 1));
+
+        double[] initialX = new double[PARTICLE_COUNT];
+        double[] initialY = new double[PARTICLE_COUNT];
+        double[] weights = new double[PARTICLE_COUNT];
+        double weightSum = 0;
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            initialX[i] = unweighted.getParticleX(i);
+            initialY[i] = unweighted.getParticleY(i);
+            assertEquals(1.0 / PARTICLE_COUNT, unweighted.getWeight(i), 1e-15);
+        }
+
+        // A sharp measurement model near (3 m, 2 m) leaves few effective particles
+        double[] estimatedDistances = {Math.hypot(3, 2), Math.hypot(7, 2), Math.hypot(7, 4)};
+        double pdfSharpness = 0.01;
+        ParticleFilter filter = new ParticleFilter(floorPlan, PARTICLE_COUNT, ParticleFilter.DEFAULT_SEED);
+        assertTrue(filter.update(0, grid, COLUMNS, estimatedDistances, COLUMNS.length, pdfSharpness));
+
+        double expectedX = 0, expectedY = 0, squaredWeightSum = 0;
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            weights[i] = grid.getProbability(initialX[i], initialY[i], COLUMNS, estimatedDistances,
+                    COLUMNS.length, pdfSharpness);
+            weightSum += weights[i];
+        }
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            weights[i] /= weightSum;
+            expectedX += weights[i] * initialX[i];
+            expectedY += weights[i] * initialY[i];
+            squaredWeightSum += weights[i] * weights[i];
+        }
+        assertTrue(1 / squaredWeightSum < PARTICLE_COUNT / 2.0);
+
+        // The estimate is the weighted mean before resampling
+        assertEquals(expectedX, filter.getX(), 1e-6);
+        assertEquals(expectedY, filter.getY(), 1e-6);
+
+        // Systematic resampling copies every particle floor(n * weight) or ceil(n * weight) times,
+        // and gives all copies the same weight
+        int[] copies = new int[PARTICLE_COUNT];
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            assertEquals(1.0 / PARTICLE_COUNT, filter.getWeight(i), 1e-15);
+
+            int original = indexOf(initialX, initialY, filter.getParticleX(i), filter.getParticleY(i));
+            assertTrue("Particle " + i + " is not a copy", original >= 0);
+            copies[original]++;
+        }
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            assertEquals("Copies of particle " + i, PARTICLE_COUNT * weights[i], copies[i], 1 + 1e-6);
+        }
+    }
+
+    @Test
+    public void particlesStayWithinTheBuilding() {
+        // A room that covers 1 % of the floor, so some particles cannot be placed within it
+        FloorPlan floorPlan = createFloorPlan(2000, 2000, rectangle(0, 0, 200, 200));
+        ProbabilityGrid grid = createGrid(floorPlan);
+
+        ParticleFilter filter = new ParticleFilter(floorPlan, PARTICLE_COUNT, ParticleFilter.DEFAULT_SEED);
+        double[] estimatedDistances = {1.5, 9, 10};
+        int discarded = 0;
+        for (int scan = 0; scan < 20; scan++) {
+            // The first scan only initializes the filter
+            int beaconCount = scan == 0 ? 0 : COLUMNS.length;
+            assertTrue(filter.update(1000L * scan, grid, COLUMNS, estimatedDistances, beaconCount, 1));
+
+            for (int i = 0; i < PARTICLE_COUNT; i++) {
+                if (filter.getWeight(i) > 0) {
+                    assertTrue("Particle " + i + " of scan " + scan + " is outside",
+                            floorPlan.isInside(filter.getParticleX(i), filter.getParticleY(i)));
+                } else if (scan == 0) {
+                    discarded++;
+                }
+            }
+
+            // The room is convex, so the weighted mean of particles within it lies within it too
+            assertTrue(floorPlan.isInside(filter.getX(), filter.getY()));
+        }
+
+        assertTrue(discarded > 0);
+    }
+
+    @Test
+    public void timeNeverRunsBackwards() {
+        FloorPlan floorPlan = createFloorPlan(1000, 600, rectangle(0, 0, 1000, 600));
+        ProbabilityGrid grid = createGrid(floorPlan);
+        double[] estimatedDistances = {4, 7, 6};
+
+        // A scan older than the last one is treated like a scan at the same time
+        double[] late = replay(floorPlan, grid, estimatedDistances, 0, 1000, 500, 2000);
+        double[] simultaneous = replay(floorPlan, grid, estimatedDistances, 0, 1000, 1000, 2000);
+        assertTrue(Arrays.equals(simultaneous, late));
+
+        // Unknown timestamps follow the previous scan after the default interval
+        double[] unknown = replay(floorPlan, grid, estimatedDistances, 0, -1, -1, 3000);
+        double[] known = replay(floorPlan, grid, estimatedDistances, 0, 1000, 2000, 3000);
+        assertTrue(Arrays.equals(known, unknown));
+    }
+
+    private static double[] replay(FloorPlan floorPlan, ProbabilityGrid grid, double[] estimatedDistances,
+                                   long... timestamps) {
+        ParticleFilter filter = new ParticleFilter(floorPlan, PARTICLE_COUNT, ParticleFilter.DEFAULT_SEED);
+        double[] positions = new double[2 * timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(filter.update(timestamps[i], grid, COLUMNS, estimatedDistances, COLUMNS.length, 1));
+            positions[2 * i] = filter.getX();
+            positions[2 * i + 1] = filter.getY();
+        }
+
+        return positions;
+    }
+
+    private static int indexOf(double[] x, double[] y, double particleX, double particleY) {
+        for (int i = 0; i < x.length; i++) {
+            if (x[i] == particleX && y[i] == particleY) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static FloorPlan createFloorPlan(double width, double height, double[][] room) {
+        List<double[][]> rooms = Collections.singletonList(room);
+        return new FloorPlan(width, height, 10, rooms, Collections.<double[][]>emptyList());
+    }
+
+    private static ProbabilityGrid createGrid(FloorPlan floorPlan) {
+        double[] calibration = new double[DistanceModel.values().length];
+        Arrays.fill(calibration, Double.NaN);
+        BeaconRegistry beaconRegistry = new BeaconRegistry(new long[]{1, 2, 3}, BEACON_X, BEACON_Y,
+                new int[]{BeaconRegistry.NO_TX_POWER, BeaconRegistry.NO_TX_POWER, BeaconRegistry.NO_TX_POWER},
+                calibration, calibration);
+
+        return ProbabilityGrid.create(beaconRegistry, floorPlan, 50);
+    }
+
+    private static double[][] rectangle(double left, double top, double right, double bottom) {
+        return new double[][]{{left, right, right, left}, {top, top, bottom, bottom}};
+    }
+}
@@ -0,0 +1,113 @@
+package positioning;
+
+import model.Beacon;
+import model.Coordinates;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositionProviderTest {
+
+    private static final PositioningMethod[] METHODS = PositioningMethod.values();
+
+    @Test
+    public void batchMatchesScanByScan() {
+        assertBatchMatchesScanByScan(PositioningConfiguration.DEFAULT);
+    }
+
+    @Test
+    public void smoothedBatchMatchesScanByScan() {
+        assertBatchMatchesScanByScan(PositioningConfiguration.DEFAULT.withSmoothPositions(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resultArrayTooSmall() {
+        Site site = Site.getDefault();
+        PositionProvider positionProvider = new PositionProvider(PositioningConfiguration.DEFAULT, site,
+                createDistanceProvider(site));
+        positionProvider.getPositions(createScans(site, 2), METHODS, PositioningConfiguration.DEFAULT,
+                new double[PositionProvider.RESULT_STRIDE * 2 * METHODS.length - 1]);
+    }
+
+    private static void assertBatchMatchesScanByScan(PositioningConfiguration configuration) {
+        Site site = Site.getDefault();
+        List<List<Beacon>> scans = createScans(site, 60);
+
+        // Scan by scan, the caller adds the measurements itself
+        DistanceProvider distanceProvider = createDistanceProvider(site);
+        PositionProvider positionProvider = new PositionProvider(PositioningConfiguration.DEFAULT, site,
+                distanceProvider);
+        double[] expected = new double[PositionProvider.RESULT_STRIDE * scans.size() * METHODS.length];
+        int expectedCount = 0;
+        int index = 0;
+        for (List<Beacon> scan : scans) {
+            distanceProvider.addMeasurements(scan);
+            for (PositioningMethod method : METHODS) {
+                try {
+                    Coordinates position = positionProvider.getPosition(scan, method, configuration);
+                    expected[index] = position.getX();
+                    expected[index + 1] = position.getY();
+                    expected[index + 2] = position.getConfidence();
+                    expectedCount++;
+                } catch (PositioningException e) {
+                    expected[index] = expected[index + 1] = expected[index + 2] = Double.NaN;
+                }
+
+                index += PositionProvider.RESULT_STRIDE;
+            }
+        }
+
+        // The batch adds the measurements to its own session
+        double[] actual = new double[expected.length];
+        int actualCount = new PositionProvider(PositioningConfiguration.DEFAULT, site, createDistanceProvider(site))
+                .getPositions(scans, METHODS, configuration, actual);
+
+        assertEquals(expectedCount, actualCount);
+        assertTrue(actualCount > 0);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Value " + i % PositionProvider.RESULT_STRIDE + " of scan "
+                            + i / (PositionProvider.RESULT_STRIDE * METHODS.length) + " with "
+                            + METHODS[i / PositionProvider.RESULT_STRIDE % METHODS.length],
+                    expected[i], actual[i], 0);
+        }
+    }
+
+    private static DistanceProvider createDistanceProvider(Site site) {
+        return new DistanceProvider(DistanceConfiguration.DEFAULT, new MeasurementStore(site.getBeaconRegistry()));
+    }
+
+    /**
+     * @return Returns scans of a walk through the site, one per second. Most scans detect every
+     * beacon (with noisy RSSI values of a path loss model), some only two beacons or none at all
+     */
+    private static List<List<Beacon>> createScans(Site site, int scanCount) {
+        BeaconRegistry beaconRegistry = site.getBeaconRegistry();
+        FloorPlan floorPlan = site.getFloorPlan();
+        Random random = new Random(11);
+
+        List<List<Beacon>> scans = new ArrayList<>();
+        for (int i = 0; i < scanCount; i++) {
+            double x = floorPlan.getWidth() * (0.2 + 0.6 * i / scanCount);
+            double y = floorPlan.getHeight() * (0.5 + 0.2 * Math.sin(i / 5.0));
+            Date timestamp = new Date(1_600_000_000_000L + 1000L * i);
+
+            List<Beacon> scan = new ArrayList<>();
+            int beaconCount = i % 17 == 16 ? 0 : i % 7 == 6 ? 2 : beaconRegistry.size();
+            for (int id = 0; id < beaconCount; id++) {
+                double distance = Math.max(Math.hypot(x - beaconRegistry.getX(id), y - beaconRegistry.getY(id)), 10);
+                int rssi = (int) Math.round(-59 - 20 * Math.log10(distance / 100) + 3 * random.nextGaussian());
+                scan.add(new Beacon(BeaconRegistry.formatAddress(beaconRegistry.getAddress(id)), rssi, timestamp));
+            }
+
+            scans.add(scan);
+        }
+
+        return scans;
+    }
+}
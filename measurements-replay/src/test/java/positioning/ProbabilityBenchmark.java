@@ -0,0 +1,95 @@
+package positioning;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar and the batched exhaustive search of the probability grid, on the beacon
+ * layout of the replay with all beacons in range.
+ *
+ * Usage: ProbabilityBenchmark [iterations] [block size], on the test class path (it is not part of
+ * the application)
+ */
+public final class ProbabilityBenchmark {
+
+    private static final int INPUT_COUNT = 1024;
+    private static final long SEED = 42;
+
+    private ProbabilityBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+
+        ProbabilityGrid grid = Site.getDefault().getProbabilityGrid();
+        int beaconCount = grid.getBeaconCount();
+        int[] columns = new int[beaconCount];
+        for (int i = 0; i < beaconCount; i++) {
+            columns[i] = i;
+        }
+
+        // Estimated distances up to 12 meters, and pdf sharpness values of the parameter sweep
+        Random random = new Random(SEED);
+        double[][] estimatedDistances = new double[INPUT_COUNT][beaconCount];
+        double[] pdfSharpness = new double[INPUT_COUNT];
+        for (int input = 0; input < INPUT_COUNT; input++) {
+            for (int i = 0; i < beaconCount; i++) {
+                estimatedDistances[input][i] = 0.5 + 11.5 * random.nextDouble();
+            }
+            pdfSharpness[input] = 0.5 * (1 + random.nextInt(7));
+        }
+
+        // Both searches round differently, count the inputs for which they find a different cell
+        double[] denominators = new double[blockSize];
+        int disagreements = 0;
+        for (int input = 0; input < INPUT_COUNT; input++) {
+            int scalarCell = grid.findMostProbableCell(columns, estimatedDistances[input], beaconCount,
+                    pdfSharpness[input]);
+            int batchedCell = grid.findMostProbableCell(columns, estimatedDistances[input], beaconCount,
+                    pdfSharpness[input], denominators);
+            if (scalarCell != batchedCell) {
+                disagreements++;
+            }
+        }
+
+        // Warm up both searches before measuring
+        run(grid, columns, estimatedDistances, pdfSharpness, null, iterations / 4);
+        run(grid, columns, estimatedDistances, pdfSharpness, denominators, iterations / 4);
+
+        long scalarTime = run(grid, columns, estimatedDistances, pdfSharpness, null, iterations);
+        long batchedTime = run(grid, columns, estimatedDistances, pdfSharpness, denominators, iterations);
+
+        System.out.printf("%d cells, %d beacons, %d searches%n", grid.getCellCount(), beaconCount, iterations);
+        System.out.printf("scalar:  %8.1f us/search%n", scalarTime / 1000.0 / iterations);
+        System.out.printf("batched: %8.1f us/search (block size %d)%n", batchedTime / 1000.0 / iterations,
+                blockSize);
+        System.out.printf("speed-up: %.2fx%n", (double) scalarTime / batchedTime);
+        System.out.printf("different cells: %d of %d inputs%n", disagreements, INPUT_COUNT);
+    }
+
+    /**
+     * @return Returns the elapsed time in nanoseconds
+     */
+    private static long run(ProbabilityGrid grid, int[] columns, double[][] estimatedDistances, double[] pdfSharpness,
+                            double[] denominators, int iterations) {
+        int beaconCount = columns.length;
+
+        // Accumulate the found cells, so the searches cannot be optimized away
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            int input = iteration % INPUT_COUNT;
+            checksum += denominators == null
+                    ? grid.findMostProbableCell(columns, estimatedDistances[input], beaconCount, pdfSharpness[input])
+                    : grid.findMostProbableCell(columns, estimatedDistances[input], beaconCount, pdfSharpness[input],
+                    denominators);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+
+        return elapsed;
+    }
+}
@@ -0,0 +1,179 @@
+package positioning;
+
+import model.Coordinates;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrilaterationTest {
+
+    // Beacons in the corners of a 10 x 6 meter room, and one in the middle of a wall
+    private static final double[] BEACON_X = {0, 1000, 1000, 0, 500};
+    private static final double[] BEACON_Y = {0, 0, 600, 600, 600};
+
+    @Test
+    public void lineIntersectionExactRanges() {
+        Random random = new Random(13);
+        for (int i = 0; i < 100; i++) {
+            double x = 1000 * random.nextDouble();
+            double y = 600 * random.nextDouble();
+            double[] r = getRanges(x, y, BEACON_X.length);
+
+            // Every combination of three corners
+            for (int skipped = 0; skipped < 4; skipped++) {
+                int b1 = skipped == 0 ? 1 : 0;
+                int b2 = skipped <= 1 ? 2 : 1;
+                int b3 = skipped <= 2 ? 3 : 2;
+
+                Coordinates result = new Coordinates();
+                assertTrue(Trilateration.lineIntersection(BEACON_X[b1], BEACON_Y[b1], r[b1],
+                        BEACON_X[b2], BEACON_Y[b2], r[b2], BEACON_X[b3], BEACON_Y[b3], r[b3], result));
+                assertEquals(x, result.getX(), 1e-6);
+                assertEquals(y, result.getY(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void lineIntersectionCollinearBeacons() {
+        // Along an axis, and along a diagonal
+        assertLineIntersectionFails(0, 0, 500, 0, 1000, 0);
+        assertLineIntersectionFails(0, 0, 300, 300, 700, 700);
+    }
+
+    @Test
+    public void leastSquaresExactRanges() {
+        Random random = new Random(17);
+        for (int beaconCount = 3; beaconCount <= BEACON_X.length; beaconCount++) {
+            for (int i = 0; i < 100; i++) {
+                // At least half a meter from every beacon (see leastSquaresNextToABeacon)
+                double x = 50 + 900 * random.nextDouble();
+                double y = 50 + 500 * random.nextDouble();
+
+                Coordinates result = new Coordinates();
+                assertTrue(Trilateration.leastSquares(BEACON_X, BEACON_Y, getRanges(x, y, beaconCount), beaconCount,
+                        result));
+                assertEquals(x, result.getX(), 1e-3);
+                assertEquals(y, result.getY(), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void leastSquaresOfThreeBeaconsIntersectsTheLines() {
+        // With noisy ranges (of at least half a meter), three beacons still determine the system
+        // exactly
+        Random random = new Random(19);
+        for (int i = 0; i < 100; i++) {
+            double[] r = getRanges(1000 * random.nextDouble(), 600 * random.nextDouble(), 3);
+            for (int j = 0; j < r.length; j++) {
+                r[j] = Math.max(50, r[j] + 100 * random.nextGaussian());
+            }
+
+            Coordinates lines = new Coordinates();
+            Coordinates leastSquares = new Coordinates();
+            assertTrue(Trilateration.lineIntersection(BEACON_X[0], BEACON_Y[0], r[0], BEACON_X[1], BEACON_Y[1], r[1],
+                    BEACON_X[2], BEACON_Y[2], r[2], lines));
+            assertTrue(Trilateration.leastSquares(BEACON_X, BEACON_Y, r, 3, leastSquares));
+            assertEquals(lines.getX(), leastSquares.getX(), 1e-3);
+            assertEquals(lines.getY(), leastSquares.getY(), 1e-3);
+        }
+    }
+
+    @Test
+    public void leastSquaresNextToABeacon() {
+        // The weight of the nearest beacon exceeds the others by up to eight orders of magnitude.
+        // Depending on the coordinates of the beacon the system is solved (to within a millimeter) or
+        // rejected, but it never yields a position that is off
+        int solvedCount = 0, rejectedCount = 0;
+        for (int beacon = 0; beacon < BEACON_X.length; beacon++) {
+            for (double offset : new double[]{0, 3, 10, 30}) {
+                double x = Math.min(BEACON_X[beacon] + offset, 1000);
+                double y = Math.max(BEACON_Y[beacon] - offset, 0);
+
+                for (int beaconCount = Math.max(3, beacon + 1); beaconCount <= BEACON_X.length; beaconCount++) {
+                    Coordinates result = new Coordinates(-1, -1);
+                    if (Trilateration.leastSquares(BEACON_X, BEACON_Y, getRanges(x, y, beaconCount), beaconCount,
+                            result)) {
+                        assertEquals(x, result.getX(), 0.1);
+                        assertEquals(y, result.getY(), 0.1);
+                        solvedCount++;
+                    } else {
+                        assertEquals(-1, result.getX(), 0);
+                        assertEquals(-1, result.getY(), 0);
+                        rejectedCount++;
+                    }
+                }
+            }
+        }
+
+        assertTrue(solvedCount > 0);
+        assertTrue(rejectedCount > 0);
+    }
+
+    @Test
+    public void leastSquaresOnlyUsesTheGivenBeacons() {
+        double x = 420, y = 170;
+        double[] beaconX = Arrays.copyOf(BEACON_X, 8);
+        double[] beaconY = Arrays.copyOf(BEACON_Y, 8);
+        double[] r = Arrays.copyOf(getRanges(x, y, 4), 8);
+
+        // Leftovers of an earlier, larger scan
+        Arrays.fill(beaconX, 4, 8, 5000);
+        Arrays.fill(beaconY, 4, 8, -5000);
+        Arrays.fill(r, 4, 8, 1);
+
+        Coordinates result = new Coordinates();
+        assertTrue(Trilateration.leastSquares(beaconX, beaconY, r, 4, result));
+        assertEquals(x, result.getX(), 1e-6);
+        assertEquals(y, result.getY(), 1e-6);
+    }
+
+    @Test
+    public void leastSquaresCollinearBeacons() {
+        // Along an axis, and along a diagonal (where the determinant is not exactly zero)
+        assertLeastSquaresFails(new double[]{0, 250, 500, 1000}, new double[]{0, 0, 0, 0});
+        assertLeastSquaresFails(new double[]{0, 100, 300, 700}, new double[]{0, 100, 300, 700});
+
+        // Two beacons do not determine a position either
+        assertLeastSquaresFails(new double[]{0, 1000}, new double[]{0, 600});
+    }
+
+    private static double[] getRanges(double x, double y, int beaconCount) {
+        double[] r = new double[beaconCount];
+        for (int i = 0; i < beaconCount; i++) {
+            r[i] = Math.hypot(x - BEACON_X[i], y - BEACON_Y[i]);
+        }
+
+        return r;
+    }
+
+    private static void assertLineIntersectionFails(double x1, double y1, double x2, double y2, double x3, double y3) {
+        double x = 400, y = 250;
+        Coordinates result = new Coordinates(-1, -1);
+        assertFalse(Trilateration.lineIntersection(x1, y1, Math.hypot(x - x1, y - y1), x2, y2,
+                Math.hypot(x - x2, y - y2), x3, y3, Math.hypot(x - x3, y - y3), result));
+
+        // The holder is left unchanged
+        assertEquals(-1, result.getX(), 0);
+        assertEquals(-1, result.getY(), 0);
+    }
+
+    private static void assertLeastSquaresFails(double[] beaconX, double[] beaconY) {
+        double x = 400, y = 250;
+        double[] r = new double[beaconX.length];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = Math.hypot(x - beaconX[i], y - beaconY[i]);
+        }
+
+        Coordinates result = new Coordinates(-1, -1);
+        assertFalse(Trilateration.leastSquares(beaconX, beaconY, r, r.length, result));
+        assertEquals(-1, result.getX(), 0);
+        assertEquals(-1, result.getY(), 0);
+    }
+}
@@ -0,0 +1,152 @@
+package positioning;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WindowStatisticsTest {
+
+    private static final int CAPACITY = 20;
+
+    @Test
+    public void incrementalStatisticsMatchRecomputation() {
+        Random random = new Random(42);
+        RssiWindow window = new RssiWindow(CAPACITY);
+
+        // Statistics tracked from the start, and statistics that start tracking a filled window
+        window.track(1);
+        window.track(5);
+        window.track(CAPACITY);
+        for (int i = 0; i < 1000; i++) {
+            // Few distinct values, so most windows have several modes
+            window.add(-70 + random.nextInt(6));
+            assertStatistics(window);
+
+            if (i == 7) {
+                window.track(8);
+            } else if (i == 30) {
+                window.track(3);
+            } else if (i == 500) {
+                window.clear();
+                assertStatistics(window);
+            }
+        }
+    }
+
+    @Test
+    public void modeIsFirstValueToReachMaximumFrequency() {
+        RssiWindow window = new RssiWindow(CAPACITY);
+        WindowStatistics statistics = window.track(6);
+
+        for (int rssi : new int[]{-60, -65, -65, -60, -70, -70}) {
+            window.add(rssi);
+        }
+        assertEquals(2, statistics.getMaxCount());
+        assertEquals(-65, statistics.getMode());
+
+        // Values beyond the tracked length do not change the statistics
+        window.add(-60);
+        assertEquals(6, statistics.getCount());
+        assertEquals(-65, statistics.getMode());
+    }
+
+    @Test
+    public void modeFollowsEvictions() {
+        RssiWindow window = new RssiWindow(4);
+        WindowStatistics statistics = window.track(4);
+
+        for (int rssi : new int[]{-50, -50, -60, -60}) {
+            window.add(rssi);
+        }
+        assertEquals(-50, statistics.getMode());
+
+        // The oldest -50 leaves the window, -60 is now the only value that occurs twice
+        window.add(-70);
+        assertEquals(2, statistics.getMaxCount());
+        assertEquals(-60, statistics.getMode());
+
+        // All values occur once
+        window.add(-80);
+        window.add(-90);
+        assertEquals(1, statistics.getMaxCount());
+        assertEquals(-60, statistics.getMode());
+    }
+
+    @Test
+    public void trackingIsSharedAndClampedToCapacity() {
+        RssiWindow window = new RssiWindow(CAPACITY);
+        assertNull(window.getStatistics(5));
+
+        WindowStatistics statistics = window.track(CAPACITY + 10);
+        assertEquals(CAPACITY, statistics.getLength());
+        assertSame(statistics, window.track(CAPACITY));
+        assertSame(statistics, window.getStatistics(CAPACITY + 5));
+    }
+
+    private static void assertStatistics(RssiWindow window) {
+        for (int length : new int[]{1, 3, 5, 8, CAPACITY}) {
+            WindowStatistics statistics = window.getStatistics(length);
+            if (statistics == null) {
+                continue;
+            }
+
+            int count = Math.min(length, window.size());
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = window.get(i);
+            }
+
+            assertEquals(count, statistics.getCount());
+            if (count == 0) {
+                continue;
+            }
+
+            long sum = 0, sumOfSquares = 0;
+            for (int value : values) {
+                sum += value;
+                sumOfSquares += (long) value * value;
+            }
+            assertEquals(sum, statistics.getSum());
+            assertEquals(sumOfSquares, statistics.getSumOfSquares());
+
+            double mean = (double) sum / count;
+            double variance = 0;
+            for (int value : values) {
+                variance += (value - mean) * (value - mean);
+            }
+            variance /= count;
+
+            double incrementalMean = (double) statistics.getSum() / count;
+            double incrementalVariance = (double) (count * statistics.getSumOfSquares()
+                    - statistics.getSum() * statistics.getSum()) / ((double) count * count);
+            assertEquals(mean, incrementalMean, 1e-9);
+            assertEquals(variance, incrementalVariance, 1e-9);
+
+            int[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double median = count % 2 == 0 ? (sorted[count / 2 - 1] + sorted[count / 2]) / 2.0 : sorted[count / 2];
+            assertEquals(median, statistics.getMedian(), 0);
+
+            // Same tie-breaking as the original list-based mode: the first value (oldest to newest)
+            // whose frequency exceeds the maximum so far
+            Map<Integer, Integer> frequencies = new HashMap<>();
+            int mode = values[0], maxCount = 0;
+            for (int value : values) {
+                int frequency = frequencies.merge(value, 1, Integer::sum);
+                if (frequency > maxCount) {
+                    maxCount = frequency;
+                    mode = value;
+                }
+            }
+            assertEquals(maxCount, statistics.getMaxCount());
+            assertEquals(mode, statistics.getMode());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package replay;
+
+import model.Parameters;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import positioning.DistanceMethod;
+import positioning.DistanceModel;
+import positioning.PositioningMethod;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParameterSpaceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void decimalRangesIncludeTheirEnd() throws IOException {
+        ParameterSpace parameterSpace = load("{"
+                + "\"window_sizes\": [1, 5],"
+                + "\"distance_methods\": [\"mean\", \"median\"],"
+                + "\"distance_models\": [{\"model\": \"path_loss\", \"path_loss_exponent\": {\"from\": 1.5, \"to\": 3.5, \"step\": 0.1}}],"
+                + "\"positioning_methods\": [{\"method\": \"weighted_centroid\", \"weight_exponent\": {\"from\": 1, \"to\": 2, \"step\": 0.3}}],"
+                + "\"smoothing\": [false]"
+                + "}");
+
+        // A window size of 1 is only swept once, without a distance method
+        assertEquals(3 * 21, parameterSpace.getDistanceCount());
+        assertEquals(1, parameterSpace.getWindowSize(0));
+        assertNull(parameterSpace.getDistanceMethod(0));
+        assertEquals(DistanceMethod.MEAN, parameterSpace.getDistanceMethod(21));
+        assertEquals(DistanceMethod.MEDIAN, parameterSpace.getDistanceMethod(42));
+
+        // Exact decimal steps, no accumulated rounding errors
+        for (int i = 0; i < 21; i++) {
+            assertEquals(BigDecimal.valueOf(15 + i, 1).doubleValue(), parameterSpace.getPathLossExponent(i), 0);
+        }
+        assertEquals(1.6, parameterSpace.getPathLossExponent(1), 0);
+        assertEquals(3.5, parameterSpace.getPathLossExponent(20), 0);
+
+        // The end is included if a step lands on it, and never exceeded
+        assertEquals(4, parameterSpace.getPositioningCount());
+        assertEquals(1.0, parameterSpace.getWeightExponent(0), 0);
+        assertEquals(1.3, parameterSpace.getWeightExponent(1), 0);
+        assertEquals(1.6, parameterSpace.getWeightExponent(2), 0);
+        assertEquals(1.9, parameterSpace.getWeightExponent(3), 0);
+    }
+
+    @Test
+    public void unusedParametersAndSmoothingOverride() throws IOException {
+        ParameterSpace parameterSpace = load("{"
+                + "\"window_sizes\": 10,"
+                + "\"distance_methods\": [\"mode\"],"
+                + "\"distance_models\": [{\"model\": \"fitted_los\"}],"
+                + "\"positioning_methods\": [{\"method\": \"probability\", \"pdf_sharpness\": [0.5, 2]},"
+                + " {\"method\": \"fingerprint\", \"smoothing\": [false]}],"
+                + "\"smoothing\": [false, true]"
+                + "}");
+
+        assertEquals(1, parameterSpace.getDistanceCount());
+        assertEquals(DistanceModel.FITTED_LOS, parameterSpace.getDistanceModel(0));
+        assertEquals(-1, parameterSpace.getPathLossExponent(0), 0);
+
+        assertEquals(5, parameterSpace.getPositioningCount());
+        assertEquals(PositioningMethod.PROBABILITY, parameterSpace.getPositioningMethod(0));
+        assertEquals(-1, parameterSpace.getWeightExponent(0), 0);
+        assertEquals(0.5, parameterSpace.getPdfSharpness(0), 0);
+        assertFalse(parameterSpace.isSmoothing(0));
+        assertTrue(parameterSpace.isSmoothing(1));
+        assertEquals(2, parameterSpace.getPdfSharpness(3), 0);
+        assertEquals(PositioningMethod.FINGERPRINT, parameterSpace.getPositioningMethod(4));
+        assertFalse(parameterSpace.isSmoothing(4));
+    }
+
+    @Test
+    public void denseIdsRoundTrip() {
+        ParameterSpace parameterSpace = ParameterSpace.createDefault();
+        assertEquals(parameterSpace.getDistanceCount() * parameterSpace.getPositioningCount(), parameterSpace.size());
+
+        Set<Parameters> combinations = new HashSet<>();
+        for (int id = 0; id < parameterSpace.size(); id++) {
+            int distanceIndex = parameterSpace.getDistanceIndex(id);
+            int positioningIndex = parameterSpace.getPositioningIndex(id);
+            assertEquals(id, parameterSpace.getId(distanceIndex, positioningIndex));
+
+            Parameters params = parameterSpace.getParameters(id);
+            assertEquals(parameterSpace.getWindowSize(distanceIndex), params.getWindowSize());
+            assertEquals(parameterSpace.getDistanceMethod(distanceIndex), params.getDistanceMethod());
+            assertEquals(parameterSpace.getDistanceModel(distanceIndex), params.getDistanceModel());
+            assertEquals(parameterSpace.getPathLossExponent(distanceIndex), params.getPathLossExponent(), 0);
+            assertEquals(parameterSpace.getPositioningMethod(positioningIndex), params.getPositioningMethod());
+            assertEquals(parameterSpace.getWeightExponent(positioningIndex), params.getWeightExponent(), 0);
+            assertEquals(parameterSpace.getPdfSharpness(positioningIndex), params.getPdfSharpness(), 0);
+            assertEquals(parameterSpace.isSmoothing(positioningIndex), params.isSmoothing());
+            assertEquals(params.toFileName(), parameterSpace.toFileName(id));
+
+            assertTrue("Duplicate combination " + params, combinations.add(params));
+        }
+
+        // Distance parameter sets of the same window filter are consecutive
+        for (int i = 1; i < parameterSpace.getDistanceCount(); i++) {
+            for (int j = 0; j < i - 1; j++) {
+                if (parameterSpace.isSameFilter(j, i)) {
+                    assertTrue(parameterSpace.isSameFilter(j, i - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void invalidRangesAreRejected() throws IOException {
+        for (String range : new String[]{
+                "{\"from\": 1, \"to\": 2, \"step\": 0}",
+                "{\"from\": 2, \"to\": 1, \"step\": 0.5}",
+                "[]"
+        }) {
+            try {
+                load("{"
+                        + "\"window_sizes\": [1],"
+                        + "\"distance_methods\": [\"mean\"],"
+                        + "\"distance_models\": [{\"model\": \"path_loss\", \"path_loss_exponent\": " + range + "}],"
+                        + "\"positioning_methods\": [{\"method\": \"trilateration\"}],"
+                        + "\"smoothing\": [false]"
+                        + "}");
+                fail("Accepted range " + range);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    private ParameterSpace load(String json) throws IOException {
+        Path path = temporaryFolder.newFile().toPath();
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+
+        return ParameterSpace.load(path);
+    }
+}
@@ -0,0 +1,139 @@
+package replay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceCacheTest {
+
+    private static final String MEASUREMENTS = "["
+            + "{\"beacon_address\":\"20:18:FF:00:40:2D\",\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:03.105Z\",\"rssi\":-78,\"channel\":39},"
+            + "{\"beacon_address\":\"20:18:FF:00:40:2E\",\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:02.601Z\",\"rssi\":-69,\"channel\":38},"
+            + "{\"beacon_address\":\"20:18:FF:00:40:2D\",\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:02.601Z\",\"rssi\":-71,\"channel\":37}"
+            + "]";
+    private static final String POSITIONING = "["
+            + "{\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:04.000Z\",\"x\":670,\"y\":410},"
+            + "{\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:03.000Z\",\"x\":1010,\"y\":310}"
+            + "]";
+    private static final String CHECKPOINTS = "["
+            + "{\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:05.000Z\",\"checkpoint\":5},"
+            + "{\"system.totimestamp(timeuuid)\":\"2021-06-06T13:26:01.000Z\",\"checkpoint\":2}"
+            + "]";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void cachedTraceEqualsParsedTrace() throws IOException {
+        Path traceDirectory = writeTrace(MEASUREMENTS);
+        Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+        TraceCache traceCache = new TraceCache(cacheDirectory);
+
+        TraceData parsed = traceCache.load(traceDirectory);
+        Path cacheFile = cacheDirectory.resolve("trace.bin");
+        assertTrue(Files.isRegularFile(cacheFile));
+
+        // Sources are no longer parsed while the cache file is up to date
+        FileTime cacheModified = Files.getLastModifiedTime(cacheFile);
+        TraceData cached = traceCache.load(traceDirectory);
+        assertEquals(cacheModified, Files.getLastModifiedTime(cacheFile));
+
+        assertTraceEquals(parsed, cached);
+
+        MeasurementTable measurements = cached.getMeasurements();
+        assertEquals(3, measurements.size());
+        assertEquals(Timestamps.parse("2021-06-06T13:26:02.601Z"), measurements.getTimestamp(0));
+        assertEquals("20:18:FF:00:40:2E", measurements.getBeaconAddress(0));
+        assertEquals(-69, measurements.getRssi(0));
+        assertEquals(38, measurements.getChannel(0));
+        assertEquals("20:18:FF:00:40:2D", measurements.getBeaconAddress(1));
+        assertEquals(-71, measurements.getRssi(1));
+        assertEquals(-78, measurements.getRssi(2));
+
+        assertArrayEquals(new long[]{
+                Timestamps.parse("2021-06-06T13:26:03.000Z"),
+                Timestamps.parse("2021-06-06T13:26:04.000Z")
+        }, cached.getPositioningTimestamps());
+        assertEquals(2, cached.getCheckpoints().getCheckpoint(0));
+        assertEquals(5, cached.getCheckpoints().getCheckpoint(1));
+    }
+
+    @Test
+    public void newerSourceInvalidatesCache() throws IOException {
+        Path traceDirectory = writeTrace(MEASUREMENTS);
+        TraceCache traceCache = new TraceCache(temporaryFolder.newFolder("cache").toPath());
+        traceCache.load(traceDirectory);
+
+        // Same size, so only the modification time tells the sources apart
+        Path measurementsFile = traceDirectory.resolve("measurements.json");
+        FileTime modified = Files.getLastModifiedTime(measurementsFile);
+        Files.write(measurementsFile, MEASUREMENTS.replace("-78", "-88").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(measurementsFile, FileTime.fromMillis(modified.toMillis() + 2000));
+
+        MeasurementTable measurements = traceCache.load(traceDirectory).getMeasurements();
+        assertEquals(3, measurements.size());
+        assertEquals(-88, measurements.getRssi(2));
+
+        // The rewritten cache file is up to date again
+        assertEquals(-88, traceCache.load(traceDirectory).getMeasurements().getRssi(2));
+    }
+
+    @Test
+    public void corruptCacheIsRebuilt() throws IOException {
+        Path traceDirectory = writeTrace(MEASUREMENTS);
+        Path cacheDirectory = temporaryFolder.newFolder("cache").toPath();
+        TraceCache traceCache = new TraceCache(cacheDirectory);
+        TraceData parsed = traceCache.load(traceDirectory);
+
+        Path cacheFile = cacheDirectory.resolve("trace.bin");
+        byte[] cache = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(cache, cache.length / 2));
+
+        assertTraceEquals(parsed, traceCache.load(traceDirectory));
+        assertEquals(cache.length, Files.size(cacheFile));
+    }
+
+    private Path writeTrace(String measurements) throws IOException {
+        Path traceDirectory = temporaryFolder.newFolder("trace").toPath();
+        Files.write(traceDirectory.resolve("measurements.json"), measurements.getBytes(StandardCharsets.UTF_8));
+        Files.write(traceDirectory.resolve("trace.json"), POSITIONING.getBytes(StandardCharsets.UTF_8));
+        Files.write(traceDirectory.resolve("checkpoints.json"), CHECKPOINTS.getBytes(StandardCharsets.UTF_8));
+
+        return traceDirectory;
+    }
+
+    private static void assertTraceEquals(TraceData expected, TraceData actual) {
+        MeasurementTable expectedMeasurements = expected.getMeasurements();
+        MeasurementTable actualMeasurements = actual.getMeasurements();
+        assertEquals(expectedMeasurements.size(), actualMeasurements.size());
+        assertEquals(expectedMeasurements.getBeaconCount(), actualMeasurements.getBeaconCount());
+        for (int i = 0; i < expectedMeasurements.size(); i++) {
+            assertEquals(expectedMeasurements.getTimestamp(i), actualMeasurements.getTimestamp(i));
+            assertEquals(expectedMeasurements.getBeaconId(i), actualMeasurements.getBeaconId(i));
+            assertEquals(expectedMeasurements.getBeaconAddress(i), actualMeasurements.getBeaconAddress(i));
+            assertEquals(expectedMeasurements.getRssi(i), actualMeasurements.getRssi(i));
+            assertEquals(expectedMeasurements.getChannel(i), actualMeasurements.getChannel(i));
+        }
+
+        assertArrayEquals(expected.getPositioningTimestamps(), actual.getPositioningTimestamps());
+
+        Checkpoints expectedCheckpoints = expected.getCheckpoints();
+        Checkpoints actualCheckpoints = actual.getCheckpoints();
+        assertEquals(expectedCheckpoints.size(), actualCheckpoints.size());
+        for (int i = 0; i < expectedCheckpoints.size(); i++) {
+            assertEquals(expectedCheckpoints.getTimestamp(i), actualCheckpoints.getTimestamp(i));
+            assertEquals(expectedCheckpoints.getCheckpoint(i), actualCheckpoints.getCheckpoint(i));
+        }
+    }
+}
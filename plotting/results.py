@@ -14,8 +14,9 @@ def split_parameters(filename):
     # Remove .json extension
     parameters_string = filename[:-len('.json')]
 
-    # Split on underscores except if they are followed by 'L', 'N', 'A' or 'C' (LOS, NLOS, AVERAGE, CENTROID)
-    parameters = re.split(r'_(?![LNAC])', parameters_string)
+    # Split on underscores followed by a parameter name, which start with a lowercase letter. Values are uppercase
+    # and may contain underscores themselves (e.g. WEIGHTED_CENTROID, LEAST_SQUARES)
+    parameters = re.split(r'_(?=[a-z])', parameters_string)
 
     # Split by '=' and convert to dictionary
     return dict([parameter_value.split('=') for parameter_value in parameters])
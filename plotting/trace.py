@@ -13,6 +13,60 @@ def read_json(filename):
     return df
 
 
+def read_replayed_traces(filename):
+    """Read the replayed traces written by the binary result sink of the replay (BinaryResultSink)
+
+    Args:
+        filename: Path of the binary file of a single trace (replayed-traces/traceN.bin)
+
+    Returns:
+        Yields the parameters (as in the file names of the JSON output) and the replayed trace of
+        every parameter combination, with the same columns as the JSON output
+
+    """
+
+    import struct
+
+    with open(filename, 'rb') as file:
+        data = file.read()
+
+    # All values are big-endian, as written by Java's DataOutputStream
+    magic, version, positioning_count = struct.unpack_from('>iii', data, 0)
+    if magic != 0x49505352 or version != 1:
+        raise ValueError(f'{filename} is not a replayed traces file (version 1)')
+
+    offset = 12
+    timestamps = np.frombuffer(data, dtype='>i8', count=positioning_count, offset=offset)
+    offset += 8 * positioning_count
+
+    # Same format as the timestamps in the JSON output (used for ground truth interpolation)
+    times = pd.to_datetime(timestamps, unit='ms').strftime('%Y-%m-%dT%H:%M:%S.%f').str[:-3] + 'Z'
+
+    while True:
+        (combination_id,) = struct.unpack_from('>i', data, offset)
+        offset += 4
+        if combination_id == -1:
+            return
+
+        # Modified UTF-8 with a length prefix, the parameters are plain ASCII
+        (length,) = struct.unpack_from('>H', data, offset)
+        parameters = data[offset + 2:offset + 2 + length].decode('utf-8')
+        offset += 2 + length
+
+        (position_count,) = struct.unpack_from('>i', data, offset)
+        offset += 4
+        columns = np.frombuffer(data, dtype='>f8', count=3 * position_count, offset=offset)
+        offset += 24 * position_count
+
+        # The i-th position belongs to the i-th positioning timestamp, if there is one
+        yield parameters, pd.DataFrame({
+            'x': columns[:position_count],
+            'y': columns[position_count:2 * position_count],
+            'confidence': columns[2 * position_count:],
+            'time': list(times[:position_count]) + [None] * (position_count - len(times))
+        })
+
+
 def plot_floor_plan():
     bbox = (0, 1200, 0, 960)
     floor_plan = np.flip(plt.imread('living-room-floor-plan.png'))
@@ -232,61 +286,78 @@ def calculate_percentile_error(trace, ground_truth, percentile):
     return np.percentile(errors, percentile)
 
 
-def evaluate_simulated_traces(base_path, checkpoints_path, ground_truth, filter_by_confidence=False):
+def read_simulated_traces(base_path):
     import os
     import re
 
+    # All replayed traces are stored in a single file when using the binary output of the replay
+    if base_path.endswith('.bin'):
+        for parameters, df_trace in read_replayed_traces(base_path):
+            yield f'{parameters}.json', df_trace
+        return
+
     directory_encoded = os.fsencode(base_path)
     files = os.listdir(directory_encoded)
     files.sort(key=lambda f: int(re.sub(r'\D', '', os.fsdecode(f))))
 
-    trace_errors = []
     for file in files:
         filename = os.fsdecode(file)
         if filename.endswith(".json"):
-            df_trace = pd.read_json(f'{base_path}/{filename}')
-
-            if filter_by_confidence:
-                confidence_threshold = np.mean(df_trace.confidence) - np.std(df_trace.confidence)
-                df_trace = df_trace[(df_trace.confidence > confidence_threshold)]
-
-            trace = list(zip(df_trace.x, df_trace.y))
-
-            # If only a single ground truth coordinate is supplied, use it as a static evaluation
-            if isinstance(ground_truth, tuple) or len(ground_truth) == 1:
-                ground_truth_interpolated = [ground_truth for _ in range(len(trace))]
-            else:
-                df_checkpoints = read_json(checkpoints_path)
-                ground_truth_interpolated = interpolate_ground_truth(df_checkpoints, df_trace, ground_truth)
-
-            mean_error = calculate_mean_error(trace, ground_truth_interpolated)
-            rms_error = calculate_root_mean_square_error(trace, ground_truth_interpolated)
-            median_error = calculate_median_error(trace, ground_truth_interpolated)
-            percentile_75th_error = calculate_percentile_error(trace, ground_truth_interpolated, 75)
-            percentile_90th_error = calculate_percentile_error(trace, ground_truth_interpolated, 90)
-
-            trace_error = {
-                'filename': filename,
-                'mean_error': mean_error,
-                'rms_error': rms_error,
-                'median_error': median_error,
-                'percentile_75th_error': percentile_75th_error,
-                'percentile_90th_error': percentile_90th_error
-            }
-
-            trace_errors.append(trace_error)
+            yield filename, pd.read_json(f'{base_path}/{filename}')
+
+
+def evaluate_simulated_traces(base_path, checkpoints_path, ground_truth, filter_by_confidence=False):
+    trace_errors = []
+    for filename, df_trace in read_simulated_traces(base_path):
+        if filter_by_confidence:
+            confidence_threshold = np.mean(df_trace.confidence) - np.std(df_trace.confidence)
+            df_trace = df_trace[(df_trace.confidence > confidence_threshold)]
+
+        trace = list(zip(df_trace.x, df_trace.y))
+
+        # If only a single ground truth coordinate is supplied, use it as a static evaluation
+        if isinstance(ground_truth, tuple) or len(ground_truth) == 1:
+            ground_truth_interpolated = [ground_truth for _ in range(len(trace))]
+        else:
+            df_checkpoints = read_json(checkpoints_path)
+            ground_truth_interpolated = interpolate_ground_truth(df_checkpoints, df_trace, ground_truth)
+
+        mean_error = calculate_mean_error(trace, ground_truth_interpolated)
+        rms_error = calculate_root_mean_square_error(trace, ground_truth_interpolated)
+        median_error = calculate_median_error(trace, ground_truth_interpolated)
+        percentile_75th_error = calculate_percentile_error(trace, ground_truth_interpolated, 75)
+        percentile_90th_error = calculate_percentile_error(trace, ground_truth_interpolated, 90)
+
+        trace_error = {
+            'filename': filename,
+            'mean_error': mean_error,
+            'rms_error': rms_error,
+            'median_error': median_error,
+            'percentile_75th_error': percentile_75th_error,
+            'percentile_90th_error': percentile_90th_error
+        }
+
+        trace_errors.append(trace_error)
 
     return trace_errors
 
 
-def evaluate_all_traces(ground_truth, filter_by_confidence=False):
+def evaluate_all_traces(ground_truth, filter_by_confidence=False, replayed_traces_path='replayed-traces'):
     import json
+    import os
 
     traces_base_path = 'traces'
     trace_filenames = [f'trace{i}' for i in range(1, 11)]
     for trace_filename in trace_filenames:
         print(trace_filename)
-        trace_parameters_errors = evaluate_simulated_traces(f'{traces_base_path}/{trace_filename}/replayed',
+
+        # Replayed traces are either a single binary file, written by the binary result sink of the
+        # replay (replayed-traces/traceN.bin), or a directory of JSON files
+        replayed_path = f'{replayed_traces_path}/{trace_filename}.bin'
+        if not os.path.exists(replayed_path):
+            replayed_path = f'{traces_base_path}/{trace_filename}/replayed'
+
+        trace_parameters_errors = evaluate_simulated_traces(replayed_path,
                                                             f'{traces_base_path}/{trace_filename}/checkpoints.json',
                                                             ground_truth, filter_by_confidence)
 
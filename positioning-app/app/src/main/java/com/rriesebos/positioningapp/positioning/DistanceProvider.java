@@ -2,7 +2,6 @@ package com.rriesebos.positioningapp.positioning;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.Build;
 import android.util.Log;
 
 import androidx.preference.PreferenceManager;
@@ -14,12 +13,10 @@ import com.rriesebos.positioningapp.model.BeaconInformation;
 
 import org.altbeacon.beacon.Beacon;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -29,21 +26,42 @@ public class DistanceProvider {
 
     private static final String LOG_TAG = DistanceProvider.class.getSimpleName();
 
-    private DistanceModel mDistanceModel = DistanceModel.PATH_LOSS;
-    private DistanceMethod mDistanceMethod = DistanceMethod.MEDIAN;
     // TODO: implement dynamic window size
-    private boolean mUseDynamicWindowSize = false;
-    private int mWindowSize = 5;
-    private double mPathLossExponent = 2;
+    private volatile DistanceConfiguration mConfiguration;
+    private final MeasurementStore mMeasurementStore;
 
     private static DistanceProvider instance;
 
-    private final Map<String, LinkedList<Integer>> mBeaconMeasurementsMap = new HashMap<>();
-    private final Map<String, Integer> txPowerMap = new HashMap<>();
+    private final Map<String, Integer> txPowerMap = new ConcurrentHashMap<>();
+
+    // Distances calculated in the current cache generation, indexed by beacon id. A generation
+    // lasts as long as neither the measurements, the configuration nor the tx power values change
+    private final Object mCacheLock = new Object();
+    private double[] mCachedDistances = new double[16];
+    private int[] mCachedGenerations = new int[16];
+    private int mCacheGeneration = 1;
+    private int mCacheEpoch;
+    private DistanceConfiguration mCacheConfiguration;
 
     private DistanceProvider(Context context) {
+        this(DistanceConfiguration.DEFAULT, new MeasurementStore());
+
         // Initialize parameters from shared preferences
         updateParameters(context);
+    }
+
+    /**
+     * Creates a provider that is not shared through {@link #getInstance(Context)}, e.g. to estimate
+     * the distances of a separate session with its own parameters. The tx power values are
+     * retrieved in the background, as for the shared provider.
+     *
+     * @param configuration Distance parameters, until they are replaced by
+     *                      {@link #updateParameters(Context)}
+     * @param measurementStore Measurements of the session, only added through this provider
+     */
+    public DistanceProvider(DistanceConfiguration configuration, MeasurementStore measurementStore) {
+        mConfiguration = configuration;
+        mMeasurementStore = measurementStore;
 
         // Retrieve beacon tx power information used for distance estimation
         BeaconApi mBeaconApi = RetrofitClient.getBeaconApi();
@@ -62,6 +80,8 @@ public class DistanceProvider {
                 for (BeaconInformation beaconInformation : beaconsInformation) {
                     txPowerMap.put(beaconInformation.getBeaconAddress(), beaconInformation.getTxPower());
                 }
+
+                invalidateDistances();
             }
 
             @Override
@@ -83,65 +103,64 @@ public class DistanceProvider {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 
         String distanceModelName = sharedPreferences.getString(context.getString(R.string.key_distance_model), "path_loss");
-        mDistanceModel = DistanceModel.getDistanceModel(distanceModelName);
+        DistanceModel distanceModel = DistanceModel.getDistanceModel(distanceModelName);
 
         String distanceMethodName = sharedPreferences.getString(context.getString(R.string.key_distance_method), "mean");
-        mDistanceMethod = DistanceMethod.getDistanceMethod(distanceMethodName);
-        mUseDynamicWindowSize = sharedPreferences.getBoolean(context.getString(R.string.key_dynamic_window), false);
-        mWindowSize = sharedPreferences.getInt(context.getString(R.string.key_window_size), 5);
-        mPathLossExponent = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_path_loss_exponent), "2.0"));
+        DistanceMethod distanceMethod = DistanceMethod.getDistanceMethod(distanceMethodName);
+        boolean useDynamicWindowSize = sharedPreferences.getBoolean(context.getString(R.string.key_dynamic_window), false);
+        int windowSize = sharedPreferences.getInt(context.getString(R.string.key_window_size), 5);
+        double pathLossExponent = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_path_loss_exponent), "2.0"));
+
+        // Replace the configuration as a whole, so concurrent readers never observe a partial update
+        mConfiguration = new DistanceConfiguration(distanceModel, distanceMethod, useDynamicWindowSize,
+                windowSize, pathLossExponent);
 
         Log.d(LOG_TAG, "Updated parameters:");
-        Log.d(LOG_TAG, "Distance model: " + mDistanceModel.getName());
-        Log.d(LOG_TAG, "Distance method: " + mDistanceMethod.getName());
-        Log.d(LOG_TAG, "Use dynamic window size: " + mUseDynamicWindowSize);
-        Log.d(LOG_TAG, "Window size: " + mWindowSize);
-        Log.d(LOG_TAG, "Path loss exponent: " + mPathLossExponent);
+        Log.d(LOG_TAG, "Distance model: " + distanceModel.getName());
+        Log.d(LOG_TAG, "Distance method: " + distanceMethod.getName());
+        Log.d(LOG_TAG, "Use dynamic window size: " + useDynamicWindowSize);
+        Log.d(LOG_TAG, "Window size: " + windowSize);
+        Log.d(LOG_TAG, "Path loss exponent: " + pathLossExponent);
     }
 
-    public void addMeasurement(String beaconAddress, int rssi) {
-        LinkedList<Integer> rssiQueue = mBeaconMeasurementsMap.get(beaconAddress);
-
-        if (rssiQueue == null) {
-            rssiQueue = new LinkedList<>();
-        }
+    public DistanceConfiguration getConfiguration() {
+        return mConfiguration;
+    }
 
-        // Remove last value if the limit is reached
-        if (rssiQueue.size() >= mWindowSize) {
-            rssiQueue.remove();
-        }
+    public MeasurementStore getMeasurementStore() {
+        return mMeasurementStore;
+    }
 
-        rssiQueue.add(rssi);
-        mBeaconMeasurementsMap.put(beaconAddress, rssiQueue);
+    public void addMeasurement(String beaconAddress, int rssi) {
+        mMeasurementStore.addMeasurement(beaconAddress, rssi, mConfiguration.getWindowSize());
     }
 
     public void addMeasurements(List<Beacon> beaconList) {
-        for (Beacon beacon : beaconList) {
-            addMeasurement(beacon.getBluetoothAddress(), beacon.getRssi());
-        }
+        mMeasurementStore.addMeasurements(beaconList, mConfiguration.getWindowSize());
     }
 
-    private double getFilteredRssi(Beacon beacon) {
+    private double getFilteredRssi(Beacon beacon, DistanceConfiguration configuration) {
+        RssiWindow rssiList = mMeasurementStore.getMeasurements(beacon.getBluetoothAddress());
         double rssi;
 
-        switch (mDistanceMethod) {
+        switch (configuration.getDistanceMethod()) {
             case MEAN:
             case AVERAGE:
                 // Calculate average value of the last {WINDOW_SIZE} RSSI measurements to decrease variance
-                rssi = calculateAverage(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()));
+                rssi = calculateAverage(rssiList);
                 break;
             case MEDIAN:
                 // Calculate median of the last {WINDOW_SIZE} RSSI measurements to account for outliers
-                rssi = calculateMedian(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()));
+                rssi = calculateMedian(rssiList);
                 break;
             case MODE:
                 // Calculate mode of the last {WINDOW_SIZE} RSSI measurements to account for outliers
-                rssi = calculateMode(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()));
+                rssi = calculateMode(rssiList);
 
                 // Use median of no mode exists (all values occur only once)
                 if (rssi == 1) {
                     Log.d(LOG_TAG, "No mode exists, using median");
-                    return calculateMedian(mBeaconMeasurementsMap.get(beacon.getBluetoothAddress()));
+                    return calculateMedian(rssiList);
                 }
                 break;
             default:
@@ -153,16 +172,64 @@ public class DistanceProvider {
     }
 
     public double getDistance(Beacon beacon) {
+        return getDistance(beacon, mConfiguration);
+    }
+
+    /**
+     * Distances are cached until measurements are added, or a different configuration is used, so
+     * repeated lookups for the same scan do not filter the window again.
+     */
+    public double getDistance(Beacon beacon, DistanceConfiguration configuration) {
+        int beaconId = mMeasurementStore.getBeaconId(beacon.getBluetoothAddress());
+        if (beaconId < 0) {
+            return calculateDistance(beacon, configuration);
+        }
+
+        synchronized (mCacheLock) {
+            int epoch = mMeasurementStore.getEpoch();
+            if (epoch != mCacheEpoch || configuration != mCacheConfiguration) {
+                // Start a new generation, invalidating all cached distances
+                mCacheEpoch = epoch;
+                mCacheConfiguration = configuration;
+                mCacheGeneration++;
+            }
+
+            if (beaconId >= mCachedDistances.length) {
+                int length = Math.max(2 * mCachedDistances.length, beaconId + 1);
+                mCachedDistances = Arrays.copyOf(mCachedDistances, length);
+                mCachedGenerations = Arrays.copyOf(mCachedGenerations, length);
+            }
+
+            if (mCachedGenerations[beaconId] == mCacheGeneration) {
+                return mCachedDistances[beaconId];
+            }
+
+            double distance = calculateDistance(beacon, configuration);
+            mCachedDistances[beaconId] = distance;
+            mCachedGenerations[beaconId] = mCacheGeneration;
+
+            return distance;
+        }
+    }
+
+    private void invalidateDistances() {
+        synchronized (mCacheLock) {
+            mCacheGeneration++;
+        }
+    }
+
+    private double calculateDistance(Beacon beacon, DistanceConfiguration configuration) {
         // Use calibrated tx power if available, else fallback to received tx power value
         Integer txPower = txPowerMap.get(beacon.getBluetoothAddress());
         if (txPower == null) {
             txPower = beacon.getTxPower();
         }
 
-        double rssi = getFilteredRssi(beacon);
-        switch (mDistanceModel) {
+        double pathLossExponent = configuration.getPathLossExponent();
+        double rssi = getFilteredRssi(beacon, configuration);
+        switch (configuration.getDistanceModel()) {
             case PATH_LOSS:
-                return Math.pow(10, (txPower - rssi) / (10 * mPathLossExponent));
+                return Math.pow(10, (txPower - rssi) / (10 * pathLossExponent));
             case FITTED_AVERAGE:
                 return Math.exp((rssi + 71.317) / -5.094);
             case FITTED_LOS:
@@ -172,67 +239,36 @@ public class DistanceProvider {
         }
 
         // Default to log distance path loss model
-        return Math.pow(10, (txPower - rssi) / (10 * mPathLossExponent));
+        return Math.pow(10, (txPower - rssi) / (10 * pathLossExponent));
     }
 
-    private double calculateAverage(LinkedList<Integer> rssiList) {
-        double average = 0.0;
+    private double calculateAverage(RssiWindow rssiList) {
         if (rssiList == null || rssiList.isEmpty()) {
-            return average;
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            average = rssiList.stream().mapToDouble(val -> val).average().orElse(0.0);
-        } else {
-            for (Integer rssiValue : rssiList) {
-                average += rssiValue;
-            }
-
-            average /= rssiList.size();
+            return 0.0;
         }
 
-        return average;
+        return rssiList.getStatistics().getSum() / (double) rssiList.size();
     }
 
-    private double calculateMedian(LinkedList<Integer> rssiList) {
+    private double calculateMedian(RssiWindow rssiList) {
         if (rssiList == null || rssiList.isEmpty()) {
             return 0.0;
         }
 
-        List<Integer> sortedList = new ArrayList<>(rssiList);
-        Collections.sort(sortedList);
-
-        int middle = sortedList.size() / 2;
-        if (sortedList.size() > 0 && sortedList.size() % 2 == 0) {
-            return (sortedList.get(middle - 1) + sortedList.get(middle)) / 2.0;
-        }
-
-        return sortedList.get(middle);
+        return rssiList.getStatistics().getMedian();
     }
 
-    private int calculateMode(LinkedList<Integer> rssiList) {
+    private int calculateMode(RssiWindow rssiList) {
         if (rssiList == null || rssiList.isEmpty()) {
             return 0;
         }
 
-        Map<Integer, Integer> frequencies = new HashMap<>();
-
-        int mode = rssiList.get(0), maxCount = 0;
-        for (Integer rssiValue : rssiList) {
-            int count = frequencies.get(rssiValue) == null ? 1 : frequencies.get(rssiValue) + 1;
-            frequencies.put(rssiValue, count);
-
-            if (count > maxCount) {
-                maxCount = count;
-                mode = rssiValue;
-            }
-        }
-
-        if (maxCount == 1) {
+        WindowStatistics statistics = rssiList.getStatistics();
+        if (statistics.getMaxCount() == 1) {
             return 1;
         }
 
-        return mode;
+        return statistics.getMode();
     }
 
     /**
@@ -243,19 +279,18 @@ public class DistanceProvider {
     private double getDeviationConfidence(List<Beacon> beaconList) {
         double confidence = 0;
         for (Beacon beacon : beaconList) {
-            LinkedList<Integer> rssiList = mBeaconMeasurementsMap.get(beacon.getBluetoothAddress());
+            RssiWindow rssiList = mMeasurementStore.getMeasurements(beacon.getBluetoothAddress());
             if (rssiList == null) {
                 continue;
             }
 
-            double mean = calculateAverage(rssiList);
-            double standardDeviation = 0;
-            for (Integer rssi : rssiList) {
-                standardDeviation += Math.pow(rssi - mean, 2);
-            }
+            // Variance from the running sums: (n * sum of squares - sum^2) / n^2
+            WindowStatistics statistics = rssiList.getStatistics();
+            long count = statistics.getCount();
+            long sum = statistics.getSum();
+            double variance = (double) (count * statistics.getSumOfSquares() - sum * sum) / (count * count);
+            double standardDeviation = Math.sqrt(variance);
 
-            standardDeviation = Math.sqrt(standardDeviation / rssiList.size());
-            
             confidence += standardDeviation;
         }
 
@@ -268,7 +303,7 @@ public class DistanceProvider {
      * @param beaconList List of beacons involved in the calculation
      * @return Returns the confidence score based on the filtered distance to the beacons
      */
-    private double getDistanceConfidence(List<Beacon> beaconList) {
+    private double getDistanceConfidence(List<Beacon> beaconList, DistanceConfiguration configuration) {
         // TODO: make range configurable, if other beacon models are going to be introduced
         int minimumRSSI = -100, maximumRSSI = -40;
         double slope = 1.0 / (maximumRSSI - minimumRSSI);
@@ -276,7 +311,7 @@ public class DistanceProvider {
 
         double averageRSSI = 0;
         for (Beacon beacon : beaconList) {
-            double rssi = getFilteredRssi(beacon);
+            double rssi = getFilteredRssi(beacon, configuration);
             averageRSSI += rssi;
         }
 
@@ -287,12 +322,16 @@ public class DistanceProvider {
     }
 
     public double getConfidence(List<Beacon> beaconList) {
+        return getConfidence(beaconList, mConfiguration);
+    }
+
+    public double getConfidence(List<Beacon> beaconList, DistanceConfiguration configuration) {
         if (beaconList.size() < 3) {
             return 0;
         }
 
         double deviationConfidence = getDeviationConfidence(beaconList);
-        double distanceConfidence = getDistanceConfidence(beaconList);
+        double distanceConfidence = getDistanceConfidence(beaconList, configuration);
 
         Log.d(LOG_TAG, "deviation conf: " + deviationConfidence + ", distance conf: " + distanceConfidence);
 
@@ -0,0 +1,157 @@
+package com.rriesebos.positioningapp.positioning;
+
+import com.rriesebos.positioningapp.model.Coordinates;
+
+/**
+ * Constant velocity Kalman filter that smooths estimated positions. Both axes follow the same model
+ * (a random walk of the velocity, driven by white acceleration noise, and a position measurement
+ * with fixed noise), so they share a single 2x2 covariance matrix.
+ *
+ * A filter holds the state of a single session, and should only be used by one thread at a time.
+ */
+public final class KalmanFilter {
+
+    // Standard deviation of the acceleration, in centimeters per second squared
+    public static final double DEFAULT_ACCELERATION_NOISE = 200;
+    // Standard deviation of an estimated position, in centimeters
+    public static final double DEFAULT_MEASUREMENT_NOISE = 100;
+
+    // Standard deviation of the velocity when the filter starts, in centimeters per second
+    private static final double INITIAL_VELOCITY_NOISE = 100;
+    // Time between positions (in milliseconds) assumed when the timestamps are unknown
+    private static final long DEFAULT_INTERVAL = 1000;
+    // Time without positions (in milliseconds) after which the filter starts over
+    private static final long MAX_INTERVAL = 10000;
+
+    private final double mAccelerationVariance;
+    private final double mMeasurementVariance;
+
+    private boolean mInitialized;
+    private long mTimestamp;
+
+    // State (position and velocity) of both axes
+    private double mX, mVelocityX;
+    private double mY, mVelocityY;
+
+    // Covariance of the position and velocity, the same for both axes
+    private double mPositionVariance, mCovariance, mVelocityVariance;
+
+    public KalmanFilter() {
+        this(DEFAULT_ACCELERATION_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    /**
+     * @param accelerationNoise Standard deviation of the acceleration, in centimeters per second
+     *                          squared
+     * @param measurementNoise Standard deviation of an estimated position, in centimeters
+     */
+    public KalmanFilter(double accelerationNoise, double measurementNoise) {
+        mAccelerationVariance = accelerationNoise * accelerationNoise;
+        mMeasurementVariance = measurementNoise * measurementNoise;
+    }
+
+    /**
+     * Forgets the tracked position, the next position is used as is.
+     */
+    public void reset() {
+        mInitialized = false;
+    }
+
+    /**
+     * @param position Estimated position
+     * @param timestamp Time of the estimate in milliseconds, or -1 if unknown
+     * @return Returns a new smoothed position. Its confidence is the average of the confidence of
+     * the estimate, and a confidence based on the standard deviation of the filtered position
+     */
+    public Coordinates smooth(Coordinates position, long timestamp) {
+        update(position.getX(), position.getY(), timestamp);
+
+        Coordinates smoothedPosition = new Coordinates(mX, mY);
+
+        // Same form as the confidence based on the RSSI deviation, with the deviation in meters
+        double positionConfidence = Math.exp(-Math.sqrt(mPositionVariance) / 100);
+        smoothedPosition.setConfidence((position.getConfidence() + positionConfidence) / 2);
+
+        return smoothedPosition;
+    }
+
+    /**
+     * @param x Estimated x coordinate in centimeters
+     * @param y Estimated y coordinate in centimeters
+     * @param timestamp Time of the estimate in milliseconds, or -1 if unknown (the estimate is then
+     *                  assumed to follow the previous one after a second)
+     */
+    public void update(double x, double y, long timestamp) {
+        // A position that is not newer than the last one only corrects the state, time never runs
+        // backwards
+        long interval;
+        if (timestamp >= 0) {
+            interval = Math.max(timestamp - mTimestamp, 0);
+            mTimestamp = Math.max(timestamp, mTimestamp);
+        } else {
+            interval = DEFAULT_INTERVAL;
+            mTimestamp += DEFAULT_INTERVAL;
+        }
+
+        if (!mInitialized || interval > MAX_INTERVAL) {
+            if (timestamp >= 0) {
+                mTimestamp = timestamp;
+            }
+
+            mX = x;
+            mY = y;
+            mVelocityX = 0;
+            mVelocityY = 0;
+
+            mPositionVariance = mMeasurementVariance;
+            mCovariance = 0;
+            mVelocityVariance = INITIAL_VELOCITY_NOISE * INITIAL_VELOCITY_NOISE;
+
+            mInitialized = true;
+            return;
+        }
+
+        // Predict, with the process noise of a constant acceleration during the interval
+        double dt = interval / 1000.0;
+        double dt2 = dt * dt;
+
+        mX += dt * mVelocityX;
+        mY += dt * mVelocityY;
+
+        mPositionVariance += 2 * dt * mCovariance + dt2 * mVelocityVariance + mAccelerationVariance * dt2 * dt2 / 4;
+        mCovariance += dt * mVelocityVariance + mAccelerationVariance * dt2 * dt / 2;
+        mVelocityVariance += mAccelerationVariance * dt2;
+
+        // Correct with the measured position
+        double innovationVariance = mPositionVariance + mMeasurementVariance;
+        double positionGain = mPositionVariance / innovationVariance;
+        double velocityGain = mCovariance / innovationVariance;
+
+        double innovationX = x - mX;
+        double innovationY = y - mY;
+        mX += positionGain * innovationX;
+        mY += positionGain * innovationY;
+        mVelocityX += velocityGain * innovationX;
+        mVelocityY += velocityGain * innovationY;
+
+        mVelocityVariance -= velocityGain * mCovariance;
+        mPositionVariance *= 1 - positionGain;
+        mCovariance *= 1 - positionGain;
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    /**
+     * @return Returns the variance of the filtered position along a single axis, in square
+     * centimeters
+     */
+    public double getPositionVariance() {
+        return mPositionVariance;
+    }
+}
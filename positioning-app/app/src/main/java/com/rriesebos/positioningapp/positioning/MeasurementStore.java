@@ -0,0 +1,102 @@
+package com.rriesebos.positioningapp.positioning;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sliding windows of the most recent RSSI measurements per beacon, belonging to a single
+ * positioning session. Every beacon gets a dense id when it is first measured, windows are stored
+ * in an array indexed by that id. A store is not synchronized: it can be read concurrently by any
+ * number of providers, as long as measurements are not added at the same time.
+ */
+public class MeasurementStore {
+
+    // Maximum window size that can be configured in the settings
+    public static final int MAX_WINDOW_SIZE = 20;
+
+    private final Map<String, Integer> mBeaconIds = new HashMap<>();
+    private RssiWindow[] mWindows = new RssiWindow[16];
+
+    // Incremented whenever measurements are added or removed, used to invalidate cached distances
+    private volatile int mEpoch;
+
+    public void addMeasurement(String beaconAddress, int rssi, int windowSize) {
+        RssiWindow rssiQueue = mWindows[getOrCreateBeaconId(beaconAddress)];
+
+        // Remove last value if the limit is reached
+        if (rssiQueue.size() >= windowSize) {
+            rssiQueue.removeOldest();
+        }
+
+        rssiQueue.add(rssi);
+        mEpoch++;
+    }
+
+    public void addMeasurements(List<Beacon> beaconList, int windowSize) {
+        for (Beacon beacon : beaconList) {
+            addMeasurement(beacon.getBluetoothAddress(), beacon.getRssi(), windowSize);
+        }
+    }
+
+    /**
+     * @return Returns a number that changes whenever the measurements in this store change
+     */
+    public int getEpoch() {
+        return mEpoch;
+    }
+
+    private int getOrCreateBeaconId(String beaconAddress) {
+        Integer beaconId = mBeaconIds.get(beaconAddress);
+        if (beaconId != null) {
+            return beaconId;
+        }
+
+        int newId = mBeaconIds.size();
+        if (newId == mWindows.length) {
+            mWindows = Arrays.copyOf(mWindows, 2 * mWindows.length);
+        }
+
+        mWindows[newId] = new RssiWindow(MAX_WINDOW_SIZE);
+        mBeaconIds.put(beaconAddress, newId);
+
+        return newId;
+    }
+
+    /**
+     * @param beaconAddress Bluetooth address of the beacon
+     * @return Returns the id of the beacon in this store, or -1 if the beacon has not been measured
+     * in this session
+     */
+    public int getBeaconId(String beaconAddress) {
+        Integer beaconId = mBeaconIds.get(beaconAddress);
+        return beaconId == null ? -1 : beaconId;
+    }
+
+    /**
+     * @param beaconId Id of the beacon in this store
+     * @return Returns the RSSI window of the beacon (oldest measurement first)
+     */
+    public RssiWindow getMeasurements(int beaconId) {
+        return mWindows[beaconId];
+    }
+
+    /**
+     * @param beaconAddress Bluetooth address of the beacon
+     * @return Returns the RSSI window of the beacon (oldest measurement first), or null if the
+     * beacon has not been measured in this session
+     */
+    public RssiWindow getMeasurements(String beaconAddress) {
+        Integer beaconId = mBeaconIds.get(beaconAddress);
+        return beaconId == null ? null : mWindows[beaconId];
+    }
+
+    public void clear() {
+        mBeaconIds.clear();
+        Arrays.fill(mWindows, null);
+        mEpoch++;
+    }
+}
@@ -0,0 +1,201 @@
+package com.rriesebos.positioningapp.positioning;
+
+import java.util.Arrays;
+
+/**
+ * Solver for weighted nonlinear least squares multilateration: finds the position that minimizes
+ * the sum of w_i * (|p - b_i| - r_i)^2 over all beacons, where b_i are the beacon coordinates and
+ * r_i the estimated distances. Ranges are weighted by 1 / r_i^2, as the error of an RSSI based
+ * distance grows with the distance.
+ *
+ * Every iteration is a Newton step, damped in Levenberg-Marquardt fashion whenever the Hessian is
+ * not positive definite or the step does not decrease the cost. The system is only 2x2, so an
+ * iteration is a single pass over the beacons. Started from the previous position, the solver
+ * typically converges in two or three iterations. A solver keeps scratch space, and should only be
+ * used by one thread at a time.
+ */
+public final class MultilaterationSolver {
+
+    public static final int DEFAULT_MAX_ITERATIONS = 20;
+
+    // Step size (in centimeters) below which the solver has converged
+    public static final double DEFAULT_TOLERANCE = 1;
+
+    // Ranges are clamped to this value (in centimeters) when weighting, to bound the weights
+    private static final double MIN_WEIGHTED_RANGE = 10;
+
+    private static final double INITIAL_DAMPING = 1e-3;
+    private static final double MAX_DAMPING = 1e10;
+
+    private final int mMaxIterations;
+    private final double mTolerance;
+
+    private double[] mBeaconX = new double[16];
+    private double[] mBeaconY = new double[16];
+    private double[] mRanges = new double[16];
+    private double[] mWeights = new double[16];
+    private int mBeaconCount;
+
+    private double mX, mY;
+    private int mIterationCount;
+
+    public MultilaterationSolver() {
+        this(DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE);
+    }
+
+    public MultilaterationSolver(int maxIterations, double tolerance) {
+        mMaxIterations = maxIterations;
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Removes all beacons, to start a new problem.
+     */
+    public void clear() {
+        mBeaconCount = 0;
+    }
+
+    /**
+     * @param x X coordinate of the beacon in centimeters
+     * @param y Y coordinate of the beacon in centimeters
+     * @param range Estimated distance to the beacon in centimeters
+     */
+    public void addBeacon(double x, double y, double range) {
+        if (mBeaconCount == mBeaconX.length) {
+            int length = 2 * mBeaconCount;
+            mBeaconX = Arrays.copyOf(mBeaconX, length);
+            mBeaconY = Arrays.copyOf(mBeaconY, length);
+            mRanges = Arrays.copyOf(mRanges, length);
+            mWeights = Arrays.copyOf(mWeights, length);
+        }
+
+        double weightedRange = Math.max(range, MIN_WEIGHTED_RANGE);
+
+        mBeaconX[mBeaconCount] = x;
+        mBeaconY[mBeaconCount] = y;
+        mRanges[mBeaconCount] = range;
+        mWeights[mBeaconCount] = 1 / (weightedRange * weightedRange);
+        mBeaconCount++;
+    }
+
+    public int getBeaconCount() {
+        return mBeaconCount;
+    }
+
+    /**
+     * @param initialX X coordinate of the initial guess in centimeters
+     * @param initialY Y coordinate of the initial guess in centimeters
+     * @return Returns whether a solution was found, which is then available through {@link #getX()}
+     * and {@link #getY()}. If the solver did not converge within the maximum number of iterations,
+     * the best position so far is returned
+     */
+    public boolean solve(double initialX, double initialY) {
+        mIterationCount = 0;
+
+        double x = initialX, y = initialY;
+        double cost = getCost(x, y);
+        if (mBeaconCount == 0 || Double.isNaN(cost) || Double.isInfinite(cost)) {
+            return false;
+        }
+
+        double damping = INITIAL_DAMPING;
+        while (mIterationCount < mMaxIterations) {
+            mIterationCount++;
+
+            // Newton step H * step = -g for the cost sum of w_i * f_i^2 / 2, with the residuals
+            // f_i = |p - b_i| - r_i. Next to the Gauss-Newton term J^T W J, the Hessian includes the
+            // curvature of the residuals, w_i * f_i / d_i * (I - u_i u_i^T), which makes the solver
+            // converge quickly when the ranges are inconsistent (large residuals)
+            double h11 = 0, h12 = 0, h22 = 0, g1 = 0, g2 = 0;
+            double scale = 0;
+            for (int i = 0; i < mBeaconCount; i++) {
+                double dx = x - mBeaconX[i];
+                double dy = y - mBeaconY[i];
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if (distance == 0) {
+                    // The gradient is undefined at the beacon itself
+                    continue;
+                }
+
+                double ux = dx / distance;
+                double uy = dy / distance;
+                double weight = mWeights[i];
+                double residual = distance - mRanges[i];
+
+                double curvature = weight * residual / distance;
+
+                h11 += weight * ux * ux + curvature * (1 - ux * ux);
+                h12 += weight * ux * uy - curvature * ux * uy;
+                h22 += weight * uy * uy + curvature * (1 - uy * uy);
+                g1 += weight * ux * residual;
+                g2 += weight * uy * residual;
+                scale += weight;
+            }
+
+            // Increase the damping until the damped Hessian is positive definite, and a step
+            // decreases the cost
+            scale /= mBeaconCount;
+            double stepX = 0, stepY = 0;
+            boolean improved = false;
+            while (!improved && damping <= MAX_DAMPING && scale > 0) {
+                double a11 = h11 + damping * scale;
+                double a22 = h22 + damping * scale;
+                double determinant = a11 * a22 - h12 * h12;
+                if (a11 <= 0 || determinant <= 0) {
+                    damping *= 10;
+                    continue;
+                }
+
+                stepX = -(a22 * g1 - h12 * g2) / determinant;
+                stepY = -(a11 * g2 - h12 * g1) / determinant;
+
+                double newCost = getCost(x + stepX, y + stepY);
+                if (newCost < cost) {
+                    x += stepX;
+                    y += stepY;
+                    cost = newCost;
+                    damping = Math.max(damping / 10, INITIAL_DAMPING * 1e-3);
+                    improved = true;
+                } else {
+                    damping *= 10;
+                }
+            }
+
+            if (!improved || Math.hypot(stepX, stepY) < mTolerance) {
+                break;
+            }
+        }
+
+        mX = x;
+        mY = y;
+        return true;
+    }
+
+    private double getCost(double x, double y) {
+        double cost = 0;
+        for (int i = 0; i < mBeaconCount; i++) {
+            double dx = x - mBeaconX[i];
+            double dy = y - mBeaconY[i];
+            double residual = Math.sqrt(dx * dx + dy * dy) - mRanges[i];
+
+            cost += mWeights[i] * residual * residual;
+        }
+
+        return cost;
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    /**
+     * @return Returns the number of iterations of the last solve
+     */
+    public int getIterationCount() {
+        return mIterationCount;
+    }
+}
@@ -3,6 +3,7 @@ package com.rriesebos.positioningapp.positioning;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.preference.PreferenceManager;
@@ -15,12 +16,13 @@ import com.rriesebos.positioningapp.model.Coordinates;
 
 import org.altbeacon.beacon.Beacon;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -30,21 +32,52 @@ public final class PositionProvider {
 
     private static final String LOG_TAG = PositionProvider.class.getSimpleName();
 
-    private boolean mAllowLessThanThreeBeacons = false;
-    private PositioningMethod mDefaultPositioningMethod = PositioningMethod.WEIGHTED_CENTROID;
-    private double mWeightExponent = 1.0;
-    private double mPdfSharpness = 0.5;
+    private volatile PositioningConfiguration mConfiguration;
 
     private static PositionProvider instance;
 
-    private final Map<String, Coordinates> mBeaconCoordinatesMap = new HashMap<>();
+    private final Map<String, Coordinates> mBeaconCoordinatesMap = new ConcurrentHashMap<>();
     private final DistanceProvider mDistanceProvider;
 
+    // Rebuilt whenever the beacon coordinates are updated
+    private volatile ProbabilityGrid mProbabilityGrid;
+
+    // Scratch space of the probability based method, guarded by this provider
+    private int[] mGridColumns = new int[16];
+    private double[] mGridDistances = new double[16];
+
+    // Scratch space of the least squares trilateration, guarded by this provider
+    private double[] mSolverX = new double[16];
+    private double[] mSolverY = new double[16];
+    private double[] mSolverRanges = new double[16];
+
+    // Scratch space and previous fix of the multilateration method, guarded by this provider
+    private final MultilaterationSolver mMultilaterationSolver = new MultilaterationSolver();
+    private boolean mHasMultilaterationFix;
+    private double mMultilaterationX, mMultilaterationY;
+
+    // Position smoothing of every positioning method, created on first use, guarded by this provider
+    private final KalmanFilter[] mKalmanFilters = new KalmanFilter[PositioningMethod.values().length];
+
     private PositionProvider(Context context) {
+        this(PositioningConfiguration.DEFAULT, DistanceProvider.getInstance(context));
+
         // Initialize parameters from shared preferences
         updateParameters(context);
+    }
 
-        mDistanceProvider = DistanceProvider.getInstance(context);
+    /**
+     * Creates a provider that is not shared through {@link #getInstance(Context)}, e.g. to position
+     * a separate session with its own parameters. The beacon coordinates are retrieved in the
+     * background, as for the shared provider.
+     *
+     * @param configuration Positioning parameters, until they are replaced by
+     *                      {@link #updateParameters(Context)}
+     * @param distanceProvider Provider of the distances of the session, with its own measurements
+     */
+    public PositionProvider(PositioningConfiguration configuration, DistanceProvider distanceProvider) {
+        mConfiguration = configuration;
+        mDistanceProvider = distanceProvider;
 
         // Retrieve beacon coordinates
         BeaconApi mBeaconApi = RetrofitClient.getBeaconApi();
@@ -63,6 +96,8 @@ public final class PositionProvider {
                 for (BeaconInformation beaconInformation : beaconsInformation) {
                     mBeaconCoordinatesMap.put(beaconInformation.getBeaconAddress(), beaconInformation.getCoordinates());
                 }
+
+                mProbabilityGrid = ProbabilityGrid.create(mBeaconCoordinatesMap);
             }
 
             @Override
@@ -84,16 +119,26 @@ public final class PositionProvider {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 
         String positioningMethodName = sharedPreferences.getString(context.getString(R.string.key_positioning_method), "weighted_centroid");
-        mDefaultPositioningMethod = PositioningMethod.getPositioningMethod(positioningMethodName);
-        mAllowLessThanThreeBeacons = sharedPreferences.getBoolean(context.getString(R.string.key_allow_less_than_three_beacons), false);
-        mWeightExponent = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_weight_exponent), "1.0"));
-        mPdfSharpness = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_pdf_sharpness), "0.5"));
+        PositioningMethod defaultPositioningMethod = PositioningMethod.getPositioningMethod(positioningMethodName);
+        boolean allowLessThanThreeBeacons = sharedPreferences.getBoolean(context.getString(R.string.key_allow_less_than_three_beacons), false);
+        double weightExponent = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_weight_exponent), "1.0"));
+        double pdfSharpness = Float.parseFloat(sharedPreferences.getString(context.getString(R.string.key_pdf_sharpness), "0.5"));
+        boolean smoothPositions = sharedPreferences.getBoolean(context.getString(R.string.key_smooth_positions), false);
+
+        // Replace the configuration as a whole, so concurrent readers never observe a partial update
+        mConfiguration = new PositioningConfiguration(defaultPositioningMethod, weightExponent,
+                pdfSharpness, allowLessThanThreeBeacons, smoothPositions);
 
         Log.d(LOG_TAG, "Updated parameters:");
-        Log.d(LOG_TAG, "Default positioning method: " + mDefaultPositioningMethod.getName());
-        Log.d(LOG_TAG, "Weight function exponent: " + mWeightExponent);
-        Log.d(LOG_TAG, "Probability density function sharpness: " + mPdfSharpness);
-        Log.d(LOG_TAG, "Allow less than three beacons: " + mAllowLessThanThreeBeacons);
+        Log.d(LOG_TAG, "Default positioning method: " + defaultPositioningMethod.getName());
+        Log.d(LOG_TAG, "Weight function exponent: " + weightExponent);
+        Log.d(LOG_TAG, "Probability density function sharpness: " + pdfSharpness);
+        Log.d(LOG_TAG, "Allow less than three beacons: " + allowLessThanThreeBeacons);
+        Log.d(LOG_TAG, "Smooth positions: " + smoothPositions);
+    }
+
+    public PositioningConfiguration getConfiguration() {
+        return mConfiguration;
     }
 
     private Coordinates getCoordinates(Beacon beacon) {
@@ -101,15 +146,42 @@ public final class PositionProvider {
     }
 
     public Coordinates getPosition(List<Beacon> beaconList) throws PositioningException {
-        return getPosition(beaconList, mDefaultPositioningMethod);
+        PositioningConfiguration configuration = mConfiguration;
+        return getPosition(beaconList, configuration.getDefaultPositioningMethod(), configuration);
     }
 
     public Coordinates getPosition(List<Beacon> beaconList, PositioningMethod method) throws PositioningException {
+        return getPosition(beaconList, method, mConfiguration);
+    }
+
+    public Coordinates getPosition(List<Beacon> beaconList, PositioningMethod method,
+                                   PositioningConfiguration configuration) throws PositioningException {
+        Coordinates position = estimatePosition(beaconList, method, configuration);
+        if (!configuration.isSmoothPositions() || position == null) {
+            return position;
+        }
+
+        return smooth(position, method);
+    }
+
+    private synchronized Coordinates smooth(Coordinates position, PositioningMethod method) {
+        // Every method has its own filter, as positions of several methods are requested per scan
+        KalmanFilter kalmanFilter = mKalmanFilters[method.ordinal()];
+        if (kalmanFilter == null) {
+            kalmanFilter = new KalmanFilter();
+            mKalmanFilters[method.ordinal()] = kalmanFilter;
+        }
+
+        return kalmanFilter.smooth(position, SystemClock.elapsedRealtime());
+    }
+
+    private Coordinates estimatePosition(List<Beacon> beaconList, PositioningMethod method,
+                                         PositioningConfiguration configuration) throws PositioningException {
         if (beaconList == null || beaconList.isEmpty()) {
             throw new PositioningException("No beacons detected, unable to determine position");
         }
 
-        if (beaconList.size() < 3 && !mAllowLessThanThreeBeacons) {
+        if (beaconList.size() < 3 && !configuration.isAllowLessThanThreeBeacons()) {
             throw new PositioningException("Less than three beacons detected");
         }
 
@@ -134,11 +206,12 @@ public final class PositionProvider {
         }
 
         // List contains at least 3 beacons, perform lateration
-        // Sort list by distance
+        // Sort a copy by distance, the list of the caller is also shown in the beacon list
+        List<Beacon> sortedBeacons = new ArrayList<>(beaconList);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            beaconList.sort(Comparator.comparingDouble(mDistanceProvider::getDistance));
+            sortedBeacons.sort(Comparator.comparingDouble(mDistanceProvider::getDistance));
         } else {
-            Collections.sort(beaconList, (beacon, beacon2) ->
+            Collections.sort(sortedBeacons, (beacon, beacon2) ->
                     Double.compare(
                             mDistanceProvider.getDistance(beacon),
                             mDistanceProvider.getDistance(beacon2)
@@ -146,23 +219,26 @@ public final class PositionProvider {
             );
         }
 
-        Beacon beacon1 = beaconList.get(0);
-        Beacon beacon2 = beaconList.get(1);
-        Beacon beacon3 = beaconList.get(2);
+        Beacon beacon1 = sortedBeacons.get(0);
+        Beacon beacon2 = sortedBeacons.get(1);
+        Beacon beacon3 = sortedBeacons.get(2);
 
         Coordinates position = new Coordinates();
         switch (method) {
             case TRILATERATION:
-                position = trilateration(beacon1, beacon2, beacon3);
-                break;
-            case TRILATERATION2:
-                position = trilateration2(beacon1, beacon2, beacon3);
+            case LINE_INTERSECTION:
+            case LEAST_SQUARES:
+                position = trilateration(beacon1, beacon2, beacon3, method, sortedBeacons,
+                        configuration.getWeightExponent());
                 break;
             case WEIGHTED_CENTROID:
-                position = weightedCentroid(beaconList);
+                position = weightedCentroid(sortedBeacons, configuration.getWeightExponent());
                 break;
             case PROBABILITY:
-                position = probabilityBased(beaconList);
+                position = probabilityBased(sortedBeacons, configuration.getPdfSharpness());
+                break;
+            case MULTILATERATION:
+                position = multilateration(sortedBeacons, configuration.getWeightExponent());
                 break;
         }
 
@@ -195,9 +271,11 @@ public final class PositionProvider {
         return weightedMidPoint;
     }
 
-    // Reference: http://paulbourke.net/geometry/circlesphere/
-    private Coordinates trilateration(Beacon beacon1, Beacon beacon2, Beacon beacon3) throws PositioningException {
-        Log.d(LOG_TAG, "Using beacons: " + beacon1.getBluetoothName() + " and " + beacon2.getBluetoothName());
+    private synchronized Coordinates trilateration(Beacon beacon1, Beacon beacon2, Beacon beacon3,
+                                                   PositioningMethod method, List<Beacon> beaconList,
+                                                   double weightExponent) throws PositioningException {
+        Log.d(LOG_TAG, "Using beacons: " + beacon1.getBluetoothName() + ", " + beacon2.getBluetoothName()
+                + " and " + beacon3.getBluetoothName());
 
         Coordinates beacon1Coordinates = getCoordinates(beacon1);
         Coordinates beacon2Coordinates = getCoordinates(beacon2);
@@ -206,123 +284,64 @@ public final class PositionProvider {
             throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
         }
 
-        double x1 = beacon1Coordinates.getX();
-        double y1 = beacon1Coordinates.getY();
-
-        double x2 = beacon2Coordinates.getX();
-        double y2 = beacon2Coordinates.getY();
-
         // Convert distances to centimeters
         double r1 = mDistanceProvider.getDistance(beacon1) * 100;
         double r2 = mDistanceProvider.getDistance(beacon2) * 100;
+        double r3 = mDistanceProvider.getDistance(beacon3) * 100;
 
-        double distance = Math.hypot((x2 - x1), (y2 - y1));
-        if (distance < Math.abs(r1 - r2)) {
-            // No intersections exist, one circle is contained in the other
-            Log.d(LOG_TAG, "No intersections (one circle inside the other), using weighted centroid");
-            return weightedCentroid(Arrays.asList(beacon1, beacon2, beacon3));
+        // The solver writes into the returned position
+        Coordinates position = new Coordinates();
+        boolean solved;
+        switch (method) {
+            case LINE_INTERSECTION:
+                solved = Trilateration.lineIntersection(beacon1Coordinates.getX(), beacon1Coordinates.getY(), r1,
+                        beacon2Coordinates.getX(), beacon2Coordinates.getY(), r2,
+                        beacon3Coordinates.getX(), beacon3Coordinates.getY(), r3, position);
+                break;
+            case LEAST_SQUARES:
+                solved = leastSquares(beaconList, position);
+                break;
+            default:
+                solved = Trilateration.circleIntersection(beacon1Coordinates.getX(), beacon1Coordinates.getY(), r1,
+                        beacon2Coordinates.getX(), beacon2Coordinates.getY(), r2,
+                        beacon3Coordinates.getX(), beacon3Coordinates.getY(), position);
         }
 
-        if (distance > r1 + r2) {
-            // No intersections (due to inaccuracy), use weighted centroid
+        if (!solved) {
+            // No intersections (due to inaccuracy), use weighted centroid of the three beacons
             Log.d(LOG_TAG, "No intersections, using weighted centroid");
-            return weightedCentroid(Arrays.asList(beacon1, beacon2, beacon3));
+            return weightedCentroid(Arrays.asList(beacon1, beacon2, beacon3), weightExponent);
         }
 
-        // Calculate point p where the line through the intersection points crosses the line through
-        // the circle centers
-        Coordinates p = new Coordinates();
-        double a = (r1 * r1 - r2 * r2 + distance * distance) / (2 * distance);
-        p.setX(x1 + (a / distance) * (x2 - x1));
-        p.setY(y1 + (a / distance) * (y2 - y1));
-
-        if (distance == r1 + r2) {
-            // Only one intersection exists
-            Log.d(LOG_TAG, "Current position: " + p);
-            return p;
-        }
-
-        // Two intersections exist (due to inaccuracy)
-        double h = Math.sqrt(r1 * r1 - a * a);
-
-        // First intersection point
-        Coordinates firstIntersection = new Coordinates();
-        firstIntersection.setX(p.getX() + (h / distance) * (y2 - y1));
-        firstIntersection.setY(p.getY() - (h / distance) * (x2 - x1));
-
-        // Second intersection point
-        Coordinates secondIntersection = new Coordinates();
-        secondIntersection.setX(p.getX() - (h / distance) * (y2 - y1));
-        secondIntersection.setY(p.getY() + (h / distance) * (x2 - x1));
-
-        // Choose intersection point closest to the third beacon
-        if (Coordinates.calculateDistance(firstIntersection, beacon3Coordinates)
-                < Coordinates.calculateDistance(secondIntersection, beacon3Coordinates)) {
-            Log.d(LOG_TAG, "Current position: " + firstIntersection);
-            return firstIntersection;
-        }
-
-        Log.d(LOG_TAG, "Current position: " + secondIntersection);
-        return secondIntersection;
+        Log.d(LOG_TAG, "Current position: " + position);
+        return position;
     }
 
-    // Line intersection algorithm
-    // Reference: https://www.researchgate.net/publication/332805083_Hybrid_TOA_Trilateration_Algorithm_Based_on_Line_Intersection_and_Comparison_Approach_of_Intersection_Distances
-    private Coordinates trilateration2(Beacon beacon1, Beacon beacon2, Beacon beacon3) throws PositioningException {
-        Coordinates beacon1Coordinates = getCoordinates(beacon1);
-        Coordinates beacon2Coordinates = getCoordinates(beacon2);
-        Coordinates beacon3Coordinates = getCoordinates(beacon3);
-        if (beacon1Coordinates == null || beacon2Coordinates == null || beacon3Coordinates == null) {
-            throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
+    private boolean leastSquares(List<Beacon> beaconList, Coordinates result) {
+        // Use all beacons with known coordinates, not only the nearest three
+        if (beaconList.size() > mSolverX.length) {
+            mSolverX = new double[beaconList.size()];
+            mSolverY = new double[beaconList.size()];
+            mSolverRanges = new double[beaconList.size()];
         }
 
-        double x1 = beacon1Coordinates.getX();
-        double y1 = beacon1Coordinates.getY();
-
-        double x2 = beacon2Coordinates.getX();
-        double y2 = beacon2Coordinates.getY();
-
-        double x3 = beacon3Coordinates.getX();
-        double y3 = beacon3Coordinates.getY();
-
-        // Convert distances to centimeters
-        double r1 = mDistanceProvider.getDistance(beacon1) * 100;
-        double r2 = mDistanceProvider.getDistance(beacon2) * 100;
-        double r3 = mDistanceProvider.getDistance(beacon3) * 100;
-
-        double distance = Math.hypot((x2 - x1), (y2 - y1));
-        if (distance < Math.abs(r1 - r2)) {
-            // No intersections exist, one circle is contained in the other
-            Log.d(LOG_TAG, "No intersections, one circle inside the other");
-        }
+        int beaconCount = 0;
+        for (Beacon beacon : beaconList) {
+            Coordinates beaconCoordinates = getCoordinates(beacon);
+            if (beaconCoordinates == null) {
+                continue;
+            }
 
-        if (distance > r1 + r2) {
-            // No intersections (due to inaccuracy), use weighted midpoint
-            Log.d(LOG_TAG, "No intersections, no overlap");
+            mSolverX[beaconCount] = beaconCoordinates.getX();
+            mSolverY[beaconCount] = beaconCoordinates.getY();
+            mSolverRanges[beaconCount] = mDistanceProvider.getDistance(beacon) * 100;
+            beaconCount++;
         }
 
-        // r_i = sqrt((x - x_i)^2 + (y - y_i)^2), i = 1, 2, 3
-        // x + y + a_i*x + b_i*y + c_i = 0
-        double a1 = -2 * x1;
-        double a2 = -2 * x2;
-        double a3 = -2 * x3;
-
-        double b1 = -2 * y1;
-        double b2 = -2 * y2;
-        double b3 = -2 * y3;
-
-        double c1 = (x1 * x1) + (y1 * y1) - (r1 * r1);
-        double c2 = (x2 * x2) + (y2 * y2) - (r2 * r2);
-        double c3 = (x3 * x3) + (y3 * y3) - (r3 * r3);
-
-        double denominator = (a1 - a2) * (b2 - b3) - (a2 - a3) * (b1 - b2);
-        double x = ((c2 - c1) * (b2 - b3) - (c3 - c2) * (b1 - b2)) / denominator;
-        double y = ((c3 - c2) * (a1 - a2) - (c2 - c1) * (a2 - a3)) / denominator;
-
-        return new Coordinates(x, y);
+        return Trilateration.leastSquares(mSolverX, mSolverY, mSolverRanges, beaconCount, result);
     }
 
-    private Coordinates weightedCentroid(List<Beacon> beaconList) {
+    private Coordinates weightedCentroid(List<Beacon> beaconList, double weightExponent) {
         double x = 0, y = 0, weightSum = 0;
         for (Beacon beacon : beaconList) {
             Coordinates beaconCoordinates = getCoordinates(beacon);
@@ -331,7 +350,7 @@ public final class PositionProvider {
             }
 
             double distance = mDistanceProvider.getDistance(beacon);
-            double weight = 1 / Math.pow(distance, mWeightExponent);
+            double weight = 1 / Math.pow(distance, weightExponent);
 
             x += beaconCoordinates.getX() * weight;
             y += beaconCoordinates.getY() * weight;
@@ -344,47 +363,75 @@ public final class PositionProvider {
         return new Coordinates(x, y);
     }
 
-    private Coordinates probabilityBased(List<Beacon> beaconList) {
-        int stepSize = 20;
+    private synchronized Coordinates multilateration(List<Beacon> beaconList, double weightExponent) {
+        // Use all beacons with known coordinates, not only the nearest three
+        mMultilaterationSolver.clear();
+        for (Beacon beacon : beaconList) {
+            Coordinates beaconCoordinates = getCoordinates(beacon);
+            if (beaconCoordinates == null) {
+                continue;
+            }
 
-        double maxProbability = -1;
-        Coordinates bestCoordinates = null;
+            // Convert distance to centimeters
+            double range = mDistanceProvider.getDistance(beacon) * 100;
+            mMultilaterationSolver.addBeacon(beaconCoordinates.getX(), beaconCoordinates.getY(), range);
+        }
 
-        // TODO: make boundaries configurable
-        int xBoundary = 1200, yBoundary = 960;
-        for (int x = 0; x <= xBoundary; x += stepSize) {
-            for (int y = 0; y <= yBoundary; y += stepSize) {
-                if ((x > 700 && (x < 1140 || y > 620)) || (x <= 700 && y < 640 && y > 240)) {
-                    Coordinates coordinates = new Coordinates(x + stepSize / 2.0, y + stepSize / 2.0);
-                    double probability = getProbability(coordinates, beaconList, pdfSharpness);
+        if (mMultilaterationSolver.getBeaconCount() < 3) {
+            Log.d(LOG_TAG, "Less than three beacons with known coordinates, using weighted centroid");
+            return weightedCentroid(beaconList, weightExponent);
+        }
 
-                    if (probability > maxProbability) {
-                        maxProbability = probability;
-                        bestCoordinates = coordinates;
-                    }
-                }
-            }
+        // Start from the previous fix, or from the weighted centroid for the first one
+        double initialX = mMultilaterationX, initialY = mMultilaterationY;
+        if (!mHasMultilaterationFix) {
+            Coordinates centroid = weightedCentroid(beaconList, weightExponent);
+            initialX = centroid.getX();
+            initialY = centroid.getY();
         }
 
-        return bestCoordinates;
-    }
+        if (!mMultilaterationSolver.solve(initialX, initialY)) {
+            Log.d(LOG_TAG, "Multilateration failed, using weighted centroid");
+            return weightedCentroid(beaconList, weightExponent);
+        }
+
+        mHasMultilaterationFix = true;
+        mMultilaterationX = mMultilaterationSolver.getX();
+        mMultilaterationY = mMultilaterationSolver.getY();
 
-    private double getProbability(double distance, Beacon beacon) {
-        return 1 / (Math.pow(distance - mDistanceProvider.getDistance(beacon), 2) + mPdfSharpness);
+        Log.d(LOG_TAG, "Multilateration converged in " + mMultilaterationSolver.getIterationCount() + " iterations");
+        return new Coordinates(mMultilaterationX, mMultilaterationY);
     }
 
-    private double getProbability(Coordinates position, List<Beacon> beaconList) {
-        double probability = 1;
+    private synchronized Coordinates probabilityBased(List<Beacon> beaconList, double pdfSharpness) throws PositioningException {
+        ProbabilityGrid probabilityGrid = mProbabilityGrid;
+        if (probabilityGrid == null) {
+            throw new PositioningException("Could not retrieve beacon coordinates, please check your internet connection");
+        }
+
+        if (beaconList.size() > mGridColumns.length) {
+            mGridColumns = new int[beaconList.size()];
+            mGridDistances = new double[beaconList.size()];
+        }
+
+        // Collect the estimated distances of the beacons with known coordinates, in list order
+        int beaconCount = 0;
         for (Beacon beacon : beaconList) {
-            Coordinates beaconCoordinates = getCoordinates(beacon);
-            if (beaconCoordinates == null) {
+            int column = probabilityGrid.getBeaconColumn(beacon.getBluetoothAddress());
+            if (column < 0) {
                 continue;
             }
 
-            double distance = Coordinates.calculateDistance(position, beaconCoordinates) / 100;
-            probability *= getProbability(distance, beacon);
+            mGridColumns[beaconCount] = column;
+            mGridDistances[beaconCount] = mDistanceProvider.getDistance(beacon);
+            beaconCount++;
+        }
+
+        int cell = probabilityGrid.findMostProbableCell(mGridColumns, mGridDistances, beaconCount, pdfSharpness);
+        if (cell < 0) {
+            return null;
         }
 
-        return probability;
+        return new Coordinates(probabilityGrid.getCellX(cell), probabilityGrid.getCellY(cell));
     }
 }
@@ -0,0 +1,76 @@
+package com.rriesebos.positioningapp.positioning;
+
+/**
+ * Immutable set of parameters used to estimate a position from the distances to the detected
+ * beacons. A configuration can be shared freely between threads and sessions.
+ */
+public final class PositioningConfiguration {
+
+    public static final PositioningConfiguration DEFAULT =
+            new PositioningConfiguration(PositioningMethod.WEIGHTED_CENTROID, 1.0, 0.5, false);
+
+    private final PositioningMethod defaultPositioningMethod;
+    private final double weightExponent;
+    private final double pdfSharpness;
+    private final boolean allowLessThanThreeBeacons;
+    private final boolean smoothPositions;
+
+    public PositioningConfiguration(PositioningMethod defaultPositioningMethod, double weightExponent,
+                                    double pdfSharpness, boolean allowLessThanThreeBeacons) {
+        this(defaultPositioningMethod, weightExponent, pdfSharpness, allowLessThanThreeBeacons, false);
+    }
+
+    /**
+     * @param smoothPositions Whether estimated positions are smoothed by a Kalman filter
+     */
+    public PositioningConfiguration(PositioningMethod defaultPositioningMethod, double weightExponent,
+                                    double pdfSharpness, boolean allowLessThanThreeBeacons,
+                                    boolean smoothPositions) {
+        this.defaultPositioningMethod = defaultPositioningMethod;
+        this.weightExponent = weightExponent;
+        this.pdfSharpness = pdfSharpness;
+        this.allowLessThanThreeBeacons = allowLessThanThreeBeacons;
+        this.smoothPositions = smoothPositions;
+    }
+
+    public PositioningConfiguration withWeightExponent(double weightExponent) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, smoothPositions);
+    }
+
+    public PositioningConfiguration withPdfSharpness(double pdfSharpness) {
+        return new PositioningConfiguration(defaultPositioningMethod, weightExponent, pdfSharpness,
+                allowLessThanThreeBeacons, smoothPositions);
+    }
+
+    public PositioningMethod getDefaultPositioningMethod() {
+        return defaultPositioningMethod;
+    }
+
+    public double getWeightExponent() {
+        return weightExponent;
+    }
+
+    public double getPdfSharpness() {
+        return pdfSharpness;
+    }
+
+    public boolean isAllowLessThanThreeBeacons() {
+        return allowLessThanThreeBeacons;
+    }
+
+    public boolean isSmoothPositions() {
+        return smoothPositions;
+    }
+
+    @Override
+    public String toString() {
+        return "PositioningConfiguration{" +
+                "defaultPositioningMethod=" + defaultPositioningMethod +
+                ", weightExponent=" + weightExponent +
+                ", pdfSharpness=" + pdfSharpness +
+                ", allowLessThanThreeBeacons=" + allowLessThanThreeBeacons +
+                ", smoothPositions=" + smoothPositions +
+                '}';
+    }
+}
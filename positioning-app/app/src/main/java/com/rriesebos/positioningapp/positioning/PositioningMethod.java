@@ -6,9 +6,11 @@ import java.util.Map;
 public enum PositioningMethod {
 
     TRILATERATION("trilateration"),
-    TRILATERATION2("trilateration2"),
+    LINE_INTERSECTION("line_intersection"),
+    LEAST_SQUARES("least_squares"),
     WEIGHTED_CENTROID("weighted_centroid"),
-    PROBABILITY("probability");
+    PROBABILITY("probability"),
+    MULTILATERATION("multilateration");
 
     private final String name;
     private static final Map<String, PositioningMethod> valuesByName;
@@ -0,0 +1,133 @@
+package com.rriesebos.positioningapp.positioning;
+
+import com.rriesebos.positioningapp.model.Coordinates;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Grid of candidate positions used by the probability based positioning method, precomputed for a
+ * beacon layout: the centers of all grid cells within the building, and the distance from every
+ * cell to every beacon. Evaluating a position is then a loop over primitive arrays.
+ */
+public final class ProbabilityGrid {
+
+    private static final int STEP_SIZE = 20;
+
+    // TODO: make boundaries configurable
+    private static final int X_BOUNDARY = 1200, Y_BOUNDARY = 960;
+
+    private final int mCellCount;
+    private final double[] mCellX, mCellY;
+
+    private final Map<String, Integer> mBeaconColumns;
+    private final int mBeaconCount;
+
+    // Distance in meters from every cell to every beacon, one row of beacons per cell
+    private final double[] mDistances;
+
+    private ProbabilityGrid(double[] cellX, double[] cellY, int cellCount, Map<String, Integer> beaconColumns,
+                            double[] distances) {
+        mCellX = cellX;
+        mCellY = cellY;
+        mCellCount = cellCount;
+        mBeaconColumns = beaconColumns;
+        mBeaconCount = beaconColumns.size();
+        mDistances = distances;
+    }
+
+    /**
+     * @param beaconCoordinatesMap Coordinates of the beacons (in centimeters) by Bluetooth address
+     * @return Returns the grid for the given beacon layout
+     */
+    public static ProbabilityGrid create(Map<String, Coordinates> beaconCoordinatesMap) {
+        int maxCells = (X_BOUNDARY / STEP_SIZE + 1) * (Y_BOUNDARY / STEP_SIZE + 1);
+        double[] cellX = new double[maxCells];
+        double[] cellY = new double[maxCells];
+
+        // Cells are ordered as they were visited by the original grid search (x first, then y)
+        int cellCount = 0;
+        for (int x = 0; x <= X_BOUNDARY; x += STEP_SIZE) {
+            for (int y = 0; y <= Y_BOUNDARY; y += STEP_SIZE) {
+                // Only include coordinates within the building
+                if ((x > 700 && (x < 1140 || y > 620)) || (x <= 700 && y < 640 && y > 240)) {
+                    cellX[cellCount] = x + STEP_SIZE / 2.0;
+                    cellY[cellCount] = y + STEP_SIZE / 2.0;
+                    cellCount++;
+                }
+            }
+        }
+
+        Map<String, Integer> beaconColumns = new HashMap<>();
+        Coordinates[] beaconCoordinates = new Coordinates[beaconCoordinatesMap.size()];
+        for (Map.Entry<String, Coordinates> entry : beaconCoordinatesMap.entrySet()) {
+            beaconCoordinates[beaconColumns.size()] = entry.getValue();
+            beaconColumns.put(entry.getKey(), beaconColumns.size());
+        }
+
+        int beaconCount = beaconCoordinates.length;
+        double[] distances = new double[cellCount * beaconCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            Coordinates cellCoordinates = new Coordinates(cellX[cell], cellY[cell]);
+            for (int beacon = 0; beacon < beaconCount; beacon++) {
+                distances[cell * beaconCount + beacon] =
+                        Coordinates.calculateDistance(cellCoordinates, beaconCoordinates[beacon]) / 100;
+            }
+        }
+
+        return new ProbabilityGrid(cellX, cellY, cellCount, beaconColumns, distances);
+    }
+
+    public int getCellCount() {
+        return mCellCount;
+    }
+
+    public double getCellX(int cell) {
+        return mCellX[cell];
+    }
+
+    public double getCellY(int cell) {
+        return mCellY[cell];
+    }
+
+    /**
+     * @param beaconAddress Bluetooth address of the beacon
+     * @return Returns the column of the beacon in the distance table, or -1 if the beacon is not part
+     * of the layout
+     */
+    public int getBeaconColumn(String beaconAddress) {
+        Integer column = mBeaconColumns.get(beaconAddress);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * Finds the cell that maximizes the product of 1 / ((cell distance - estimated distance)^2 + pdf
+     * sharpness) over the given beacons.
+     *
+     * @param columns Columns of the beacons in the distance table
+     * @param estimatedDistances Estimated distance to each beacon, in meters
+     * @param beaconCount Number of beacons to use from the arrays
+     * @param pdfSharpness Sharpness of the probability density function
+     * @return Returns the most probable cell (the first one in case of a tie), or -1 if the grid is
+     * empty
+     */
+    public int findMostProbableCell(int[] columns, double[] estimatedDistances, int beaconCount, double pdfSharpness) {
+        double maxProbability = -1;
+        int bestCell = -1;
+
+        for (int cell = 0, row = 0; cell < mCellCount; cell++, row += mBeaconCount) {
+            double probability = 1;
+            for (int i = 0; i < beaconCount; i++) {
+                double distance = mDistances[row + columns[i]];
+                probability *= 1 / (Math.pow(distance - estimatedDistances[i], 2) + pdfSharpness);
+            }
+
+            if (probability > maxProbability) {
+                maxProbability = probability;
+                bestCell = cell;
+            }
+        }
+
+        return bestCell;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rriesebos.positioningapp.positioning;
+
+/**
+ * Fixed capacity ring buffer of RSSI measurements. Once the buffer is full, adding a measurement
+ * overwrites the oldest one, so adding never allocates. The statistics of the window are kept up to
+ * date while measurements are added and removed.
+ */
+public final class RssiWindow {
+
+    private final int[] mValues;
+    private int mStart, mSize;
+
+    private final WindowStatistics mStatistics;
+
+    public RssiWindow(int capacity) {
+        mValues = new int[capacity];
+        mStatistics = new WindowStatistics(this, capacity);
+    }
+
+    public void add(int rssi) {
+        if (mSize == mValues.length) {
+            // Drop the oldest measurement
+            mStatistics.remove(mValues[mStart]);
+            mStatistics.add(rssi);
+            mValues[mStart] = rssi;
+            mStart = mStart + 1 == mValues.length ? 0 : mStart + 1;
+            return;
+        }
+
+        mStatistics.add(rssi);
+
+        int end = mStart + mSize;
+        mValues[end < mValues.length ? end : end - mValues.length] = rssi;
+        mSize++;
+    }
+
+    public void removeOldest() {
+        if (mSize == 0) {
+            return;
+        }
+
+        mStatistics.remove(mValues[mStart]);
+        mStart = mStart + 1 == mValues.length ? 0 : mStart + 1;
+        mSize--;
+    }
+
+    /**
+     * @param index Index in the window, 0 is the oldest measurement
+     * @return Returns the measurement with the given index
+     */
+    public int get(int index) {
+        int position = mStart + index;
+        return mValues[position < mValues.length ? position : position - mValues.length];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int capacity() {
+        return mValues.length;
+    }
+
+    public WindowStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+        mStatistics.clear();
+    }
+}
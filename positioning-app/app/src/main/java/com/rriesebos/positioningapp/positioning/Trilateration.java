@@ -0,0 +1,168 @@
+package com.rriesebos.positioningapp.positioning;
+
+import com.rriesebos.positioningapp.model.Coordinates;
+
+/**
+ * Closed-form solvers that estimate a position from the coordinates of beacons and the estimated
+ * distances to them (all in centimeters). The solvers allocate nothing: the position is written to
+ * a coordinates holder provided by the caller, which can be reused, and the solvers return whether
+ * a position was found. If not, the holder is left unchanged.
+ */
+public final class Trilateration {
+
+    // Distances are clamped to this value (in centimeters) when weighting, to bound the weights
+    private static final double MIN_WEIGHTED_RANGE = 10;
+
+    private Trilateration() {
+    }
+
+    /**
+     * Intersects the circles around the first two beacons, and picks the intersection nearest to the
+     * third beacon. Reference: http://paulbourke.net/geometry/circlesphere/
+     *
+     * @return Returns whether the circles intersect
+     */
+    public static boolean circleIntersection(double x1, double y1, double r1, double x2, double y2, double r2,
+                                             double x3, double y3, Coordinates result) {
+        double distance = Math.hypot((x2 - x1), (y2 - y1));
+        if (distance < Math.abs(r1 - r2)) {
+            // No intersections exist, one circle is contained in the other
+            return false;
+        }
+
+        if (distance > r1 + r2) {
+            // No intersections (due to inaccuracy)
+            return false;
+        }
+
+        // Calculate point p where the line through the intersection points crosses the line through
+        // the circle centers
+        double a = (r1 * r1 - r2 * r2 + distance * distance) / (2 * distance);
+        double px = x1 + (a / distance) * (x2 - x1);
+        double py = y1 + (a / distance) * (y2 - y1);
+
+        if (distance == r1 + r2) {
+            // Only one intersection exists
+            result.setX(px);
+            result.setY(py);
+            return true;
+        }
+
+        // Two intersections exist (due to inaccuracy)
+        double h = Math.sqrt(r1 * r1 - a * a);
+
+        double firstX = px + (h / distance) * (y2 - y1);
+        double firstY = py - (h / distance) * (x2 - x1);
+
+        double secondX = px - (h / distance) * (y2 - y1);
+        double secondY = py + (h / distance) * (x2 - x1);
+
+        // Choose intersection point closest to the third beacon
+        if (getDistance(firstX, firstY, x3, y3) < getDistance(secondX, secondY, x3, y3)) {
+            result.setX(firstX);
+            result.setY(firstY);
+        } else {
+            result.setX(secondX);
+            result.setY(secondY);
+        }
+
+        return true;
+    }
+
+    /**
+     * Intersects the radical lines of the circles around the three beacons: subtracting the circle
+     * equations pairwise cancels the quadratic terms, leaving two linear equations. Unlike the circle
+     * intersection, this also finds a position when the circles do not intersect.
+     *
+     * @return Returns whether the beacons are not collinear, so the lines intersect
+     */
+    public static boolean lineIntersection(double x1, double y1, double r1, double x2, double y2, double r2,
+                                           double x3, double y3, double r3, Coordinates result) {
+        // r_i = sqrt((x - x_i)^2 + (y - y_i)^2), i = 1, 2, 3
+        // x^2 + y^2 + a_i*x + b_i*y + c_i = 0
+        double a1 = -2 * x1;
+        double a2 = -2 * x2;
+        double a3 = -2 * x3;
+
+        double b1 = -2 * y1;
+        double b2 = -2 * y2;
+        double b3 = -2 * y3;
+
+        double c1 = (x1 * x1) + (y1 * y1) - (r1 * r1);
+        double c2 = (x2 * x2) + (y2 * y2) - (r2 * r2);
+        double c3 = (x3 * x3) + (y3 * y3) - (r3 * r3);
+
+        double denominator = (a1 - a2) * (b2 - b3) - (a2 - a3) * (b1 - b2);
+        if (denominator == 0) {
+            return false;
+        }
+
+        result.setX(((c2 - c1) * (b2 - b3) - (c3 - c2) * (b1 - b2)) / denominator);
+        result.setY(((c3 - c2) * (a1 - a2) - (c2 - c1) * (a2 - a3)) / denominator);
+        return true;
+    }
+
+    /**
+     * Linear least squares over any number of beacons. With R = x^2 + y^2 as a third unknown, every
+     * circle equation becomes linear: -2 * x_i * x - 2 * y_i * y + R = r_i^2 - x_i^2 - y_i^2. The
+     * residual of an equation is about 2 * r_i times the range error, and the range error itself
+     * grows with the distance, so equations are weighted by 1 / r_i^4. For three beacons the system
+     * is exactly determined, and the solution is the intersection of the radical lines.
+     *
+     * @param beaconCount Number of beacons to use from the arrays, at least three
+     * @return Returns whether the system has a unique solution: not for collinear beacons, nor when a
+     * beacon at a very short range outweighs the others so much that the normal equations cannot be
+     * solved accurately (the nearest beacon is a better estimate anyway)
+     */
+    public static boolean leastSquares(double[] x, double[] y, double[] r, int beaconCount, Coordinates result) {
+        // Normal equations N * (x, y, R) = v, with N symmetric
+        double n11 = 0, n12 = 0, n13 = 0, n22 = 0, n23 = 0, n33 = 0;
+        double v1 = 0, v2 = 0, v3 = 0;
+        for (int i = 0; i < beaconCount; i++) {
+            double weightedRange = Math.max(r[i], MIN_WEIGHTED_RANGE);
+            double squaredRange = weightedRange * weightedRange;
+            double weight = 1 / (squaredRange * squaredRange);
+
+            double ax = -2 * x[i];
+            double ay = -2 * y[i];
+            double b = r[i] * r[i] - x[i] * x[i] - y[i] * y[i];
+
+            n11 += weight * ax * ax;
+            n12 += weight * ax * ay;
+            n13 += weight * ax;
+            n22 += weight * ay * ay;
+            n23 += weight * ay;
+            n33 += weight;
+            v1 += weight * ax * b;
+            v2 += weight * ay * b;
+            v3 += weight * b;
+        }
+
+        // Cramer's rule, with the cofactors of the first row
+        double c11 = n22 * n33 - n23 * n23;
+        double c12 = n13 * n23 - n12 * n33;
+        double c13 = n12 * n23 - n13 * n22;
+        double determinant = n11 * c11 + n12 * c12 + n13 * c13;
+
+        // The matrix is singular for collinear beacons, compare relative to its scale
+        if (!(Math.abs(determinant) > 1e-12 * Math.abs(n11 * n22 * n33))) {
+            return false;
+        }
+
+        double solutionX = (v1 * c11 + v2 * c12 + v3 * c13) / determinant;
+        double solutionY = (v1 * c12 + v2 * (n11 * n33 - n13 * n13) + v3 * (n12 * n13 - n11 * n23)) / determinant;
+        if (Double.isNaN(solutionX) || Double.isNaN(solutionY)
+                || Double.isInfinite(solutionX) || Double.isInfinite(solutionY)) {
+            return false;
+        }
+
+        result.setX(solutionX);
+        result.setY(solutionY);
+        return true;
+    }
+
+    // "Naive" implementation instead of Math.hypot() to prevent overhead of checking for overflows
+    private static double getDistance(double x1, double y1, double x2, double y2) {
+        return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
+    }
+}
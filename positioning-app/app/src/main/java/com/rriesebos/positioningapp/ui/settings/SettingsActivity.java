@@ -30,6 +30,7 @@ public class SettingsActivity extends AppCompatActivity implements SharedPrefere
 
         if (key.equals(getString(R.string.key_positioning_method))
                 || key.equals(getString(R.string.key_allow_less_than_three_beacons))
+                || key.equals(getString(R.string.key_smooth_positions))
                 || key.equals(getString(R.string.key_weight_exponent))
                 || key.equals(getString(R.string.key_pdf_sharpness))) {
             positionProvider.updateParameters(getApplicationContext());